@@ -0,0 +1,59 @@
+package com.wordVectorRetrofit.benchmarks;
+
+import com.wordVectorRetrofit.util.VectorProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cosine similarity of two vectors, through whichever kernels {@code VectorKernels} selected.
+ * The vectors cycle through a pool larger than the L1 cache so that successive calls do not
+ * reuse the same operands.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector"})
+@State(Scope.Thread)
+public class CosineBenchmark {
+
+    private static final int POOL = 1024;
+
+    @Param({"50", "100", "300"})
+    public int dimension;
+
+    private double[][] vectors;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Fixtures.quietLogging();
+        SplittableRandom random = new SplittableRandom(SyntheticData.SEED);
+        vectors = new double[POOL][dimension];
+        for (double[] vector : vectors) {
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = random.nextDouble(-1, 1);
+            }
+        }
+    }
+
+    @Benchmark
+    public double cosineSimilarity() {
+        int i = next;
+        next = (i + 1) & (POOL - 1);
+        return VectorProcessor.cosineSimilarity(vectors[i], vectors[(i + POOL / 2) & (POOL - 1)]);
+    }
+}
@@ -0,0 +1,99 @@
+package com.wordVectorRetrofit.benchmarks;
+
+import com.wordVectorRetrofit.util.FileOperations;
+import com.wordVectorRetrofit.util.VectorStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and writing of embedding files and reading of lexicons, on the synthetic files of
+ * {@link SyntheticData}. Files are generated before the first measurement and stay in the page
+ * cache, so this measures parsing and encoding rather than the disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Xmx4g"})
+public class FileBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Vectors {
+        @Param({"10000", "50000"})
+        public int vocabulary;
+
+        @Param({"50", "300"})
+        public int dimension;
+
+        String file;
+        VectorStore store;
+        Path output;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            Fixtures.quietLogging();
+            file = SyntheticData.vectors(vocabulary, dimension).toString();
+            store = FileOperations.readWordVectors(file);
+            output = Files.createTempFile("wvr-bench-out", ".txt");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Lexicon {
+        @Param({"10000", "50000"})
+        public int vocabulary;
+
+        @Param({"5", "20"})
+        public int degree;
+
+        String file;
+        VectorStore vectors;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Fixtures.quietLogging();
+            file = SyntheticData.lexicon(vocabulary, degree).toString();
+            // The lexicon reuses the vocabulary's strings; a small dimension keeps the setup quick.
+            vectors = Fixtures.vectors(vocabulary, 50);
+        }
+    }
+
+    @Benchmark
+    public VectorStore readWordVectors(Vectors state) throws IOException {
+        return FileOperations.readWordVectors(state.file);
+    }
+
+    @Benchmark
+    public Path writeWordVectors(Vectors state) throws IOException {
+        FileOperations.writeWordVectors(state.store, state.output.toString());
+        return state.output;
+    }
+
+    @Benchmark
+    public Map<String, List<String>> readLexicon(Lexicon state) throws IOException {
+        return FileOperations.readLexicon(state.file, state.vectors.vocabulary());
+    }
+}
@@ -0,0 +1,95 @@
+package com.wordVectorRetrofit.benchmarks;
+
+import com.wordVectorRetrofit.service.VectorService;
+import com.wordVectorRetrofit.util.AlignmentIndex;
+import com.wordVectorRetrofit.util.RetrofitOptions;
+import com.wordVectorRetrofit.util.VectorStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Threshold filtering of a vectorized {@link VectorService}: the filter itself, answered from the
+ * alignment index, and building that index from the original and retrofitted vectors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class FilterBenchmark {
+
+    @Param({"10000", "50000"})
+    public int vocabulary;
+
+    @Param({"50", "300"})
+    public int dimension;
+
+    @Param({"10"})
+    public int degree;
+
+    private VectorService service;
+    private VectorStore original;
+    private VectorStore retrofitted;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        original = Fixtures.vectors(vocabulary, dimension);
+        Map<String, List<String>> lexicon = Fixtures.lexicon(vocabulary, degree, original);
+        service = new VectorService();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicBoolean failed = new AtomicBoolean();
+        service.vectorize(original, lexicon, new RetrofitOptions().setNumIterations(10), elapsed -> done.countDown(),
+                (state, cause) -> {
+                    failed.set(true);
+                    done.countDown();
+                }, (iteration, maxIterations) -> { });
+        done.await();
+        if (failed.get()) {
+            throw new IllegalStateException("Vectorization failed; see the log above.");
+        }
+        retrofitted = service.getRetrofittedVectors();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.cancelJobs();
+    }
+
+    @State(Scope.Thread)
+    public static class Threshold {
+        @Param({"0.5", "0.9"})
+        public double threshold;
+    }
+
+    /** Count, average and words at or above the threshold; the result is the count. */
+    @Benchmark
+    public int filterWords(Threshold state) {
+        int[] count = {-1};
+        service.filterWords(state.threshold, (passed, average) -> count[0] = passed, (outcome, cause) -> { });
+        return count[0];
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public AlignmentIndex buildAlignmentIndex() {
+        return AlignmentIndex.build(original, retrofitted);
+    }
+}
@@ -0,0 +1,45 @@
+package com.wordVectorRetrofit.benchmarks;
+
+import com.wordVectorRetrofit.util.FileOperations;
+import com.wordVectorRetrofit.util.LoggerUtil;
+import com.wordVectorRetrofit.util.VectorStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads the synthetic inputs for a benchmark's setup, with the application's progress logging
+ * turned down so that it neither pollutes the JMH output nor is measured.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static void quietLogging() {
+        LoggerUtil.setLevel(LoggerUtil.LogLevel.WARNING);
+        Logger.getLogger("").setLevel(Level.WARNING);
+    }
+
+    static VectorStore vectors(int vocabulary, int dimension) {
+        quietLogging();
+        try {
+            return FileOperations.readWordVectors(SyntheticData.vectors(vocabulary, dimension).toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Map<String, List<String>> lexicon(int vocabulary, int degree, VectorStore vectors) {
+        quietLogging();
+        try {
+            return FileOperations.readLexicon(SyntheticData.lexicon(vocabulary, degree).toString(), vectors.vocabulary());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.wordVectorRetrofit.benchmarks;
+
+import com.wordVectorRetrofit.util.NeighborGraph;
+import com.wordVectorRetrofit.util.RetrofitOptions;
+import com.wordVectorRetrofit.util.RetrofitProgress;
+import com.wordVectorRetrofit.util.VectorProcessor;
+import com.wordVectorRetrofit.util.VectorStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retrofitting a fixed number of iterations, and resolving the lexicon into the neighbor graph
+ * it runs on. The tolerance is 0 so that every run does the same work.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class RetrofitBenchmark {
+
+    private static final RetrofitProgress NO_PROGRESS = (iteration, maxIterations, maxResidual, meanResidual) -> { };
+
+    @Param({"10000", "50000"})
+    public int vocabulary;
+
+    @Param({"50", "300"})
+    public int dimension;
+
+    @Param({"5", "20"})
+    public int degree;
+
+    @Param({"JACOBI"})
+    public RetrofitOptions.Mode mode;
+
+    @Param({"10"})
+    public int iterations;
+
+    /** Jacobi worker threads; 0 uses every core. Pass {@code -p threads=1,2,4} to measure scaling. */
+    @Param({"0"})
+    public int threads;
+
+    private VectorStore vectors;
+    private Map<String, List<String>> lexicon;
+    private NeighborGraph graph;
+    private RetrofitOptions options;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        vectors = Fixtures.vectors(vocabulary, dimension);
+        lexicon = Fixtures.lexicon(vocabulary, degree, vectors);
+        graph = NeighborGraph.build(lexicon, vectors);
+        options = new RetrofitOptions()
+                .setNumIterations(iterations)
+                .setTolerance(0)
+                .setMode(mode);
+        if (threads > 0) {
+            options.setThreads(threads);
+        }
+    }
+
+    @Benchmark
+    public VectorStore retrofit() {
+        return VectorProcessor.retrofit(vectors, graph, options, NO_PROGRESS);
+    }
+
+    @Benchmark
+    public NeighborGraph buildGraph() {
+        return NeighborGraph.build(lexicon, vectors);
+    }
+}
@@ -0,0 +1,94 @@
+package com.wordVectorRetrofit.benchmarks;
+
+import com.wordVectorRetrofit.util.FileOperations;
+import com.wordVectorRetrofit.util.RetrofitOptions;
+import com.wordVectorRetrofit.util.VectorProcessor;
+import com.wordVectorRetrofit.util.VectorStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs Jacobi retrofitting with 1, 2, 4, ... up to all available cores and prints the time and
+ * speedup per thread count (best of three runs after a warm-up), checking that every run matches the single-threaded result exactly.
+ * Without files it runs on the synthetic 50000 word, 300 dimension vectors and a degree 10
+ * lexicon of {@link SyntheticData}. {@link RetrofitBenchmark} measures the same call under JMH;
+ * use {@code -p threads=1,2,4} there for statistically sound per-thread timings.
+ *
+ * Usage: RetrofitScaling [vectors lexicon [iterations]]
+ */
+public class RetrofitScaling {
+
+    private static final int WARMUP_RUNS = 3;
+    /** Timed runs per thread count; the fastest is reported. */
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 1 || args.length > 3) {
+            System.err.println("Usage: RetrofitScaling [<vectors> <lexicon> [iterations]]");
+            System.exit(2);
+        }
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        Fixtures.quietLogging();
+        String vectorFile = args.length > 0 ? args[0] : SyntheticData.vectors(50000, 300).toString();
+        String lexiconFile = args.length > 0 ? args[1] : SyntheticData.lexicon(50000, 10).toString();
+        VectorStore vectors = FileOperations.readWordVectors(vectorFile);
+        Map<String, List<String>> lexicon = FileOperations.readLexicon(lexiconFile, vectors.vocabulary());
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(cores);
+
+        // Untimed runs, so that the first thread count is not charged for class loading and JIT compilation.
+        for (int warmup = 0; warmup < WARMUP_RUNS; warmup++) {
+            VectorProcessor.retrofit(vectors, lexicon, new RetrofitOptions().setNumIterations(iterations)
+                    .setMode(RetrofitOptions.Mode.JACOBI).setThreads(cores), (current, total) -> { });
+        }
+
+        VectorStore baseline = null;
+        double baselineSeconds = 0;
+        List<String> rows = new ArrayList<>();
+        for (int threads : threadCounts) {
+            RetrofitOptions options = new RetrofitOptions()
+                    .setNumIterations(iterations)
+                    .setMode(RetrofitOptions.Mode.JACOBI)
+                    .setThreads(threads);
+            VectorStore result = null;
+            double seconds = Double.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                result = VectorProcessor.retrofit(vectors, lexicon, options, (current, total) -> { });
+                seconds = Math.min(seconds, (System.nanoTime() - start) / 1e9);
+            }
+
+            if (baseline == null) {
+                baseline = result;
+                baselineSeconds = seconds;
+            }
+            rows.add(String.format("%7d %10.3f %8.2fx %10s", threads, seconds, baselineSeconds / seconds,
+                    sameRows(baseline, result) ? "yes" : "NO"));
+        }
+
+        System.out.println(String.format("%7s %10s %9s %10s", "threads", "seconds", "speedup", "identical"));
+        rows.forEach(System.out::println);
+    }
+
+    private static boolean sameRows(VectorStore a, VectorStore b) {
+        double[] rowA = new double[a.dimension()];
+        double[] rowB = new double[b.dimension()];
+        for (int row = 0; row < a.size(); row++) {
+            a.readRow(row, rowA);
+            b.readRow(row, rowB);
+            if (!Arrays.equals(rowA, rowB)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,185 @@
+package com.wordVectorRetrofit.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic synthetic inputs for the benchmarks: embedding files in the whitespace separated
+ * text format and lexicons whose degrees follow a power law.
+ *
+ * Words are {@code w0, w1, ...} and the same parameters and seed always give the same bytes, so
+ * runs on different machines or commits measure the same input. Files are generated once into
+ * {@link #DIRECTORY} and reused by later runs and forks.
+ *
+ * Usage: SyntheticData directory vocabulary dimension degree
+ */
+public final class SyntheticData {
+
+    /** Where generated files are kept: the {@code wvr.bench.data} property, or wvr-bench in the temp directory. */
+    public static final Path DIRECTORY = Paths.get(System.getProperty("wvr.bench.data",
+            Paths.get(System.getProperty("java.io.tmpdir"), "wvr-bench").toString()));
+    public static final long SEED = 42L;
+
+    /** Words of the vocabulary are grouped around this many random directions. */
+    private static final int CLUSTERS = 64;
+    /** Shape of the Pareto distribution of lexicon degrees; below 3 the variance is unbounded, like real lexicons. */
+    private static final double DEGREE_SHAPE = 2.5;
+    private static final int MAX_DEGREE = 1000;
+    /** Share of the vocabulary that heads a lexicon entry. */
+    private static final double HEAD_SHARE = 0.5;
+    /** Share of neighbors that are not in the vocabulary, as in lexicons built from other corpora. */
+    private static final double MISSING_SHARE = 0.05;
+
+    private SyntheticData() {
+    }
+
+    public static String word(int index) {
+        return "w" + index;
+    }
+
+    /**
+     * Path of an embedding file of {@code vocabulary} words and {@code dimension} values, generated
+     * if it does not exist yet.
+     */
+    public static Path vectors(int vocabulary, int dimension) {
+        return vectors(DIRECTORY, vocabulary, dimension);
+    }
+
+    public static Path vectors(Path directory, int vocabulary, int dimension) {
+        Path file = directory.resolve(String.format("vectors-v%d-d%d-s%d.txt", vocabulary, dimension, SEED));
+        return ensure(file, out -> writeVectors(out, vocabulary, dimension, SEED));
+    }
+
+    /**
+     * Path of a lexicon over the words of a {@code vocabulary} word embedding file with on average
+     * {@code degree} neighbors per entry, generated if it does not exist yet.
+     */
+    public static Path lexicon(int vocabulary, int degree) {
+        return lexicon(DIRECTORY, vocabulary, degree);
+    }
+
+    public static Path lexicon(Path directory, int vocabulary, int degree) {
+        Path file = directory.resolve(String.format("lexicon-v%d-k%d-s%d.txt", vocabulary, degree, SEED));
+        return ensure(file, out -> writeLexicon(out, vocabulary, degree, SEED));
+    }
+
+    /**
+     * Writes one line per word: the word and {@code dimension} values with five decimals. Each
+     * vector is a random cluster direction plus Gaussian noise, so that neighborhoods and cosine
+     * similarities are spread like those of trained embeddings rather than all near zero.
+     */
+    public static void writeVectors(BufferedWriter out, int vocabulary, int dimension, long seed) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        double[][] centers = new double[CLUSTERS][dimension];
+        for (double[] center : centers) {
+            for (int i = 0; i < dimension; i++) {
+                center[i] = random.nextDouble(-1, 1);
+            }
+        }
+        StringBuilder line = new StringBuilder(dimension * 10);
+        for (int w = 0; w < vocabulary; w++) {
+            double[] center = centers[random.nextInt(CLUSTERS)];
+            line.setLength(0);
+            line.append(word(w));
+            for (int i = 0; i < dimension; i++) {
+                appendFixed(line.append(' '), center[i] + 0.5 * gaussian(random));
+            }
+            out.write(line.append('\n').toString());
+        }
+    }
+
+    /**
+     * Writes one line per entry: a head word and its neighbors. Entry degrees are Pareto
+     * distributed with the given mean, and neighbors are drawn with a probability that falls with
+     * their rank, so a few words appear in many entries, as in WordNet or PPDB lexicons.
+     */
+    public static void writeLexicon(BufferedWriter out, int vocabulary, int degree, long seed) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed ^ 0x5DEECE66DL);
+        // Minimum of the Pareto distribution that gives the requested mean.
+        double minimum = degree * (DEGREE_SHAPE - 1) / DEGREE_SHAPE;
+        StringBuilder line = new StringBuilder();
+        for (int w = 0; w < vocabulary; w++) {
+            if (random.nextDouble() >= HEAD_SHARE) {
+                continue;
+            }
+            int neighbors = (int) Math.min(MAX_DEGREE,
+                    Math.max(1, Math.round(minimum / Math.pow(1 - random.nextDouble(), 1 / DEGREE_SHAPE))));
+            line.setLength(0);
+            line.append(word(w));
+            for (int n = 0; n < neighbors; n++) {
+                line.append(' ');
+                if (random.nextDouble() < MISSING_SHARE) {
+                    line.append("x").append(random.nextInt(vocabulary));
+                } else {
+                    line.append(word(zipfRank(random, vocabulary)));
+                }
+            }
+            out.write(line.append('\n').toString());
+        }
+    }
+
+    /** Rank in {@code [0, n)} with probability roughly proportional to {@code 1 / (rank + 1)}. */
+    private static int zipfRank(SplittableRandom random, int n) {
+        return Math.min(n - 1, (int) Math.exp(random.nextDouble() * Math.log(n + 1.0)) - 1);
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        double u = 1 - random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    /** Appends the value with five decimals, without the cost of {@code String.format}. */
+    private static void appendFixed(StringBuilder line, double value) {
+        long scaled = Math.round(value * 100000);
+        if (scaled < 0) {
+            line.append('-');
+            scaled = -scaled;
+        }
+        line.append(scaled / 100000).append('.');
+        String decimals = Long.toString(scaled % 100000);
+        for (int pad = decimals.length(); pad < 5; pad++) {
+            line.append('0');
+        }
+        line.append(decimals);
+    }
+
+    private interface Generator {
+        void write(BufferedWriter out) throws IOException;
+    }
+
+    /** Generates the file unless it exists, writing to a temporary file first so that a partial file is never reused. */
+    private static synchronized Path ensure(Path file, Generator generator) {
+        if (Files.exists(file)) {
+            return file;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path partial = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".partial");
+            try (BufferedWriter out = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+                generator.write(out);
+            }
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to generate " + file, e);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.err.println("Usage: SyntheticData <directory> <vocabulary> <dimension> <degree>");
+            System.exit(2);
+        }
+        Path directory = Paths.get(args[0]);
+        int vocabulary = Integer.parseInt(args[1]);
+        System.out.println(vectors(directory, vocabulary, Integer.parseInt(args[2])));
+        System.out.println(lexicon(directory, vocabulary, Integer.parseInt(args[3])));
+    }
+}
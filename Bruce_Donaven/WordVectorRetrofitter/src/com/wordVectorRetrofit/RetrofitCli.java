@@ -0,0 +1,287 @@
+package com.wordVectorRetrofit;
+
+import com.wordVectorRetrofit.service.EmbeddingServer;
+import com.wordVectorRetrofit.service.FileService;
+import com.wordVectorRetrofit.service.VectorService;
+import com.wordVectorRetrofit.util.FileOperations;
+import com.wordVectorRetrofit.util.LoggerUtil;
+import com.wordVectorRetrofit.util.Precision;
+import com.wordVectorRetrofit.util.RetrofitOptions;
+import com.wordVectorRetrofit.util.VectorStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Headless batch entry point: load vectors and lexicon, retrofit, optionally filter, export.
+ * Nothing here touches JavaFX, so it runs on servers without a display.
+ *
+ * Log messages go to standard error. Standard output gets one JSON object per stage with its
+ * timing, for example {@code {"stage":"retrofit","seconds":1.234,"iterations":9}}, followed by a
+ * {@code "total"} record; values that are not known, such as the residual when no iteration ran,
+ * are {@code null}. The exit status is 0 on success or {@code --help}, 1 if a stage fails and 2
+ * for bad arguments.
+ * With {@code --serve} the vectors are then served over HTTP by an {@link EmbeddingServer} until
+ * the process is killed.
+ *
+ * Usage: RetrofitCli --vectors FILE --lexicon FILE (--output FILE | --serve PORT) [options]
+ */
+public class RetrofitCli {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: RetrofitCli --vectors <file> --lexicon <file> (--output <file> | --serve <port>) [options]",
+            "  --iterations <n>      Maximum retrofitting iterations (default 50)",
+            "  --tolerance <x>       Stop once no word moves further than this (default 1e-4, 0 runs every iteration)",
+            "  --alpha <x>           Weight of the original vector (default 1.0)",
+            "  --beta <x>            Weight of each neighbor (default 1.0)",
+            "  --mode <m>            JACOBI or GAUSS_SEIDEL (default JACOBI)",
+            "  --threads <n>         Retrofitting threads (default: all cores)",
+            "  --precision <p>       FLOAT64, FLOAT32, FLOAT16 or INT8 (default " + Precision.DEFAULT + ")",
+            "  --selective           Load only the vectors of lexicon words",
+            "  --threshold <x>       Export only words whose retrofitted vector has cosine >= x with the original",
+            "  --decimals <n>        Digits after the decimal point in text output (default 4)",
+            "  --serve <port>        Afterwards answer /vector, /similarity and /nearest queries over HTTP",
+            "  --verbose             Also log per word and per pair details");
+
+    private String vectorsPath;
+    private String lexiconPath;
+    private String outputPath;
+    private int iterations = 50;
+    private double tolerance = 1e-4;
+    private double alpha = 1.0;
+    private double beta = 1.0;
+    private RetrofitOptions.Mode mode = RetrofitOptions.Mode.JACOBI;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Precision precision = Precision.DEFAULT;
+    private boolean selective = false;
+    private Double threshold;
+    private int decimals = 4;
+    private boolean verbose = false;
+    private Integer servePort;
+    private boolean help = false;
+
+    public static void main(String[] args) {
+        RetrofitCli cli = new RetrofitCli();
+        try {
+            cli.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        if (cli.help) {
+            System.out.println(USAGE);
+            System.exit(0);
+        }
+        LoggerUtil.setOutput(System.err);
+        LoggerUtil.setVerbose(cli.verbose);
+        System.exit(cli.run());
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--selective":
+                    selective = true;
+                    continue;
+                case "--verbose":
+                    verbose = true;
+                    continue;
+                case "--help":
+                    help = true;
+                    return;
+                default:
+                    break;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--vectors": vectorsPath = value; break;
+                    case "--lexicon": lexiconPath = value; break;
+                    case "--output": outputPath = value; break;
+                    case "--iterations": iterations = Integer.parseInt(value); break;
+                    case "--tolerance": tolerance = Double.parseDouble(value); break;
+                    case "--alpha": alpha = Double.parseDouble(value); break;
+                    case "--beta": beta = Double.parseDouble(value); break;
+                    case "--mode": mode = RetrofitOptions.Mode.valueOf(value.toUpperCase(Locale.ROOT)); break;
+                    case "--threads": threads = Integer.parseInt(value); break;
+                    case "--precision": precision = Precision.valueOf(value.toUpperCase(Locale.ROOT)); break;
+                    case "--threshold": threshold = Double.parseDouble(value); break;
+                    case "--decimals": decimals = Integer.parseInt(value); break;
+                    case "--serve": servePort = Integer.parseInt(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + arg + ": " + value);
+            }
+        }
+        if (vectorsPath == null || lexiconPath == null || (outputPath == null && servePort == null)) {
+            throw new IllegalArgumentException("--vectors, --lexicon and --output or --serve are required");
+        }
+    }
+
+    private int run() {
+        long start = System.nanoTime();
+        FileService fileService = new FileService();
+        VectorService vectorService = new VectorService();
+        fileService.setPrecision(precision);
+        fileService.setSelectiveLoading(selective);
+        vectorService.setPrecision(precision);
+        vectorService.setRetrofitMode(mode);
+
+        // The lexicon comes first so that selective loading can filter the vectors with it.
+        long stageStart = System.nanoTime();
+        if (!fileService.loadLexicon(new File(lexiconPath))) {
+            return fail("lexicon", stageStart);
+        }
+        report("lexicon", stageStart, "\"entries\":" + fileService.getLexicon().size());
+
+        stageStart = System.nanoTime();
+        if (!fileService.loadWordVectors(new File(vectorsPath))) {
+            return fail("vectors", stageStart);
+        }
+        VectorStore vectors = fileService.getOriginalVectors();
+        report("vectors", stageStart, "\"rows\":" + vectors.size() + ",\"dimension\":" + vectors.dimension());
+
+        stageStart = System.nanoTime();
+        RetrofitOptions options = new RetrofitOptions()
+                .setNumIterations(iterations)
+                .setTolerance(tolerance)
+                .setAlpha(alpha)
+                .setBeta(beta)
+                .setMode(mode)
+                .setThreads(threads)
+                .setPrecision(precision)
+                .setOutOfCore(vectors.isMemoryMapped());
+        AtomicInteger iterationsRun = new AtomicInteger();
+        AtomicReference<Double> lastResidual = new AtomicReference<>(Double.NaN);
+        if (!await(done -> vectorService.vectorize(vectors, fileService.getLexicon(), options,
+                elapsed -> done.countDown(),
+                (state, cause) -> done.fail(),
+                (iteration, total, maxResidual, meanResidual) -> {
+                    iterationsRun.set(iteration);
+                    lastResidual.set(maxResidual);
+                }))) {
+            return fail("retrofit", stageStart);
+        }
+        report("retrofit", stageStart, String.format(Locale.ROOT, "\"words\":%d,\"iterations\":%d,\"maxResidual\":%s",
+                vectorService.getNeighborGraph().nodeCount(), iterationsRun.get(), number("%.3e", lastResidual.get())));
+
+        VectorStore output = vectorService.getRetrofittedVectors();
+        if (threshold != null) {
+            stageStart = System.nanoTime();
+            AtomicReference<Double> average = new AtomicReference<>(Double.NaN);
+            if (!await(done -> vectorService.filterWords(threshold,
+                    (count, averageSimilarity) -> {
+                        average.set(averageSimilarity);
+                        done.countDown();
+                    },
+                    (state, cause) -> done.fail()))) {
+                return fail("filter", stageStart);
+            }
+            output = vectorService.isFiltered() ? subset(output, vectorService.getFilteredWords()) : VectorStore.empty();
+            report("filter", stageStart, String.format(Locale.ROOT, "\"words\":%d,\"averageSimilarity\":%s",
+                    output.size(), number("%.4f", average.get())));
+        }
+
+        if (outputPath != null) {
+            stageStart = System.nanoTime();
+            try {
+                FileOperations.writeWordVectors(output, outputPath, decimals);
+            } catch (IOException e) {
+                LoggerUtil.error("Failed to export vectors to " + outputPath + ": " + e.getMessage());
+                return fail("export", stageStart);
+            }
+            report("export", stageStart, "\"rows\":" + output.size() + ",\"bytes\":" + new File(outputPath).length());
+        }
+        report("total", start, "\"status\":\"ok\"");
+        return servePort == null ? 0 : serve(vectorService);
+    }
+
+    private int serve(VectorService vectorService) {
+        long stageStart = System.nanoTime();
+        EmbeddingServer server;
+        try {
+            server = new EmbeddingServer(servePort);
+        } catch (IOException e) {
+            LoggerUtil.error("Failed to start the server on port " + servePort + ": " + e.getMessage());
+            return fail("serve", stageStart);
+        }
+        server.publish(vectorService);
+        server.start();
+        report("serve", stageStart, "\"port\":" + server.port());
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server.stop();
+        return 0;
+    }
+
+    private static VectorStore subset(VectorStore vectors, List<String> words) {
+        VectorStore subset = new VectorStore(vectors.dimension(), words.size(), vectors.precision());
+        double[] buffer = new double[vectors.dimension()];
+        for (String word : words) {
+            vectors.readRow(vectors.indexOf(word), buffer);
+            subset.put(word, buffer);
+        }
+        return subset;
+    }
+
+    private static void report(String stage, long stageStart, String fields) {
+        System.out.println(String.format(Locale.ROOT, "{\"stage\":\"%s\",\"seconds\":%.3f,%s}",
+                stage, (System.nanoTime() - stageStart) / 1e9, fields));
+        System.out.flush();
+    }
+
+    /** The formatted value, or null when there is none: JSON has no NaN or infinity. */
+    private static String number(String format, double value) {
+        return Double.isFinite(value) ? String.format(Locale.ROOT, format, value) : "null";
+    }
+
+    private static int fail(String stage, long stageStart) {
+        report(stage, stageStart, "\"status\":\"failed\"");
+        return 1;
+    }
+
+    /**
+     * Starts an asynchronous service call and blocks until it completes. Returns false if it failed.
+     */
+    private static boolean await(Consumer<Completion> call) {
+        Completion completion = new Completion();
+        call.accept(completion);
+        try {
+            completion.latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !completion.failed.get();
+    }
+
+    private static final class Completion {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        void countDown() {
+            latch.countDown();
+        }
+
+        void fail() {
+            failed.set(true);
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.wordVectorRetrofit;
+
+import com.wordVectorRetrofit.util.BinaryVectorFormat;
+import com.wordVectorRetrofit.util.FileOperations;
+import com.wordVectorRetrofit.util.Precision;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Command line converter from whitespace separated text (or .gz) vectors to the binary format.
+ *
+ * Usage: VectorFileConverter input.txt[.gz] [output.wvb] [FLOAT64|FLOAT32|FLOAT16|INT8]
+ */
+public class VectorFileConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            usage();
+        }
+        String input = args[0];
+        String output = args.length >= 2 ? args[1] : defaultOutputName(input);
+        Precision precision = Precision.DEFAULT;
+        if (args.length == 3) {
+            try {
+                precision = Precision.valueOf(args[2].toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown precision: " + args[2]);
+                usage();
+            }
+        }
+        FileOperations.convertToBinary(input, output, precision);
+        System.out.println("Wrote " + output);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: VectorFileConverter <input.txt[.gz]> [output" + BinaryVectorFormat.EXTENSION
+                + "] [" + Arrays.stream(Precision.values()).map(Enum::name).collect(Collectors.joining("|")) + "]");
+        System.exit(2);
+    }
+
+    private static String defaultOutputName(String input) {
+        String base = input.endsWith(".gz") ? input.substring(0, input.length() - 3) : input;
+        int dot = base.lastIndexOf('.');
+        if (dot > base.lastIndexOf('/') + 1) {
+            base = base.substring(0, dot);
+        }
+        return base + BinaryVectorFormat.EXTENSION;
+    }
+}
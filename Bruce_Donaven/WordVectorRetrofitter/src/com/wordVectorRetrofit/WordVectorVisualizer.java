@@ -5,6 +5,7 @@ import com.wordVectorRetrofit.service.VectorService;
 import com.wordVectorRetrofit.ui.ControlPanelController;
 import com.wordVectorRetrofit.ui.MenuBarController;
 import com.wordVectorRetrofit.ui.TerminalConsole;
+import com.wordVectorRetrofit.util.AlertUtil;
 import com.wordVectorRetrofit.util.LoggerUtil;
 import javafx.application.Application;
 import javafx.geometry.Pos;
@@ -24,6 +25,7 @@ public class WordVectorVisualizer extends Application {
         TerminalConsole terminalConsole = new TerminalConsole();
         LoggerUtil.initialize(terminalConsole);
         LoggerUtil.info("TerminalConsole initialized.");
+        AlertUtil.setDialogsEnabled(true);
 
         VectorService vectorService = new VectorService();
         FileService fileService = new FileService();
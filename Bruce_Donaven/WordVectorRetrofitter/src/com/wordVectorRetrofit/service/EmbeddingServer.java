@@ -0,0 +1,423 @@
+package com.wordVectorRetrofit.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.wordVectorRetrofit.util.ExactNearestNeighbors;
+import com.wordVectorRetrofit.util.HnswIndex;
+import com.wordVectorRetrofit.util.LoggerUtil;
+import com.wordVectorRetrofit.util.Neighbor;
+import com.wordVectorRetrofit.util.VectorProcessor;
+import com.wordVectorRetrofit.util.VectorStore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded HTTP/JSON server answering vector, similarity and nearest-neighbor queries from the
+ * vectors of a {@link VectorService}.
+ *
+ * <pre>
+ * GET /vector?word=W[&amp;space=original|retrofitted]
+ * GET /similarity?a=W1&amp;b=W2[&amp;space=...]
+ * GET /nearest?word=W[&amp;k=10][&amp;space=...]
+ * GET /stats
+ * </pre>
+ *
+ * The space defaults to the retrofitted vectors once there are any. Queries run against an
+ * immutable snapshot of the vectors taken by {@link #publish}; retrofitting builds new stores rather
+ * than changing the published ones, so serving carries on while it runs and switches over when the
+ * next snapshot is published.
+ *
+ * Each request runs on its own virtual thread when the JVM has them (Java 21 and later) and on a
+ * thread pool otherwise. Exact nearest-neighbor queries are handed to a single batching thread:
+ * whatever queries arrive while one scan runs are answered together by the next scan, which reads
+ * the vectors once for the whole batch. Queries on a space with an HNSW index are answered directly.
+ *
+ * Only {@code RetrofitCli --serve} starts a server and publishes to it, once after loading and
+ * retrofitting; the JavaFX application does not serve its vectors.
+ */
+public class EmbeddingServer {
+
+    public static final int DEFAULT_PORT = 8090;
+    private static final int MAX_BATCH = 64;
+    private static final int MAX_K = 1000;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final BlockingQueue<NearestQuery> nearestQueue = new LinkedBlockingQueue<>();
+    private final Thread batcher;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batchedQueries = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    public EmbeddingServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/vector", exchange -> handle(exchange, this::vector));
+        server.createContext("/similarity", exchange -> handle(exchange, this::similarity));
+        server.createContext("/nearest", exchange -> handle(exchange, this::nearest));
+        server.createContext("/stats", exchange -> handle(exchange, this::stats));
+        batcher = new Thread(this::runBatches, "nearest-batcher");
+        batcher.setDaemon(true);
+    }
+
+    private static ExecutorService newRequestExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LoggerUtil.log("Serving each request on a virtual thread.");
+            return executor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            int threads = Math.max(16, Runtime.getRuntime().availableProcessors() * 8);
+            LoggerUtil.log("Virtual threads are not available on this JVM; serving requests on " + threads + " threads.");
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "embedding-server");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Makes the current vectors of the service the ones queries are answered from. Call again after
+     * each retrofit; queries already running finish on the snapshot they started with.
+     */
+    public void publish(VectorService vectorService) {
+        snapshot = new Snapshot(vectorService);
+        LoggerUtil.log(String.format("Serving %d original and %d retrofitted vectors.",
+                snapshot.original.size(), snapshot.retrofitted == null ? 0 : snapshot.retrofitted.size()));
+    }
+
+    public void start() {
+        batcher.start();
+        server.start();
+        LoggerUtil.log("Embedding server listening on port " + port());
+    }
+
+    public void stop() {
+        server.stop(0);
+        batcher.interrupt();
+        executor.shutdownNow();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    // ---- endpoints ----
+
+    private String vector(Snapshot snapshot, Map<String, String> params) {
+        String space = snapshot.space(params.get("space"));
+        String word = word(params, "word");
+        VectorStore vectors = snapshot.vectors(space);
+        int row = row(vectors, word, space);
+        StringBuilder json = new StringBuilder("{\"word\":").append(quote(word))
+                .append(",\"space\":").append(quote(space)).append(",\"vector\":[");
+        double[] vector = vectors.getRow(row);
+        for (int i = 0; i < vector.length; i++) {
+            json.append(i == 0 ? "" : ",").append(number(vector[i]));
+        }
+        return json.append("]}").toString();
+    }
+
+    private String similarity(Snapshot snapshot, Map<String, String> params) {
+        String space = snapshot.space(params.get("space"));
+        String a = word(params, "a");
+        String b = word(params, "b");
+        VectorStore vectors = snapshot.vectors(space);
+        double similarity = VectorProcessor.cosineSimilarity(vectors.getRow(row(vectors, a, space)),
+                vectors.getRow(row(vectors, b, space)));
+        return "{\"a\":" + quote(a) + ",\"b\":" + quote(b) + ",\"space\":" + quote(space)
+                + ",\"similarity\":" + number(similarity) + "}";
+    }
+
+    private String nearest(Snapshot snapshot, Map<String, String> params) throws IOException {
+        String space = snapshot.space(params.get("space"));
+        String word = word(params, "word");
+        int k = intParam(params, "k", 10);
+        if (k < 1 || k > MAX_K) {
+            throw new RequestException(400, "k must be between 1 and " + MAX_K);
+        }
+        VectorStore vectors = snapshot.vectors(space);
+        int row = row(vectors, word, space);
+
+        List<Neighbor> neighbors;
+        HnswIndex index = snapshot.index(space);
+        if (index != null) {
+            neighbors = index.nearest(word, k);
+        } else {
+            NearestQuery query = new NearestQuery(snapshot.search(space), vectors.getRow(row), k, row);
+            nearestQueue.add(query);
+            try {
+                neighbors = query.result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for nearest neighbors", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Nearest-neighbor search failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        StringBuilder json = new StringBuilder("{\"word\":").append(quote(word))
+                .append(",\"space\":").append(quote(space))
+                .append(",\"approximate\":").append(index != null)
+                .append(",\"neighbors\":[");
+        for (int i = 0; i < neighbors.size(); i++) {
+            Neighbor neighbor = neighbors.get(i);
+            json.append(i == 0 ? "" : ",").append("{\"word\":").append(quote(neighbor.getWord()))
+                    .append(",\"similarity\":").append(number(neighbor.getSimilarity())).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private String stats(Snapshot snapshot, Map<String, String> params) {
+        long batchCount = batches.get();
+        return String.format("{\"requests\":%d,\"nearestBatches\":%d,\"meanBatchSize\":%.2f,\"originalWords\":%d,\"retrofittedWords\":%d}",
+                requests.get(), batchCount, batchCount == 0 ? 0.0 : (double) batchedQueries.get() / batchCount,
+                snapshot.original.size(), snapshot.retrofitted == null ? 0 : snapshot.retrofitted.size());
+    }
+
+    // ---- batching ----
+
+    private void runBatches() {
+        List<NearestQuery> batch = new ArrayList<>(MAX_BATCH);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(nearestQueue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            nearestQueue.drainTo(batch, MAX_BATCH - 1);
+
+            // Queries from different snapshots or spaces search different stores.
+            Map<ExactNearestNeighbors, List<NearestQuery>> bySearch = new IdentityHashMap<>();
+            for (NearestQuery query : batch) {
+                bySearch.computeIfAbsent(query.search, s -> new ArrayList<>()).add(query);
+            }
+            for (Map.Entry<ExactNearestNeighbors, List<NearestQuery>> group : bySearch.entrySet()) {
+                answer(group.getKey(), group.getValue());
+            }
+            batch.clear();
+        }
+    }
+
+    private void answer(ExactNearestNeighbors search, List<NearestQuery> queries) {
+        int n = queries.size();
+        double[][] vectors = new double[n][];
+        int[] k = new int[n];
+        int[] exclude = new int[n];
+        for (int i = 0; i < n; i++) {
+            vectors[i] = queries.get(i).vector;
+            k[i] = queries.get(i).k;
+            exclude[i] = queries.get(i).excludeRow;
+        }
+        try {
+            List<List<Neighbor>> results = search.nearest(vectors, k, exclude);
+            for (int i = 0; i < n; i++) {
+                queries.get(i).result.complete(results.get(i));
+            }
+        } catch (RuntimeException e) {
+            queries.forEach(query -> query.result.completeExceptionally(e));
+        }
+        batches.incrementAndGet();
+        batchedQueries.addAndGet(n);
+    }
+
+    // ---- plumbing ----
+
+    private void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        requests.incrementAndGet();
+        int status = 200;
+        String body;
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                throw new RequestException(405, "Only GET is supported");
+            }
+            Snapshot current = snapshot;
+            if (current == null) {
+                throw new RequestException(503, "No vectors loaded yet");
+            }
+            body = endpoint.answer(current, parseQuery(exchange.getRequestURI().getRawQuery()));
+        } catch (RequestException e) {
+            status = e.status;
+            body = "{\"error\":" + quote(e.getMessage()) + "}";
+        } catch (IOException | RuntimeException e) {
+            LoggerUtil.error("Query " + exchange.getRequestURI() + " failed: " + e.getMessage());
+            status = 500;
+            body = "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}";
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static String word(Map<String, String> params, String name) {
+        String word = params.get(name);
+        if (word == null || word.trim().isEmpty()) {
+            throw new RequestException(400, "Missing parameter '" + name + "'");
+        }
+        return word.trim().toLowerCase();
+    }
+
+    private static int intParam(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Parameter '" + name + "' must be an integer");
+        }
+    }
+
+    private static int row(VectorStore vectors, String word, String space) {
+        int row = vectors.indexOf(word);
+        if (row < 0) {
+            throw new RequestException(404, "Word '" + word + "' not found in " + space + " vectors");
+        }
+        return row;
+    }
+
+    /** JSON has no NaN or infinities; they are written as null. */
+    static String number(double value) {
+        return Double.isFinite(value) ? Double.toString(value) : "null";
+    }
+
+    static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': quoted.append("\\\""); break;
+                case '\\': quoted.append("\\\\"); break;
+                case '\n': quoted.append("\\n"); break;
+                case '\r': quoted.append("\\r"); break;
+                case '\t': quoted.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    @FunctionalInterface
+    private interface Endpoint {
+        String answer(Snapshot snapshot, Map<String, String> params) throws IOException;
+    }
+
+    private static final class RequestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private static final class NearestQuery {
+        final ExactNearestNeighbors search;
+        final double[] vector;
+        final int k;
+        final int excludeRow;
+        final CompletableFuture<List<Neighbor>> result = new CompletableFuture<>();
+
+        NearestQuery(ExactNearestNeighbors search, double[] vector, int k, int excludeRow) {
+            this.search = search;
+            this.vector = vector;
+            this.k = k;
+            this.excludeRow = excludeRow;
+        }
+    }
+
+    /**
+     * The stores, searches and indexes queries see. Never changes once published.
+     */
+    private static final class Snapshot {
+        final VectorStore original;
+        final VectorStore retrofitted;
+        final ExactNearestNeighbors originalSearch;
+        final ExactNearestNeighbors retrofittedSearch;
+        final HnswIndex originalIndex;
+        final HnswIndex retrofittedIndex;
+
+        Snapshot(VectorService service) {
+            original = service.getOriginalVectors();
+            retrofitted = service.isVectorized() ? service.getRetrofittedVectors() : null;
+            originalSearch = new ExactNearestNeighbors(original);
+            retrofittedSearch = retrofitted == null ? null : new ExactNearestNeighbors(retrofitted);
+            originalIndex = currentIndex(service, VectorService.Space.ORIGINAL, original);
+            retrofittedIndex = retrofitted == null ? null : currentIndex(service, VectorService.Space.RETROFITTED, retrofitted);
+        }
+
+        private static HnswIndex currentIndex(VectorService service, VectorService.Space space, VectorStore vectors) {
+            HnswIndex index = service.index(space);
+            return service.isApproximateSearch() && index != null && index.vectors() == vectors ? index : null;
+        }
+
+        String space(String requested) {
+            if (requested == null || requested.isEmpty()) {
+                return retrofitted != null ? "retrofitted" : "original";
+            }
+            String space = requested.trim().toLowerCase();
+            if (space.equals("original") || (space.equals("retrofitted") && retrofitted != null)) {
+                return space;
+            }
+            throw new RequestException(400, space.equals("retrofitted")
+                    ? "No retrofitted vectors yet" : "Unknown space '" + requested + "'");
+        }
+
+        VectorStore vectors(String space) {
+            return space.equals("original") ? original : retrofitted;
+        }
+
+        ExactNearestNeighbors search(String space) {
+            return space.equals("original") ? originalSearch : retrofittedSearch;
+        }
+
+        HnswIndex index(String space) {
+            return space.equals("original") ? originalIndex : retrofittedIndex;
+        }
+    }
+}
@@ -3,65 +3,137 @@ package com.wordVectorRetrofit.service;
 import com.wordVectorRetrofit.util.FileOperations;
 import com.wordVectorRetrofit.util.LoggerUtil;
 import com.wordVectorRetrofit.util.AlertUtil;
+import com.wordVectorRetrofit.util.Precision;
+import com.wordVectorRetrofit.util.VectorStore;
+import com.wordVectorRetrofit.util.WordFilter;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class FileService {
 
-    private Map<String, double[]> originalVectors = new HashMap<>();
+    private VectorStore originalVectors = VectorStore.empty();
     private Map<String, List<String>> lexicon = new HashMap<>();
+    private Precision precision = Precision.DEFAULT;
+    private String vectorFilePath;
+    private boolean selectiveLoading = false;
+    private Set<String> pinnedWords = new HashSet<>();
 
-    public void loadWordVectors(File file) {
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+        LoggerUtil.info("Word vector storage precision set to " + precision);
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * When enabled, loading vectors keeps only the words of the loaded lexicon and the pinned
+     * words, so the lexicon has to be loaded first.
+     */
+    public void setSelectiveLoading(boolean selectiveLoading) {
+        this.selectiveLoading = selectiveLoading;
+        LoggerUtil.info("Selective loading of lexicon words " + (selectiveLoading ? "enabled" : "disabled"));
+    }
+
+    public boolean isSelectiveLoading() {
+        return selectiveLoading;
+    }
+
+    /**
+     * Words loaded in selective mode even if the lexicon does not mention them, such as tracked words.
+     */
+    public void setPinnedWords(Collection<String> pinnedWords) {
+        this.pinnedWords = new HashSet<>(pinnedWords);
+    }
+
+    /**
+     * Loads word vectors, reporting the outcome in a dialog.
+     *
+     * @return Whether the vectors were loaded.
+     */
+    public boolean loadWordVectors(File file) {
         LoggerUtil.info("Initiating load of Word Vectors from file: " + file.getAbsolutePath());
 
         if (file == null || !file.exists()) {
             LoggerUtil.warning("File does not exist or was not provided: " + (file == null ? "null" : file.getAbsolutePath()));
             AlertUtil.showError("Error", "File does not exist or was not provided.");
-            return;
+            return false;
         }
 
         try {
             LoggerUtil.info("Reading word vectors from file: " + file.getAbsolutePath());
-            originalVectors = FileOperations.readWordVectors(file.getAbsolutePath());
+            if (selectiveLoading && !lexicon.isEmpty()) {
+                WordFilter filter = WordFilter.fromLexicon(lexicon, pinnedWords);
+                LoggerUtil.info("Loading only the " + filter.size() + " lexicon and pinned words.");
+                originalVectors = FileOperations.readWordVectors(file.getAbsolutePath(), precision, filter);
+            } else {
+                if (selectiveLoading) {
+                    LoggerUtil.warning("No lexicon loaded yet; loading every word vector.");
+                }
+                originalVectors = FileOperations.readWordVectors(file.getAbsolutePath(), precision);
+            }
+            vectorFilePath = file.getAbsolutePath();
             LoggerUtil.info("Word Vectors loaded successfully. Total vectors: " + originalVectors.size());
+            LoggerUtil.info(originalVectors.precisionReport());
             AlertUtil.showInfo("Success", "Word Vectors loaded successfully.\nTotal vectors: " + originalVectors.size());
+            return true;
         } catch (IOException e) {
             LoggerUtil.severe("Failed to load Word Vectors from file: " + file.getAbsolutePath());
             LoggerUtil.severe("Error details: " + e.getMessage());
             AlertUtil.showError("Error", "Failed to load Word Vectors: " + e.getMessage());
+            return false;
         }
     }
 
-    public void loadLexicon(File file) {
+    /**
+     * Loads a lexicon, reporting the outcome in a dialog.
+     *
+     * @return Whether the lexicon was loaded.
+     */
+    public boolean loadLexicon(File file) {
         LoggerUtil.info("Initiating load of Lexicon from file: " + file.getAbsolutePath());
 
         if (file == null || !file.exists()) {
             LoggerUtil.warning("File does not exist or was not provided: " + (file == null ? "null" : file.getAbsolutePath()));
             AlertUtil.showError("Error", "File does not exist or was not provided.");
-            return;
+            return false;
         }
 
         try {
             LoggerUtil.info("Reading lexicon from file: " + file.getAbsolutePath());
-            lexicon = FileOperations.readLexicon(file.getAbsolutePath());
+            // Words the loaded vectors already have share their strings with the vocabulary.
+            lexicon = FileOperations.readLexicon(file.getAbsolutePath(), originalVectors.vocabulary());
             LoggerUtil.info("Lexicon loaded successfully. Total entries: " + lexicon.size());
             AlertUtil.showInfo("Success", "Lexicon loaded successfully.\nTotal entries: " + lexicon.size());
+            return true;
         } catch (IOException e) {
             LoggerUtil.severe("Failed to load Lexicon from file: " + file.getAbsolutePath());
             LoggerUtil.severe("Error details: " + e.getMessage());
             AlertUtil.showError("Error", "Failed to load Lexicon: " + e.getMessage());
+            return false;
         }
     }
 
-    public Map<String, double[]> getOriginalVectors() {
+    public VectorStore getOriginalVectors() {
         LoggerUtil.info("Fetching Original Word Vectors. Total vectors available: " + originalVectors.size());
         return originalVectors;
     }
 
+    /**
+     * Path of the last word vector file loaded successfully, or null if none was.
+     */
+    public String getVectorFilePath() {
+        return vectorFilePath;
+    }
+
     public Map<String, List<String>> getLexicon() {
         LoggerUtil.info("Fetching Lexicon. Total entries available: " + lexicon.size());
         return lexicon;
@@ -1,34 +1,98 @@
 package com.wordVectorRetrofit.service;
 
+import com.wordVectorRetrofit.util.AlignmentIndex;
+import com.wordVectorRetrofit.util.EdgeSimilarities;
+import com.wordVectorRetrofit.util.ExactNearestNeighbors;
+import com.wordVectorRetrofit.util.HnswIndex;
+import com.wordVectorRetrofit.util.JobScheduler;
+import com.wordVectorRetrofit.util.Neighbor;
 import com.wordVectorRetrofit.util.VectorProcessor;
 import com.wordVectorRetrofit.util.LoggerUtil;
+import com.wordVectorRetrofit.util.NeighborGraph;
+import com.wordVectorRetrofit.util.Precision;
+import com.wordVectorRetrofit.util.RetrofitOptions;
+import com.wordVectorRetrofit.util.RetrofitProgress;
+import com.wordVectorRetrofit.util.VectorStore;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
 public class VectorService {
 
-    private Map<String, double[]> originalVectors = new HashMap<>();
-    private Map<String, double[]> retrofittedVectors = new HashMap<>();
+    /** Which vectors a nearest-neighbor query searches. */
+    public enum Space {
+        ORIGINAL,
+        RETROFITTED
+    }
+
+    /** Jobs that replace the retrofitted vectors; only one may be queued or running. */
+    private static final String RETROFIT_JOB = "retrofit";
+    private static final String FILTER_JOB = "filter";
+    private static final String INDEX_JOB = "index";
+
+    // One worker: jobs replace the state below, so they run one after another. Retrofitting
+    // parallelizes internally with its own thread count.
+    private final JobScheduler jobs = new JobScheduler("vector-service", 1, 8);
+
+    // Replaced by jobs and read from other threads, so published through volatile fields.
+    private volatile VectorStore originalVectors = VectorStore.empty();
+    private volatile VectorStore retrofittedVectors = VectorStore.empty();
     private List<String> filteredWords = new ArrayList<>();
 
-    private boolean isVectorized = false;
-    private boolean isFiltered = false;
+    private volatile boolean isVectorized = false;
+    private volatile boolean isFiltered = false;
+    private Precision precision = Precision.DEFAULT;
+    private RetrofitOptions.Mode retrofitMode = RetrofitOptions.Mode.JACOBI;
+    private RetrofitOptions lastOptions;
+    private int incrementalHops = -1;
 
     private Map<String, List<String>> lexicon = new HashMap<>();
-    private Map<String, Double> alignedWordSimilarities = new HashMap<>();
-    private Map<String, Double> preRetrofitSimilarities = new HashMap<>();
+    private NeighborGraph neighborGraph;
+    private volatile AlignmentIndex alignmentIndex;
+    /** Similarity of each edge of the neighbor graph in the original vectors. */
+    private double[] preRetrofitSimilarities = new double[0];
+    private EdgeSimilarities.Summary similarityShift;
+    private ExactNearestNeighbors originalSearch;
+    private ExactNearestNeighbors retrofittedSearch;
+    private HnswIndex originalIndex;
+    private HnswIndex retrofittedIndex;
+    private volatile boolean approximateSearch = false;
 
-    public void setOriginalVectors(Map<String, double[]> vectors) {
+    public void setOriginalVectors(VectorStore vectors) {
         this.originalVectors = vectors;
+        this.alignmentIndex = null;
         LoggerUtil.log("Original vectors set. Total words: " + vectors.size());
         if (!vectors.isEmpty()) {
-            String sampleWord = vectors.keySet().iterator().next();
-            LoggerUtil.log("Sample word: " + sampleWord + ", Vector: " + Arrays.toString(vectors.get(sampleWord)));
+            LoggerUtil.log("Sample word: " + vectors.word(0) + ", Vector: " + Arrays.toString(vectors.getRow(0)));
         }
     }
 
+    /**
+     * Sets the storage precision of retrofitted vectors. Retrofitting itself accumulates in double.
+     */
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+        LoggerUtil.log("Retrofitted vector storage precision set to " + precision);
+    }
+
+    public void setRetrofitMode(RetrofitOptions.Mode retrofitMode) {
+        this.retrofitMode = retrofitMode;
+        LoggerUtil.log("Retrofit mode set to " + retrofitMode);
+    }
+
+    /**
+     * Limits incremental re-retrofitting to words within this many neighbor edges of a change.
+     * A negative value re-solves every word a change can reach, which matches a full rerun.
+     */
+    public void setIncrementalHops(int incrementalHops) {
+        this.incrementalHops = incrementalHops;
+        LoggerUtil.log("Incremental retrofitting hops set to " + (incrementalHops < 0 ? "unlimited" : incrementalHops));
+    }
+
     public void setLexicon(Map<String, List<String>> lexicon) {
         this.lexicon = lexicon;
         LoggerUtil.log("Lexicon set. Total entries: " + lexicon.size());
@@ -39,34 +103,27 @@ public class VectorService {
     }
 
     private void calculatePreRetrofitSimilarities() {
-        LoggerUtil.log("Calculating pre-retrofitting similarities...");
-
-        for (String word : originalVectors.keySet()) {
-            List<String> neighbors = lexicon.get(word);
-            if (neighbors != null) {
-                for (String neighbor : neighbors) {
-                    if (originalVectors.containsKey(neighbor)) {
-                        double similarity = cosineSimilarity(originalVectors.get(word), originalVectors.get(neighbor));
-                        preRetrofitSimilarities.put(word + "->" + neighbor, similarity);
-                        LoggerUtil.log(String.format("Pre-retrofit similarity for %s and %s: %.4f",
-                                word, neighbor, similarity));
-                    }
-                }
-            }
-        }
+        long start = System.nanoTime();
+        preRetrofitSimilarities = EdgeSimilarities.compute(neighborGraph, originalVectors);
+        LoggerUtil.log(String.format("Calculated pre-retrofitting similarities of %d edges in %.2f s.",
+                preRetrofitSimilarities.length, (System.nanoTime() - start) / 1e9));
     }
 
     private void comparePrePostRetrofitSimilarities() {
-        LoggerUtil.log("Comparing pre- and post-retrofitting similarities...");
-        for (String pair : preRetrofitSimilarities.keySet()) {
-            String[] words = pair.split("->");
-            if (words.length == 2 && retrofittedVectors.containsKey(words[0]) && retrofittedVectors.containsKey(words[1])) {
-                double preSimilarity = preRetrofitSimilarities.get(pair);
-                double postSimilarity = cosineSimilarity(retrofittedVectors.get(words[0]), retrofittedVectors.get(words[1]));
-                LoggerUtil.log(String.format("Similarity for %s and %s: Pre: %.4f, Post: %.4f, Difference: %.4f",
-                        words[0], words[1], preSimilarity, postSimilarity, postSimilarity - preSimilarity));
-            }
-        }
+        long start = System.nanoTime();
+        double[] postRetrofitSimilarities = EdgeSimilarities.compute(neighborGraph, retrofittedVectors);
+        similarityShift = EdgeSimilarities.summarize(neighborGraph, preRetrofitSimilarities, postRetrofitSimilarities);
+        similarityShift.reportLines().forEach(LoggerUtil::log);
+        LoggerUtil.log(String.format("Compared pre- and post-retrofitting similarities in %.2f s.",
+                (System.nanoTime() - start) / 1e9));
+    }
+
+    /**
+     * How retrofitting changed the similarity of the lexicon's word pairs in the last vectorization,
+     * or null before the first one.
+     */
+    public EdgeSimilarities.Summary getSimilarityShift() {
+        return similarityShift;
     }
 
     /**
@@ -81,90 +138,522 @@ public class VectorService {
      * @param onError        Callback for handling errors.
      * @param onProgress     Callback for progress updates.
      */
-    public void vectorize(Map<String, double[]> vectors, Map<String, List<String>> lexicon, int numIterations,
-                          double alpha, double beta, Consumer<Long> onComplete, Runnable onError,
+    public void vectorize(VectorStore vectors, Map<String, List<String>> lexicon, int numIterations,
+                          double alpha, double beta, Consumer<Long> onComplete, JobScheduler.FailureListener onError,
                           BiConsumer<Integer, Integer> onProgress) {
-        setOriginalVectors(vectors);
-        setLexicon(lexicon);
+        vectorize(vectors, lexicon, numIterations, 0.0, alpha, beta, onComplete, onError, RetrofitProgress.of(onProgress));
+    }
 
-        calculatePreRetrofitSimilarities(); // Step 1: Pre-retrofit similarities
+    /**
+     * Performs vectorization using retrofitting, stopping once the iterations converge.
+     *
+     * @param vectors        Original word vectors.
+     * @param lexicon        Lexicon mapping words to their neighbors.
+     * @param maxIterations  Maximum number of iterations for retrofitting.
+     * @param tolerance      Largest row change (L2) at which retrofitting counts as converged.
+     * @param alpha          Weight for original vector.
+     * @param beta           Weight for neighbor influence.
+     * @param onComplete     Callback for successful completion with elapsed time.
+     * @param onError        Callback for handling errors.
+     * @param onProgress     Callback receiving the residuals of each iteration.
+     */
+    public void vectorize(VectorStore vectors, Map<String, List<String>> lexicon, int maxIterations, double tolerance,
+                          double alpha, double beta, Consumer<Long> onComplete, JobScheduler.FailureListener onError,
+                          RetrofitProgress onProgress) {
+        RetrofitOptions options = new RetrofitOptions()
+                .setNumIterations(maxIterations)
+                .setTolerance(tolerance)
+                .setAlpha(alpha)
+                .setBeta(beta)
+                .setPrecision(precision)
+                .setMode(retrofitMode)
+                .setOutOfCore(vectors.isMemoryMapped());
+        vectorize(vectors, lexicon, options, onComplete, onError, onProgress);
+    }
 
-        new Thread(() -> {
-            try {
-                LoggerUtil.log("Starting vectorization with " + lexicon.size() + " lexicon entries.");
-                long startTime = System.currentTimeMillis();
+    /**
+     * Performs vectorization using retrofitting with explicit options.
+     *
+     * @param vectors    Original word vectors.
+     * @param lexicon    Lexicon mapping words to their neighbors.
+     * @param options    Retrofitting options.
+     * @param onComplete Callback for successful completion with elapsed time.
+     * @param onError    Callback for handling errors.
+     * @param onProgress Callback for progress updates.
+     */
+    public void vectorize(VectorStore vectors, Map<String, List<String>> lexicon, RetrofitOptions options,
+                          Consumer<Long> onComplete, JobScheduler.FailureListener onError, BiConsumer<Integer, Integer> onProgress) {
+        vectorize(vectors, lexicon, options, onComplete, onError, RetrofitProgress.of(onProgress));
+    }
 
-                retrofittedVectors = VectorProcessor.retrofit(originalVectors, lexicon, numIterations, alpha, beta, onProgress);
+    /**
+     * Queues a vectorization. It is refused while another vectorization is queued or running, and
+     * can be stopped with {@link #cancelJobs()}; the previous results stay in place until a run
+     * completes.
+     */
+    public void vectorize(VectorStore vectors, Map<String, List<String>> lexicon, RetrofitOptions options,
+                          Consumer<Long> onComplete, JobScheduler.FailureListener onError, RetrofitProgress onProgress) {
+        schedule(RETROFIT_JOB, "Vectorization", JobScheduler.Policy.REJECT, onError, job -> {
+            LoggerUtil.log("Starting vectorization with " + lexicon.size() + " lexicon entries.");
+            long startTime = System.currentTimeMillis();
+            NeighborGraph graph = NeighborGraph.build(lexicon, vectors);
+            job.checkCancelled();
 
-                long elapsedTime = (System.currentTimeMillis() - startTime) / 1000;
-                isVectorized = true;
+            VectorStore retrofitted = VectorProcessor.retrofit(vectors, graph, options, track(job, onProgress));
+            setOriginalVectors(vectors);
+            setLexicon(lexicon);
+            neighborGraph = graph;
+            retrofittedVectors = retrofitted;
+            lastOptions = options;
+            LoggerUtil.log("Retrofitted " + retrofittedVectors.precisionReport());
 
-                LoggerUtil.log("Vectorization process completed after " + elapsedTime + " seconds.");
-                comparePrePostRetrofitSimilarities(); // Step 2: Compare similarities
-                onComplete.accept(elapsedTime);
-            } catch (Exception e) {
-                LoggerUtil.error("Error during vectorization: " + e.getMessage());
-                onError.run();
-            }
-        }).start();
+            long elapsedTime = (System.currentTimeMillis() - startTime) / 1000;
+            isVectorized = true;
+
+            LoggerUtil.log("Vectorization process completed after " + elapsedTime + " seconds.");
+            calculatePreRetrofitSimilarities(); // Step 1: Pre-retrofit similarities
+            updateRetrofittedIndex();
+            comparePrePostRetrofitSimilarities(); // Step 2: Compare similarities
+            buildAlignmentIndex(job::isCancelled);
+            onComplete.accept(elapsedTime);
+        });
+    }
+
+    /**
+     * Updates the last vectorization after edits to the lexicon or vocabulary, re-solving only the
+     * words affected by the edits and starting from the previous retrofitted vectors. Runs a full
+     * vectorization if there is no previous result. Queued like {@link #vectorize}.
+     *
+     * @param vectors       Original word vectors: those of the last run, possibly with words added.
+     * @param lexicon       Edited lexicon.
+     * @param changedWords  Words whose original vectors were replaced since the last run.
+     * @param maxIterations Maximum number of iterations, as for {@link #vectorize}.
+     * @param tolerance     Largest row change (L2) at which retrofitting counts as converged.
+     * @param onComplete    Callback for successful completion with elapsed time.
+     * @param onError       Callback for handling errors.
+     * @param onProgress    Callback receiving the residuals of each iteration.
+     */
+    public void revectorize(VectorStore vectors, Map<String, List<String>> lexicon, Collection<String> changedWords,
+                            int maxIterations, double tolerance,
+                            Consumer<Long> onComplete, JobScheduler.FailureListener onError, RetrofitProgress onProgress) {
+        if (!isVectorized || lastOptions == null) {
+            LoggerUtil.log("No previous vectorization to update; running a full vectorization.");
+            vectorize(vectors, lexicon, new RetrofitOptions()
+                            .setNumIterations(maxIterations)
+                            .setTolerance(tolerance)
+                            .setPrecision(precision)
+                            .setMode(retrofitMode)
+                            .setOutOfCore(vectors.isMemoryMapped()),
+                    onComplete, onError, onProgress);
+            return;
+        }
+
+        schedule(RETROFIT_JOB, "Incremental vectorization", JobScheduler.Policy.REJECT, onError, job -> {
+            long startTime = System.currentTimeMillis();
+            VectorStore previousVectors = retrofittedVectors;
+            NeighborGraph previousGraph = neighborGraph;
+            // The weights and precision of the last run, so the update solves the same problem.
+            RetrofitOptions options = lastOptions.copy().setNumIterations(maxIterations).setTolerance(tolerance);
+            NeighborGraph graph = NeighborGraph.build(lexicon, vectors);
+            job.checkCancelled();
+
+            VectorStore retrofitted = VectorProcessor.retrofitIncremental(vectors, graph,
+                    previousVectors, previousGraph, changedWords, incrementalHops, options, track(job, onProgress));
+            setOriginalVectors(vectors);
+            setLexicon(lexicon);
+            neighborGraph = graph;
+            retrofittedVectors = retrofitted;
+            lastOptions = options;
+            LoggerUtil.log("Retrofitted " + retrofittedVectors.precisionReport());
+
+            long elapsedTime = (System.currentTimeMillis() - startTime) / 1000;
+            isFiltered = false;
+
+            LoggerUtil.log("Incremental vectorization completed after " + elapsedTime + " seconds.");
+            calculatePreRetrofitSimilarities();
+            updateRetrofittedIndex();
+            comparePrePostRetrofitSimilarities();
+            buildAlignmentIndex(job::isCancelled);
+            onComplete.accept(elapsedTime);
+        });
     }
 
     /**
-     * Filters words based on a similarity threshold.
+     * Filters words based on a similarity threshold. Once the alignment index of the last
+     * vectorization exists this is a binary search, and the callbacks run on the calling thread.
+     * Otherwise the index is built in a job, which a newer filter request replaces.
      *
      * @param threshold  Similarity threshold.
-     * @param onComplete Callback with count and average similarity.
+     * @param onComplete Callback with count and average similarity; a count of 0 (and an average
+     *                   of NaN) if no word meets the threshold.
      * @param onError    Callback for handling errors.
      */
-    public void filterWords(double threshold, BiConsumer<Integer, Double> onComplete, Runnable onError) {
-        new Thread(() -> {
-            LoggerUtil.log("Starting filtering with threshold: " + threshold);
-            List<String> filtered = new ArrayList<>();
-            double totalSimilarity = 0.0;
-            int count = 0;
-
-            alignedWordSimilarities.clear();
-
-            for (String word : originalVectors.keySet()) {
-                if (retrofittedVectors.containsKey(word)) {
-                    double similarity = cosineSimilarity(originalVectors.get(word), retrofittedVectors.get(word));
-                    if (similarity >= threshold) {
-                        filtered.add(word);
-                        totalSimilarity += similarity;
-                        count++;
-                        alignedWordSimilarities.put(word, similarity);
-                        LoggerUtil.log(String.format("Word '%s' meets the threshold with similarity %.4f.", word, similarity));
-                    }
-                }
+    public void filterWords(double threshold, BiConsumer<Integer, Double> onComplete, JobScheduler.FailureListener onError) {
+        AlignmentIndex index = alignmentIndex;
+        if (index != null) {
+            applyFilter(index, threshold, onComplete);
+            return;
+        }
+        schedule(FILTER_JOB, String.format("Filtering at %.2f", threshold), JobScheduler.Policy.COALESCE, onError, job -> {
+            AlignmentIndex built = ensureAlignmentIndex(job::isCancelled);
+            if (built == null) {
+                throw new IllegalStateException("There are no retrofitted vectors to filter yet.");
             }
+            applyFilter(built, threshold, onComplete);
+        });
+    }
 
-            if (count > 0) {
-                double avgSimilarity = totalSimilarity / count;
-                filteredWords = filtered;
-                isFiltered = true;
+    /**
+     * Queues a job. {@code onError} is told how the job ended if it was refused, failed, or was
+     * cancelled or superseded; a job that completes calls its own callback.
+     */
+    private void schedule(String key, String name, JobScheduler.Policy policy, JobScheduler.FailureListener onError, JobScheduler.Task task) {
+        jobs.submit(key, name, policy, task).completion().thenAccept(done -> {
+            switch (done.state()) {
+                case SUCCEEDED:
+                    return;
+                case FAILED:
+                    LoggerUtil.error("Error during " + name.toLowerCase() + ": " + done.error().getMessage());
+                    break;
+                case REJECTED:
+                    LoggerUtil.warning(done.error().getMessage());
+                    break;
+                case SUPERSEDED:
+                    LoggerUtil.log(name + " was replaced by a newer request.");
+                    break;
+                default:
+                    LoggerUtil.warning(name + " was cancelled; the previous results are unchanged.");
+            }
+            onError.failed(done.state(), done.error());
+        });
+    }
+
+    /**
+     * Reports each iteration as the job's progress and stops retrofitting once the job is cancelled.
+     */
+    private static RetrofitProgress track(JobScheduler.Job job, RetrofitProgress progress) {
+        return RetrofitProgress.cancellable((iteration, maxIterations, maxResidual, meanResidual) -> {
+            job.setProgress(iteration, maxIterations, String.format("max residual %.3e", maxResidual));
+            progress.iterationCompleted(iteration, maxIterations, maxResidual, meanResidual);
+        }, () -> job.isCancelled() || progress.isCancelled());
+    }
 
-                LoggerUtil.log(String.format("Filtering completed: %d words passed the threshold. Average similarity: %.4f", count, avgSimilarity));
-                onComplete.accept(count, avgSimilarity);
+    /**
+     * Cancels the queued and running jobs. Retrofitting stops within one block of rows, and the
+     * results of the last completed run stay in place.
+     *
+     * @return The jobs that were cancelled.
+     */
+    public List<JobScheduler.Snapshot> cancelJobs() {
+        List<JobScheduler.Snapshot> cancelled = jobs.cancelAll();
+        if (cancelled.isEmpty()) {
+            LoggerUtil.log("No jobs to cancel.");
+        }
+        for (JobScheduler.Snapshot job : cancelled) {
+            LoggerUtil.log("Cancelling " + job);
+        }
+        return cancelled;
+    }
+
+    /**
+     * State and progress of the recent jobs, oldest first.
+     */
+    public List<JobScheduler.Snapshot> getJobs() {
+        return jobs.jobs();
+    }
+
+    private void applyFilter(AlignmentIndex index, double threshold, BiConsumer<Integer, Double> onComplete) {
+        LoggerUtil.log("Starting filtering with threshold: " + threshold);
+        int count = index.countAtLeast(threshold);
+        if (count > 0) {
+            double avgSimilarity = index.averageAtLeast(threshold);
+            filteredWords = index.wordsAtLeast(threshold);
+            isFiltered = true;
+
+            LoggerUtil.log(String.format("Filtering completed: %d words passed the threshold. Average similarity: %.4f", count, avgSimilarity));
+            onComplete.accept(count, avgSimilarity);
+        } else {
+            isFiltered = false;
+            LoggerUtil.warning("Filtering completed: No words met the similarity threshold of " + threshold);
+            onComplete.accept(0, Double.NaN);
+        }
+    }
+
+    /**
+     * Original-versus-retrofitted similarity of every word, sorted, for the last vectorization.
+     * Built at the end of each vectorization job and never here, so this is safe to call from the
+     * UI thread; null before the first vectorization and while the index is being built.
+     */
+    public AlignmentIndex getAlignmentIndex() {
+        return alignmentIndex;
+    }
+
+    private synchronized AlignmentIndex ensureAlignmentIndex(BooleanSupplier cancelled) {
+        if (alignmentIndex == null && isVectorized) {
+            buildAlignmentIndex(cancelled);
+        }
+        return alignmentIndex;
+    }
+
+    private synchronized void buildAlignmentIndex(BooleanSupplier cancelled) {
+        long start = System.nanoTime();
+        alignmentIndex = AlignmentIndex.build(originalVectors, retrofittedVectors, cancelled);
+        LoggerUtil.log(String.format("Indexed the original-retrofitted similarity of %d words in %.2f s.",
+                alignmentIndex.size(), (System.nanoTime() - start) / 1e9));
+    }
+
+    /**
+     * Answers nearest-neighbor queries from the HNSW index of each space when one has been built
+     * or loaded for its current vectors, instead of scanning every row. Results are then approximate.
+     */
+    public void setApproximateSearch(boolean approximateSearch) {
+        this.approximateSearch = approximateSearch;
+        LoggerUtil.log("Nearest-neighbor search set to " + (approximateSearch ? "approximate (HNSW)" : "exact"));
+    }
+
+    public boolean isApproximateSearch() {
+        return approximateSearch;
+    }
+
+    /**
+     * Returns the {@code k} words closest to {@code word} by cosine similarity, best first, not
+     * counting the word itself. Results are exact unless approximate search is on and the space
+     * has an index.
+     *
+     * @param word  Query word.
+     * @param k     Number of neighbors to return.
+     * @param space Vectors to search.
+     * @return Nearest words, or an empty list if the word has no vector in that space.
+     */
+    public List<Neighbor> nearest(String word, int k, Space space) {
+        VectorStore vectors = vectors(space);
+        String query = word.trim().toLowerCase();
+        if (!vectors.contains(query)) {
+            LoggerUtil.warning("Word '" + word + "' not found in " + space.name().toLowerCase() + " vectors.");
+            return new ArrayList<>();
+        }
+        HnswIndex index = approximateIndex(space);
+        return index != null ? index.nearest(query, k) : search(space).nearest(query, k);
+    }
+
+    /**
+     * Like {@link #nearest(String, int, Space)}, searching {@code vectors}, such as a file loaded
+     * since the last vectorization. Stores that are not the vectors of a space are scanned without
+     * keeping anything; the service is left unchanged.
+     */
+    public List<Neighbor> nearest(VectorStore vectors, String word, int k) {
+        if (vectors == originalVectors) {
+            return nearest(word, k, Space.ORIGINAL);
+        }
+        if (vectors == retrofittedVectors) {
+            return nearest(word, k, Space.RETROFITTED);
+        }
+        String query = word.trim().toLowerCase();
+        if (!vectors.contains(query)) {
+            LoggerUtil.warning("Word '" + word + "' not found in the loaded vectors.");
+            return new ArrayList<>();
+        }
+        return new ExactNearestNeighbors(vectors).nearest(query, k);
+    }
+
+    /**
+     * Returns the {@code k} words closest to {@code vector} by cosine similarity, best first.
+     *
+     * @param vector Query vector, with the dimension of the vectors searched.
+     * @param k      Number of neighbors to return.
+     * @param space  Vectors to search.
+     */
+    public List<Neighbor> nearest(double[] vector, int k, Space space) {
+        HnswIndex index = approximateIndex(space);
+        return index != null ? index.nearest(vector, k) : search(space).nearest(vector, k);
+    }
+
+    private VectorStore vectors(Space space) {
+        return space == Space.ORIGINAL ? originalVectors : retrofittedVectors;
+    }
+
+    private synchronized ExactNearestNeighbors search(Space space) {
+        VectorStore vectors = vectors(space);
+        ExactNearestNeighbors search = space == Space.ORIGINAL ? originalSearch : retrofittedSearch;
+        if (search == null || search.vectors() != vectors) {
+            search = new ExactNearestNeighbors(vectors);
+            if (space == Space.ORIGINAL) {
+                originalSearch = search;
             } else {
-                isFiltered = false;
-                LoggerUtil.warning("Filtering completed: No words met the similarity threshold of " + threshold);
-                onError.run();
+                retrofittedSearch = search;
             }
-        }).start();
+        }
+        return search;
+    }
+
+    /**
+     * Index to answer queries on the space with, or null to search exactly.
+     */
+    private synchronized HnswIndex approximateIndex(Space space) {
+        if (!approximateSearch) {
+            return null;
+        }
+        HnswIndex index = index(space);
+        return index != null && index.vectors() == vectors(space) ? index : null;
+    }
+
+    /**
+     * Index of the space, which may have been built for vectors that have since been replaced.
+     */
+    public synchronized HnswIndex index(Space space) {
+        return space == Space.ORIGINAL ? originalIndex : retrofittedIndex;
+    }
+
+    private synchronized void setIndex(Space space, HnswIndex index) {
+        if (space == Space.ORIGINAL) {
+            originalIndex = index;
+        } else {
+            retrofittedIndex = index;
+        }
+    }
+
+    /**
+     * Queues a job that makes {@code vectors} the original vectors if they are not yet, brings the
+     * HNSW index of each space up to date, loading the original one from next to
+     * {@code vectorsPath} when it was saved there, and then turns approximate search on. It runs
+     * after any queued vectorization, never alongside one.
+     *
+     * @param vectors     Original word vectors.
+     * @param vectorsPath Path of the file the vectors were loaded from.
+     * @param onComplete  Callback once approximate search is on.
+     * @param onError     Callback if the indexes could not be prepared.
+     */
+    public void prepareApproximateSearch(VectorStore vectors, String vectorsPath, Runnable onComplete,
+                                         JobScheduler.FailureListener onError) {
+        schedule(INDEX_JOB, "Preparing the HNSW index", JobScheduler.Policy.REJECT, onError, job -> {
+            if (originalVectors != vectors) {
+                setOriginalVectors(vectors);
+            }
+            HnswIndex index = index(Space.ORIGINAL);
+            if (index == null || index.vectors() != originalVectors) {
+                loadOrBuildIndex(Space.ORIGINAL, vectorsPath);
+            }
+            job.checkCancelled();
+            if (isVectorized) {
+                index = index(Space.RETROFITTED);
+                if (index == null || index.vectors() != retrofittedVectors) {
+                    buildIndex(Space.RETROFITTED);
+                }
+            }
+            setApproximateSearch(true);
+            onComplete.run();
+        });
+    }
+
+    /**
+     * Builds an HNSW index over the current vectors of the space and logs its recall against exact search.
+     */
+    public HnswIndex buildIndex(Space space) {
+        VectorStore vectors = vectors(space);
+        LoggerUtil.log("Building HNSW index over " + vectors.size() + " " + space.name().toLowerCase() + " vectors...");
+        HnswIndex index = HnswIndex.build(vectors);
+        setIndex(space, index);
+        logRecall(space, index);
+        return index;
+    }
+
+    /**
+     * Maps the index saved next to {@code vectorsPath} if it matches the current vectors of the
+     * space, otherwise builds one and saves it there for next time.
+     *
+     * @param space       Vectors to index.
+     * @param vectorsPath Path of the file the vectors were loaded from.
+     */
+    public HnswIndex loadOrBuildIndex(Space space, String vectorsPath) {
+        VectorStore vectors = vectors(space);
+        String indexPath = HnswIndex.indexPath(vectorsPath);
+        if (new File(indexPath).isFile()) {
+            try {
+                HnswIndex index = HnswIndex.map(indexPath, vectors);
+                setIndex(space, index);
+                LoggerUtil.log("Loaded HNSW index from " + indexPath);
+                return index;
+            } catch (IOException e) {
+                LoggerUtil.warning("Ignoring HNSW index " + indexPath + ": " + e.getMessage());
+            }
+        }
+        HnswIndex index = buildIndex(space);
+        saveIndex(space, vectorsPath);
+        return index;
+    }
+
+    /**
+     * Saves the index of the space next to the vector file at {@code vectorsPath}, if it indexes
+     * the current vectors.
+     */
+    public void saveIndex(Space space, String vectorsPath) {
+        HnswIndex index = index(space);
+        if (index == null || index.vectors() != vectors(space)) {
+            return;
+        }
+        String indexPath = HnswIndex.indexPath(vectorsPath);
+        try {
+            index.save(indexPath);
+            LoggerUtil.log("Saved HNSW index to " + indexPath);
+        } catch (IOException e) {
+            LoggerUtil.warning("Failed to save HNSW index " + indexPath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Brings the retrofitted index up to date after retrofitting. Every other row keeps its
+     * original vector, so the index of the original vectors is copied and only the lexicon words
+     * are linked again; when most rows moved, a fresh build is cheaper.
+     */
+    private void updateRetrofittedIndex() {
+        HnswIndex base = index(Space.ORIGINAL);
+        if (base == null || base.vectors() != originalVectors || base.size() != retrofittedVectors.size()) {
+            return;
+        }
+        int[] changedRows = new int[neighborGraph.nodeCount()];
+        int count = 0;
+        for (int node = 0; node < neighborGraph.nodeCount(); node++) {
+            if (neighborGraph.degree(node) > 0) {
+                changedRows[count++] = neighborGraph.row(node);
+            }
+        }
+        HnswIndex index;
+        if (count > retrofittedVectors.size() / 4) {
+            LoggerUtil.log("Retrofitting moved " + count + " rows; rebuilding the HNSW index.");
+            index = HnswIndex.build(retrofittedVectors);
+        } else {
+            index = base.update(retrofittedVectors, Arrays.copyOf(changedRows, count),
+                    Runtime.getRuntime().availableProcessors());
+        }
+        setIndex(Space.RETROFITTED, index);
+        logRecall(Space.RETROFITTED, index);
+    }
+
+    private void logRecall(Space space, HnswIndex index) {
+        double recall = index.recall(search(space), 10, 200);
+        LoggerUtil.log(String.format("HNSW recall@10 on %s vectors: %.3f (efSearch=%d)",
+                space.name().toLowerCase(), recall, index.getEfSearch()));
     }
 
     public double cosineSimilarity(double[] vec1, double[] vec2) {
         return VectorProcessor.cosineSimilarity(vec1, vec2);
     }
 
-    public Map<String, double[]> getOriginalVectors() {
+    public VectorStore getOriginalVectors() {
         return originalVectors;
     }
 
-    public Map<String, double[]> getRetrofittedVectors() {
+    public VectorStore getRetrofittedVectors() {
         return retrofittedVectors;
     }
 
+    /**
+     * Lexicon resolved against the original vectors by the last vectorization, or null before that.
+     */
+    public NeighborGraph getNeighborGraph() {
+        return neighborGraph;
+    }
+
     public List<String> getFilteredWords() {
         return filteredWords;
     }
@@ -177,12 +666,17 @@ public class VectorService {
         return isFiltered;
     }
 
-    public Map<String, Double> getAlignedWordSimilarities() {
-        return alignedWordSimilarities;
+    /**
+     * The {@code n} words whose retrofitted vectors stayed closest to their original ones; empty
+     * until the alignment index has been built.
+     */
+    public List<Neighbor> topAlignedWords(int n) {
+        AlignmentIndex index = getAlignmentIndex();
+        return index == null ? new ArrayList<>() : index.top(n);
     }
 
     public boolean containsWord(String word) {
-        return originalVectors.containsKey(word) || retrofittedVectors.containsKey(word);
+        return originalVectors.contains(word) || retrofittedVectors.contains(word);
     }
 
 }
@@ -1,33 +1,229 @@
 package com.wordVectorRetrofit.service;
 
+import com.wordVectorRetrofit.ui.ScatterCanvas;
+import com.wordVectorRetrofit.util.AlertUtil;
 import com.wordVectorRetrofit.util.LoggerUtil;
+import com.wordVectorRetrofit.util.PcaProjection;
+import com.wordVectorRetrofit.util.PointQuadtree;
+import com.wordVectorRetrofit.util.TsneLayout;
+import com.wordVectorRetrofit.util.VectorStore;
+import javafx.application.Platform;
 import javafx.scene.Scene;
-import javafx.scene.chart.NumberAxis;
-import javafx.scene.chart.ScatterChart;
-import javafx.scene.chart.XYChart;
-import javafx.scene.control.Tooltip;
+import javafx.scene.control.Button;
+import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.StackPane;
+import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class VisualizationService {
 
-    public void visualize(Map<String, double[]> originalVectors, Map<String, double[]> retrofittedVectors,
+    private static final long PROJECTION_SEED = 42L;
+    /** t-SNE lays out at most this many words, the first rows of each store. */
+    public static final int TSNE_MAX_ROWS = 100000;
+    private static final int TSNE_REPORT_EVERY = 25;
+
+    /** How the vectors are placed in the plane. */
+    public enum Layout {
+        PCA("PCA"),
+        TSNE("t-SNE");
+
+        private final String label;
+
+        Layout(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    // Projection of the last pair of stores shown; reopening the same pair reuses it.
+    private VectorStore projectedOriginal;
+    private VectorStore projectedRetrofitted;
+    private Projection projection;
+
+    /**
+     * Shows both sets of vectors side by side, projected onto the first two principal components
+     * of the two sets together so that the charts share their axes. The projection is computed on
+     * a background thread and cached for the same pair of stores. Each side is drawn on a canvas
+     * at a level of detail that depends on how many points are in view.
+     */
+    public void visualize(VectorStore originalVectors, VectorStore retrofittedVectors,
+                          Set<String> trackedWords, Stage ownerStage) {
+        visualize(originalVectors, retrofittedVectors, trackedWords, Layout.PCA, ownerStage);
+    }
+
+    /**
+     * Shows both sets of vectors side by side in the given layout. A {@link Layout#TSNE} layout
+     * starts from the PCA projection and is refined on background threads, each side updating as
+     * it goes; closing the window or pressing Stop cancels it.
+     */
+    public void visualize(VectorStore originalVectors, VectorStore retrofittedVectors,
+                          Set<String> trackedWords, Layout layout, Stage ownerStage) {
+        LoggerUtil.log("Starting " + layout + " visualization for original and retrofitted vectors.");
+
+        new Thread(() -> {
+            Projection projected;
+            try {
+                projected = project(originalVectors, retrofittedVectors);
+            } catch (RuntimeException e) {
+                LoggerUtil.error("Failed to project the vectors for visualization: " + e.getMessage());
+                Platform.runLater(() -> AlertUtil.showError("Visualization Error", "Failed to project the vectors: " + e.getMessage()));
+                return;
+            }
+            if (layout == Layout.TSNE) {
+                VectorStore original = head(originalVectors, TSNE_MAX_ROWS);
+                VectorStore retrofitted = head(retrofittedVectors, TSNE_MAX_ROWS);
+                Platform.runLater(() -> showTsne(original, retrofitted, projected, trackedWords, ownerStage));
+            } else {
+                Platform.runLater(() -> show(originalVectors, retrofittedVectors, projected, trackedWords, ownerStage));
+            }
+        }).start();
+    }
+
+    /** The first {@code rows} rows of the store, or the store itself if it is no larger. */
+    private static VectorStore head(VectorStore vectors, int rows) {
+        if (vectors.size() <= rows) {
+            return vectors;
+        }
+        LoggerUtil.log(String.format("Laying out the first %d of %d words.", rows, vectors.size()));
+        VectorStore head = new VectorStore(vectors.dimension(), rows, vectors.precision());
+        double[] vector = new double[vectors.dimension()];
+        for (int row = 0; row < rows; row++) {
+            vectors.readRow(row, vector);
+            head.put(vectors.word(row), vector);
+        }
+        head.setNormalized(vectors.isNormalized());
+        return head;
+    }
+
+    private synchronized Projection project(VectorStore originalVectors, VectorStore retrofittedVectors) {
+        if (projection != null && projectedOriginal == originalVectors && projectedRetrofitted == retrofittedVectors) {
+            LoggerUtil.log("Reusing the projection of the previous visualization.");
+            return projection;
+        }
+        long start = System.nanoTime();
+        PcaProjection pca = PcaProjection.fit(2, PcaProjection.DEFAULT_SAMPLE_ROWS, PROJECTION_SEED,
+                originalVectors, retrofittedVectors);
+        double[] original = pca.project(originalVectors);
+        double[] retrofitted = pca.project(retrofittedVectors);
+        projection = new Projection(pca.explainedVariance(), new PointQuadtree(original), new PointQuadtree(retrofitted));
+        projectedOriginal = originalVectors;
+        projectedRetrofitted = retrofittedVectors;
+        LoggerUtil.log(String.format("Projected %d + %d vectors onto 2 principal components (%.1f%% and %.1f%% of the variance) in %.2f s.",
+                originalVectors.size(), retrofittedVectors.size(), projection.explained[0] * 100,
+                projection.explained[1] * 100, (System.nanoTime() - start) / 1e9));
+        return projection;
+    }
+
+    private void show(VectorStore originalVectors, VectorStore retrofittedVectors, Projection projected,
+                      Set<String> trackedWords, Stage ownerStage) {
+        ScatterCanvas originalChart = createScatterChart("Before Retrofitting", originalVectors,
+                projected.original, projected.explained, trackedWords, false);
+        ScatterCanvas retrofittedChart = createScatterChart("After Retrofitting", retrofittedVectors,
+                projected.retrofitted, projected.explained, trackedWords, true);
+        showStage(createChartsBox(originalChart, retrofittedChart), ownerStage);
+    }
+
+    /**
+     * Opens the window on the PCA coordinates of both stores, then runs a t-SNE layout for each
+     * side on its own thread and streams the intermediate layouts into its chart.
+     */
+    private void showTsne(VectorStore originalVectors, VectorStore retrofittedVectors, Projection projected,
                           Set<String> trackedWords, Stage ownerStage) {
-        LoggerUtil.log("Starting visualization for original and retrofitted vectors.");
+        int smallest = Math.min(originalVectors.size(), retrofittedVectors.size());
+        if (smallest < TsneLayout.MIN_VECTORS) {
+            LoggerUtil.warning("Not enough vectors for a t-SNE layout: " + smallest);
+            AlertUtil.showError("Visualization Error", "A t-SNE layout needs at least " + TsneLayout.MIN_VECTORS
+                    + " vectors on each side; there are only " + smallest + ".");
+            return;
+        }
+        double[] originalStart = coordinates(projected.original, originalVectors.size());
+        double[] retrofittedStart = coordinates(projected.retrofitted, retrofittedVectors.size());
+        ScatterCanvas originalChart = createScatterChart("Before Retrofitting (t-SNE)", originalVectors,
+                new PointQuadtree(originalStart), projected.explained, trackedWords, false);
+        ScatterCanvas retrofittedChart = createScatterChart("After Retrofitting (t-SNE)", retrofittedVectors,
+                new PointQuadtree(retrofittedStart), projected.explained, trackedWords, true);
+        originalChart.setAxisLabels("", "");
+        retrofittedChart.setAxisLabels("", "");
 
-        ScatterChart<Number, Number> originalChart = createScatterChart("Before Retrofitting", originalVectors, trackedWords, false);
-        ScatterChart<Number, Number> retrofittedChart = createScatterChart("After Retrofitting", retrofittedVectors, trackedWords, true);
+        TsneLayout originalLayout = new TsneLayout(originalVectors, TsneLayout.DEFAULT_PERPLEXITY);
+        TsneLayout retrofittedLayout = new TsneLayout(retrofittedVectors, TsneLayout.DEFAULT_PERPLEXITY);
+        Button stopButton = new Button("Stop Layout");
+        stopButton.setOnAction(e -> {
+            originalLayout.cancel();
+            retrofittedLayout.cancel();
+            stopButton.setDisable(true);
+        });
+        HBox controls = new HBox(10, stopButton);
+        controls.setStyle("-fx-padding: 10 0 0 0; -fx-alignment: center;");
+        BorderPane content = new BorderPane(createChartsBox(originalChart, retrofittedChart));
+        content.setBottom(controls);
 
+        Stage stage = showStage(content, ownerStage);
+        stage.setOnHidden(e -> {
+            originalLayout.cancel();
+            retrofittedLayout.cancel();
+        });
+        startLayout(originalLayout, originalStart, originalChart, "Before Retrofitting");
+        startLayout(retrofittedLayout, retrofittedStart, retrofittedChart, "After Retrofitting");
+    }
+
+    private static void startLayout(TsneLayout layout, double[] start, ScatterCanvas chart, String title) {
+        // Only the newest layout is handed to the FX thread; updates it has not drawn yet are replaced.
+        AtomicReference<Runnable> pending = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                layout.run(start, TsneLayout.DEFAULT_ITERATIONS, TSNE_REPORT_EVERY, (iteration, iterations, points) -> {
+                    PointQuadtree tree = new PointQuadtree(points);
+                    String status = layout.isCancelled() ? "stopped at iteration " + iteration
+                            : iteration < iterations ? "iteration " + iteration + " of " + iterations : "done";
+                    Runnable update = () -> {
+                        chart.setPoints(tree);
+                        chart.setTitle(title + " (t-SNE, " + status + ")");
+                    };
+                    if (pending.getAndSet(update) == null) {
+                        Platform.runLater(() -> pending.getAndSet(null).run());
+                    }
+                });
+            } catch (RuntimeException e) {
+                LoggerUtil.error("t-SNE layout failed: " + e.getMessage());
+                Platform.runLater(() -> AlertUtil.showError("Visualization Error", "t-SNE layout failed: " + e.getMessage()));
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** The first {@code rows} points of a projection, row-major. */
+    private static double[] coordinates(PointQuadtree points, int rows) {
+        double[] coordinates = new double[2 * rows];
+        for (int row = 0; row < rows; row++) {
+            coordinates[2 * row] = points.x(row);
+            coordinates[2 * row + 1] = points.y(row);
+        }
+        return coordinates;
+    }
+
+    private HBox createChartsBox(ScatterCanvas originalChart, ScatterCanvas retrofittedChart) {
         HBox chartsBox = new HBox(50, originalChart, retrofittedChart);
         chartsBox.setStyle("-fx-padding: 10; -fx-background-color: #FFFFFF; -fx-alignment: center;");
+        HBox.setHgrow(originalChart, Priority.ALWAYS);
+        HBox.setHgrow(retrofittedChart, Priority.ALWAYS);
+        return chartsBox;
+    }
 
-        StackPane visualizationPane = new StackPane(chartsBox);
+    private Stage showStage(javafx.scene.Node content, Stage ownerStage) {
+        StackPane visualizationPane = new StackPane(content);
         visualizationPane.setStyle("-fx-padding: 20; -fx-background-color: #F5F5F5;");
-        StackPane.setAlignment(chartsBox, javafx.geometry.Pos.CENTER);
+        StackPane.setAlignment(content, javafx.geometry.Pos.CENTER);
 
         Scene scene = new Scene(visualizationPane, 1600, 800);
 
@@ -44,44 +240,35 @@ public class VisualizationService {
         visualizationStage.show();
 
         LoggerUtil.log("Visualization window displayed successfully.");
+        return visualizationStage;
     }
 
-    private ScatterChart<Number, Number> createScatterChart(String title, Map<String, double[]> vectors, Set<String> trackedWords, boolean isAfter) {
-        NumberAxis xAxis = new NumberAxis();
-        NumberAxis yAxis = new NumberAxis();
-        xAxis.setLabel("Dimension 1");
-        yAxis.setLabel("Dimension 2");
-
-        ScatterChart<Number, Number> scatterChart = new ScatterChart<>(xAxis, yAxis);
+    private ScatterCanvas createScatterChart(String title, VectorStore vectors, PointQuadtree points,
+                                             double[] explained, Set<String> trackedWords, boolean isAfter) {
+        ScatterCanvas scatterChart = new ScatterCanvas(points, vectors::word,
+                isAfter ? Color.web("#FF4500") : Color.web("#4682B4"));
         scatterChart.setTitle(title);
+        scatterChart.setAxisLabels(String.format("PC1 (%.1f%%)", explained[0] * 100),
+                String.format("PC2 (%.1f%%)", explained[1] * 100));
 
-        XYChart.Series<Number, Number> series = new XYChart.Series<>();
-        series.setName(title);
-
-        vectors.forEach((word, vector) -> {
-            XYChart.Data<Number, Number> dataPoint = new XYChart.Data<>(vector[0], vector[1]);
-            series.getData().add(dataPoint);
-
-            dataPoint.nodeProperty().addListener((observable, oldNode, newNode) -> {
-                if (newNode != null) {
-                    Tooltip tooltip = new Tooltip(word);
-                    Tooltip.install(newNode, tooltip);
-
-                    if (trackedWords.contains(word)) {
-                        newNode.setStyle("-fx-background-color: #FFD700; -fx-radius: 6;"); 
-                    } else {
-                        String color = isAfter ? "#FF4500" : "#4682B4"; 
-                        newNode.setStyle("-fx-background-color: " + color + "; -fx-radius: 5;");
-                    }
-                }
-            });
-        });
-
-        scatterChart.getData().add(series);
+        int[] trackedRows = trackedWords.stream()
+                .mapToInt(vectors::indexOf)
+                .filter(row -> row >= 0)
+                .toArray();
+        scatterChart.setTrackedRows(trackedRows);
         return scatterChart;
     }
 
-    
-        
-    
+    /** Two-dimensional coordinates of both stores, indexed for drawing, and the variance each axis explains. */
+    private static final class Projection {
+        final double[] explained;
+        final PointQuadtree original;
+        final PointQuadtree retrofitted;
+
+        Projection(double[] explained, PointQuadtree original, PointQuadtree retrofitted) {
+            this.explained = explained;
+            this.original = original;
+            this.retrofitted = retrofitted;
+        }
+    }
 }
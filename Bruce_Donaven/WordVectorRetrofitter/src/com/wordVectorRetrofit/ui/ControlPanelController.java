@@ -4,8 +4,14 @@ import com.wordVectorRetrofit.service.FileService;
 import com.wordVectorRetrofit.service.VectorService;
 import com.wordVectorRetrofit.service.VisualizationService;
 import com.wordVectorRetrofit.util.AlertUtil;
+import com.wordVectorRetrofit.util.AlignmentIndex;
+import com.wordVectorRetrofit.util.BinaryVectorFormat;
 import com.wordVectorRetrofit.util.LoggerUtil;
 import com.wordVectorRetrofit.util.FileOperations;
+import com.wordVectorRetrofit.util.JobScheduler;
+import com.wordVectorRetrofit.util.Neighbor;
+import com.wordVectorRetrofit.util.Precision;
+import com.wordVectorRetrofit.util.RetrofitProgress;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -18,10 +24,13 @@ import javafx.stage.Stage;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.function.Consumer;
 
 public class ControlPanelController {
 
@@ -32,8 +41,15 @@ public class ControlPanelController {
     private Button vectorizeButton = new Button("Vectorize");
     private Slider similaritySlider = new Slider(0.0, 1.0, 0.8);
     private Label similarityLabel = new Label("Similarity: 0.80");
+    private ChoiceBox<Precision> precisionChoice = new ChoiceBox<>();
+    private CheckBox selectiveLoadingCheckBox = new CheckBox("Lexicon words only");
+    private TextField nearestWordField = new TextField();
+    private Button nearestButton = new Button("Nearest");
+    private CheckBox approximateCheckBox = new CheckBox("Approximate (HNSW)");
     private Button filterButton = new Button("Filter");
+    private Button cancelButton = new Button("Cancel");
     private Button visualizeButton = new Button("Visualize");
+    private ChoiceBox<VisualizationService.Layout> layoutChoice = new ChoiceBox<>();
     private Button exportButton = new Button("Export");
     private Button visualizeSmallDatasetButton = new Button("Visualize Small Dataset"); 
 
@@ -49,6 +65,7 @@ public class ControlPanelController {
         this.vectorService = vectorService;
         this.visualizationService = new VisualizationService();
         this.trackedWords = initializeTrackedWords();
+        fileService.setPinnedWords(trackedWords);
         createControlPanel(stage);
         LoggerUtil.log("ControlPanelController initialized.");
     }
@@ -82,14 +99,16 @@ public class ControlPanelController {
         HBox vectorFileRow = createFileRow("Load Vectors", vectorFileField, stage, fileService::loadWordVectors);
         HBox lexiconFileRow = createFileRow("Load Lexicon", lexiconFileField, stage, fileService::loadLexicon);
 
+        HBox precisionRow = createPrecisionChoice();
         HBox similarityRow = createSimilaritySlider();
+        HBox nearestRow = createNearestRow();
 
         configureButtons(stage);
 
-        HBox buttonRow1 = new HBox(10, vectorizeButton, filterButton);
+        HBox buttonRow1 = new HBox(10, vectorizeButton, filterButton, cancelButton);
         buttonRow1.setAlignment(Pos.CENTER);
 
-        HBox buttonRow2 = new HBox(10, visualizeButton, exportButton);
+        HBox buttonRow2 = new HBox(10, visualizeButton, layoutChoice, exportButton);
         buttonRow2.setAlignment(Pos.CENTER);
 
         HBox buttonRow3 = new HBox(10, visualizeSmallDatasetButton); 
@@ -100,8 +119,10 @@ public class ControlPanelController {
 
         controlPanel.add(vectorFileRow, 0, 0, 2, 1);
         controlPanel.add(lexiconFileRow, 0, 1, 2, 1);
-        controlPanel.add(similarityRow, 0, 2, 2, 1);
-        controlPanel.add(buttonBox, 0, 3, 2, 1);
+        controlPanel.add(precisionRow, 0, 2, 2, 1);
+        controlPanel.add(similarityRow, 0, 3, 2, 1);
+        controlPanel.add(nearestRow, 0, 4, 2, 1);
+        controlPanel.add(buttonBox, 0, 5, 2, 1);
 
         controlPanelWidget = new VBox(10);
         controlPanelWidget.setPadding(new Insets(10));
@@ -109,8 +130,8 @@ public class ControlPanelController {
         controlPanelWidget.setStyle("-fx-border-color: #CCCCCC; -fx-border-width: 1px; -fx-background-color: #FAFAFA;");
         controlPanelWidget.setPrefWidth(500);
         controlPanelWidget.setMaxWidth(500);
-        controlPanelWidget.setPrefHeight(350); 
-        controlPanelWidget.setMaxHeight(350);
+        controlPanelWidget.setPrefHeight(430); 
+        controlPanelWidget.setMaxHeight(430);
 
         Label title = new Label("Control Panel");
         title.setStyle("-fx-font-weight: bold; -fx-font-size: 16px;");
@@ -121,8 +142,14 @@ public class ControlPanelController {
     private void configureButtons(Stage stage) {
         vectorizeButton.setPrefWidth(150);
         filterButton.setPrefWidth(150);
+        cancelButton.setPrefWidth(100);
+        cancelButton.setTooltip(new Tooltip("Stops a running vectorization or filter. The last completed results are kept."));
         visualizeButton.setPrefWidth(150);
         exportButton.setPrefWidth(150);
+        layoutChoice.getItems().addAll(VisualizationService.Layout.values());
+        layoutChoice.setValue(VisualizationService.Layout.PCA);
+        layoutChoice.setTooltip(new Tooltip("PCA is a linear projection. t-SNE keeps neighborhoods together and "
+                + "is refined in the background while the window is open."));
         visualizeSmallDatasetButton.setPrefWidth(200); 
 
         vectorizeButton.setDisable(true);
@@ -136,6 +163,7 @@ public class ControlPanelController {
 
         vectorizeButton.setOnAction(e -> vectorize());
         filterButton.setOnAction(e -> filterWords());
+        cancelButton.setOnAction(e -> vectorService.cancelJobs());
         visualizeButton.setOnAction(e -> visualize(stage));
         exportButton.setOnAction(e -> exportRetrofittedVectors(stage));
 
@@ -184,6 +212,27 @@ public class ControlPanelController {
         return row;
     }
 
+    private HBox createPrecisionChoice() {
+        precisionChoice.getItems().addAll(Precision.values());
+        precisionChoice.setValue(fileService.getPrecision());
+        precisionChoice.setPrefWidth(150);
+        precisionChoice.setTooltip(new Tooltip("Storage precision for loaded and retrofitted vectors. "
+                + "FLOAT16 and INT8 fit 4-8x more words than FLOAT64."));
+        precisionChoice.valueProperty().addListener((obs, oldVal, newVal) -> {
+            fileService.setPrecision(newVal);
+            vectorService.setPrecision(newVal);
+        });
+
+        selectiveLoadingCheckBox.setSelected(fileService.isSelectiveLoading());
+        selectiveLoadingCheckBox.setTooltip(new Tooltip("Load only the vectors of lexicon and tracked words. "
+                + "Load the lexicon before the vectors."));
+        selectiveLoadingCheckBox.setOnAction(e -> fileService.setSelectiveLoading(selectiveLoadingCheckBox.isSelected()));
+
+        HBox precisionBox = new HBox(10, new Label("Precision:"), precisionChoice, selectiveLoadingCheckBox);
+        precisionBox.setAlignment(Pos.CENTER);
+        return precisionBox;
+    }
+
     private HBox createSimilaritySlider() {
         similaritySlider.setShowTickLabels(true);
         similaritySlider.setShowTickMarks(true);
@@ -191,9 +240,11 @@ public class ControlPanelController {
         similaritySlider.setBlockIncrement(0.01);
         similaritySlider.setPrefWidth(220);
 
-        similaritySlider.valueProperty().addListener((obs, oldVal, newVal) -> {
-            similarityLabel.setText(String.format("Similarity: %.2f", newVal.doubleValue()));
-            LoggerUtil.log("Similarity threshold set to: " + String.format("%.2f", newVal.doubleValue()));
+        similaritySlider.valueProperty().addListener((obs, oldVal, newVal) -> updateThreshold(newVal.doubleValue()));
+        similaritySlider.valueChangingProperty().addListener((obs, wasChanging, changing) -> {
+            if (!changing) {
+                updateThreshold(similaritySlider.getValue());
+            }
         });
 
         HBox sliderBox = new HBox(10, similarityLabel, similaritySlider);
@@ -201,30 +252,110 @@ public class ControlPanelController {
         return sliderBox;
     }
 
+    private HBox createNearestRow() {
+        nearestWordField.setPromptText("word");
+        nearestWordField.setPrefWidth(180);
+        nearestButton.setOnAction(e -> logNearestWords(nearestWordField.getText(), 10));
+        nearestWordField.setOnAction(e -> logNearestWords(nearestWordField.getText(), 10));
+
+        approximateCheckBox.setOnAction(e -> setApproximateSearch(approximateCheckBox.isSelected()));
+
+        HBox nearestBox = new HBox(10, nearestButton, nearestWordField, approximateCheckBox);
+        nearestBox.setAlignment(Pos.CENTER);
+        return nearestBox;
+    }
+
+    /**
+     * Switches nearest-word queries to the HNSW indexes, loading the index saved next to the vector
+     * file or building one in the background the first time.
+     */
+    private void setApproximateSearch(boolean approximate) {
+        if (!approximate) {
+            vectorService.setApproximateSearch(false);
+            return;
+        }
+        if (fileService.getOriginalVectors().isEmpty()) {
+            LoggerUtil.warning("Load vectors before enabling approximate search.");
+            approximateCheckBox.setSelected(false);
+            return;
+        }
+        approximateCheckBox.setDisable(true);
+        vectorService.prepareApproximateSearch(fileService.getOriginalVectors(), fileService.getVectorFilePath(),
+                () -> Platform.runLater(() -> approximateCheckBox.setDisable(false)),
+                (state, cause) -> Platform.runLater(() -> {
+                    approximateCheckBox.setSelected(false);
+                    approximateCheckBox.setDisable(false);
+                }));
+    }
+
+    private void logNearestWords(String word, int k) {
+        if (word.trim().isEmpty() || fileService.getOriginalVectors().isEmpty()) {
+            LoggerUtil.warning("Load vectors and enter a word to find its nearest words.");
+            return;
+        }
+        new Thread(() -> {
+            logNearest(word, k, VectorService.Space.ORIGINAL);
+            if (vectorService.isVectorized()) {
+                logNearest(word, k, VectorService.Space.RETROFITTED);
+            }
+        }).start();
+    }
+
+    private void logNearest(String word, int k, VectorService.Space space) {
+        long start = System.nanoTime();
+        // The loaded file may be newer than the last vectorization; search it without replacing the service's vectors.
+        List<Neighbor> neighbors = space == VectorService.Space.ORIGINAL
+                ? vectorService.nearest(fileService.getOriginalVectors(), word, k)
+                : vectorService.nearest(word, k, space);
+        double elapsedMs = (System.nanoTime() - start) / 1e6;
+        if (!neighbors.isEmpty()) {
+            LoggerUtil.log(String.format("Nearest %d words to '%s' (%s, %.1f ms): %s",
+                    neighbors.size(), word.trim(), space.name().toLowerCase(), elapsedMs, neighbors));
+        }
+    }
+
     private void vectorize() {
         LoggerUtil.log("Starting vectorization...");
         double alpha = 1.0; 
         double beta = 1.0;  
-        int numIterations = 10; // Default number of iterations
+        int maxIterations = 50; // Upper bound; retrofitting stops earlier once it converges
+        double tolerance = 1e-4; // Largest change of any word vector at convergence
+
+        Consumer<Long> onComplete = elapsedTime -> Platform.runLater(() -> {
+            LoggerUtil.log("Vectorization completed in " + elapsedTime + " seconds.");
+            filterButton.setDisable(false);
+            visualizeButton.setDisable(false);
+            exportButton.setDisable(false);
+            visualizeSmallDatasetButton.setDisable(false);
+            showThresholdCount(similaritySlider.getValue());
+        });
+        // The service logs why a run was refused or cancelled; only failures need saying here.
+        JobScheduler.FailureListener onError = (state, cause) -> {
+            if (state == JobScheduler.State.FAILED) {
+                Platform.runLater(() -> LoggerUtil.error("Vectorization failed."));
+            }
+        };
+        RetrofitProgress onProgress = (currentIteration, totalIterations, maxResidual, meanResidual) ->
+                LoggerUtil.log(String.format("Vectorization progress: iteration %d/%d, max residual %.3e, mean residual %.3e",
+                        currentIteration, totalIterations, maxResidual, meanResidual));
+
+        // Same vectors as the last run: only the lexicon changed, so re-solve just the affected words.
+        if (vectorService.isVectorized() && fileService.getOriginalVectors() == vectorService.getOriginalVectors()) {
+            vectorService.revectorize(fileService.getOriginalVectors(), fileService.getLexicon(),
+                    Collections.emptyList(), maxIterations, tolerance, onComplete, onError, onProgress);
+            return;
+        }
 
         vectorService.vectorize(
                 fileService.getOriginalVectors(),
                 fileService.getLexicon(),
-                numIterations,
+                maxIterations,
+                tolerance,
                 alpha,
                 beta,
-                elapsedTime -> Platform.runLater(() -> {
-                    LoggerUtil.log("Vectorization completed in " + elapsedTime + " seconds.");
-                    filterButton.setDisable(false);
-                    visualizeButton.setDisable(false);
-                    exportButton.setDisable(false);
-                    visualizeSmallDatasetButton.setDisable(false); 
-                }),
-                () -> Platform.runLater(() -> LoggerUtil.error("Vectorization failed.")),
-                (currentIteration, totalIterations) -> {
-                    LoggerUtil.log(String.format("Vectorization progress: %.2f%% (%d/%d)",
-                            ((double) currentIteration / totalIterations) * 100, currentIteration, totalIterations));
-                }
+                onComplete,
+                onError,
+                onProgress
         );
     }
 
@@ -233,6 +364,10 @@ public class ControlPanelController {
         LoggerUtil.log("Starting filtering with similarity threshold: " + String.format("%.2f", threshold));
         vectorService.filterWords(threshold,
                 (count, avgSimilarity) -> Platform.runLater(() -> {
+                    if (count == 0) {
+                        LoggerUtil.warning("No words met the similarity threshold.");
+                        return;
+                    }
                     LoggerUtil.log("Filtering completed.");
                     LoggerUtil.log("Number of words meeting the threshold: " + count);
                     LoggerUtil.log(String.format("Average Similarity: %.4f", avgSimilarity));
@@ -240,21 +375,54 @@ public class ControlPanelController {
                     visualizeButton.setDisable(false);
                     exportButton.setDisable(false);
                 }),
-                () -> Platform.runLater(() -> LoggerUtil.warning("No words met the similarity threshold."))
+                (state, cause) -> {
+                    if (state == JobScheduler.State.FAILED) {
+                        Platform.runLater(() -> LoggerUtil.error("Filtering failed."));
+                    }
+                }
         );
     }
 
-    private void logTopAlignedWords(int topN) {
-        Map<String, Double> similarityMap = vectorService.getAlignedWordSimilarities();
+    /**
+     * Shows how many words the threshold keeps while the slider moves and, once a filter has been
+     * applied, re-applies it when the slider is released. Both are lookups in the alignment index.
+     */
+    private void updateThreshold(double threshold) {
+        int count = showThresholdCount(threshold);
+        if (vectorService.isFiltered() && count > 0 && !similaritySlider.isValueChanging()) {
+            filterWords();
+        }
+    }
+
+    /**
+     * Shows how many words {@code threshold} keeps, or that the alignment index is still being
+     * built. Never builds the index, so it is safe on the FX thread.
+     *
+     * @return The number of words kept, 0 while there is no index.
+     */
+    private int showThresholdCount(double threshold) {
+        AlignmentIndex index = vectorService.getAlignmentIndex();
+        if (index == null) {
+            similarityLabel.setText(vectorService.isVectorized()
+                    ? String.format("Similarity: %.2f (indexing...)", threshold)
+                    : String.format("Similarity: %.2f", threshold));
+            return 0;
+        }
+        int count = index.countAtLeast(threshold);
+        similarityLabel.setText(String.format("Similarity: %.2f (%d words)", threshold, count));
+        LoggerUtil.fine("Similarity threshold %.2f keeps %d words, average similarity %.4f",
+                threshold, count, index.averageAtLeast(threshold));
+        return count;
+    }
 
+    private void logTopAlignedWords(int topN) {
         LoggerUtil.log("Top " + topN + " Aligned Words After Retrofitting:");
         LoggerUtil.log(String.format("%-20s%-10s", "Word", "Similarity"));
         LoggerUtil.log(String.format("%-20s%-10s", "----", "----------"));
 
-        similarityMap.entrySet().stream()
-                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
-                .limit(topN)
-                .forEach(entry -> LoggerUtil.log(String.format("%-20s%-10.4f", entry.getKey(), entry.getValue())));
+        for (Neighbor neighbor : vectorService.topAlignedWords(topN)) {
+            LoggerUtil.log(String.format("%-20s%-10.4f", neighbor.getWord(), neighbor.getSimilarity()));
+        }
     }
 
     private void visualize(Stage stage) {
@@ -275,6 +443,7 @@ public class ControlPanelController {
                 vectorService.getOriginalVectors(),
                 vectorService.getRetrofittedVectors(),
                 trackedWords,
+                layoutChoice.getValue(),
                 stage
         );
     }
@@ -283,12 +452,25 @@ public class ControlPanelController {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Save Retrofitted Vectors");
         fileChooser.setInitialFileName("retrofitted_vectors.txt");
+        FileChooser.ExtensionFilter binaryFilter = new FileChooser.ExtensionFilter(
+                "Binary vectors (*" + BinaryVectorFormat.EXTENSION + ")", "*" + BinaryVectorFormat.EXTENSION);
+        FileChooser.ExtensionFilter compressedFilter = new FileChooser.ExtensionFilter(
+                "Compressed text vectors (*.txt.gz)", "*.gz");
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Text vectors (*.txt)", "*.txt"), compressedFilter, binaryFilter);
         File file = fileChooser.showSaveDialog(stage);
         if (file != null) {
+            String path = file.getAbsolutePath();
+            if (fileChooser.getSelectedExtensionFilter() == binaryFilter && !BinaryVectorFormat.isBinary(path)) {
+                path = path.replaceFirst("\\.txt$", "") + BinaryVectorFormat.EXTENSION;
+            } else if (fileChooser.getSelectedExtensionFilter() == compressedFilter && !path.endsWith(".gz")) {
+                path = path + ".gz";
+            }
             try {
-                FileOperations.writeWordVectors(vectorService.getRetrofittedVectors(), file.getAbsolutePath());
-                LoggerUtil.log("Retrofitted vectors exported to: " + file.getAbsolutePath());
-                AlertUtil.showInfo("Export Successful", "Retrofitted vectors exported successfully to:\n" + file.getAbsolutePath());
+                FileOperations.writeWordVectors(vectorService.getRetrofittedVectors(), path);
+                LoggerUtil.log("Retrofitted vectors exported to: " + path);
+                vectorService.saveIndex(VectorService.Space.RETROFITTED, path);
+                AlertUtil.showInfo("Export Successful", "Retrofitted vectors exported successfully to:\n" + path);
             } catch (IOException e) {
                 LoggerUtil.error("Failed to export retrofitted vectors: " + e.getMessage());
                 AlertUtil.showError("Export Error", "Failed to export retrofitted vectors:\n" + e.getMessage());
@@ -352,7 +534,7 @@ public class ControlPanelController {
             String word1 = pair[0];
             String word2 = pair[1];
 
-            if (vectorService.getRetrofittedVectors().containsKey(word1) && vectorService.getRetrofittedVectors().containsKey(word2)) {
+            if (vectorService.getRetrofittedVectors().contains(word1) && vectorService.getRetrofittedVectors().contains(word2)) {
                 smallDataset.put(word1, vectorService.getRetrofittedVectors().get(word1));
                 smallDataset.put(word2, vectorService.getRetrofittedVectors().get(word2));
                 LoggerUtil.log("Added retrofitted word pair: (" + word1 + ", " + word2 + ")");
@@ -0,0 +1,397 @@
+package com.wordVectorRetrofit.ui;
+
+import com.wordVectorRetrofit.util.PointQuadtree;
+import javafx.animation.AnimationTimer;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Scatter plot drawn on a single {@link Canvas} instead of one scene-graph node per point.
+ *
+ * Zoomed out, the visible points are binned into a screen-space density grid, walking the
+ * {@link PointQuadtree} only down to subtrees smaller than a grid cell, and the grid is drawn as
+ * one image shaded by log density. Once few enough points are in view every point is drawn, and
+ * labeled when there is room. Hovering looks up the nearest point in the quadtree; tracked points
+ * are always drawn on top. Drag to pan, scroll to zoom and double-click to fit.
+ *
+ * Changes only mark the plot dirty; it is redrawn at most once per animation pulse.
+ */
+public class ScatterCanvas extends Region {
+
+    /** Above this many visible points the plot is drawn as a density grid. */
+    private static final int DETAIL_POINTS = 20000;
+    /** Below this many visible points every point is labeled. */
+    private static final int LABEL_POINTS = 200;
+    /** Side of a density grid cell, in pixels. */
+    private static final int CELL_PIXELS = 2;
+    private static final double POINT_RADIUS = 2.5;
+    private static final double TRACKED_RADIUS = 5;
+    private static final double HOVER_PIXELS = 8;
+    private static final double MARGIN = 40;
+
+    private final Canvas canvas = new Canvas();
+    private PointQuadtree points;
+    private final IntFunction<String> labels;
+    private final Color color;
+    private int[] trackedRows = new int[0];
+    private String title = "";
+    private String xLabel = "";
+    private String yLabel = "";
+
+    // View: data coordinates at the center of the canvas, and pixels per data unit.
+    private double centerX;
+    private double centerY;
+    private double scale;
+    /** Whether the user has panned or zoomed since the last fit; until then resizing refits. */
+    private boolean moved;
+
+    private int hovered = -1;
+    private double dragX;
+    private double dragY;
+
+    private WritableImage densityImage;
+    private float[] densityCounts;
+    private int[] densityPixels;
+
+    private boolean dirty;
+    private final AnimationTimer redraw = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            stop();
+            dirty = false;
+            draw();
+        }
+    };
+
+    /**
+     * @param points Quadtree over the row-major coordinates of the points.
+     * @param labels Label of each point, by index.
+     * @param color  Color of the points.
+     */
+    public ScatterCanvas(PointQuadtree points, IntFunction<String> labels, Color color) {
+        this.points = points;
+        this.labels = labels;
+        this.color = color;
+        getChildren().add(canvas);
+        setMinSize(200, 200);
+        setPrefSize(700, 700);
+
+        canvas.setOnMousePressed(event -> {
+            dragX = event.getX();
+            dragY = event.getY();
+        });
+        canvas.setOnMouseDragged(event -> {
+            centerX -= (event.getX() - dragX) / scale;
+            centerY += (event.getY() - dragY) / scale;
+            dragX = event.getX();
+            dragY = event.getY();
+            moved = true;
+            requestRedraw();
+        });
+        canvas.setOnScroll(event -> {
+            double factor = Math.exp(event.getDeltaY() / 400);
+            // Keep the data point under the cursor in place.
+            double x = toDataX(event.getX());
+            double y = toDataY(event.getY());
+            scale *= factor;
+            centerX = x - (event.getX() - canvas.getWidth() / 2) / scale;
+            centerY = y + (event.getY() - canvas.getHeight() / 2) / scale;
+            moved = true;
+            requestRedraw();
+        });
+        canvas.setOnMouseClicked(event -> {
+            if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2) {
+                fit();
+            }
+        });
+        canvas.setOnMouseMoved(event -> {
+            int nearest = this.points.nearest(toDataX(event.getX()), toDataY(event.getY()), HOVER_PIXELS / scale);
+            if (nearest != hovered) {
+                hovered = nearest;
+                requestRedraw();
+            }
+        });
+        canvas.setOnMouseExited(event -> {
+            if (hovered >= 0) {
+                hovered = -1;
+                requestRedraw();
+            }
+        });
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+        requestRedraw();
+    }
+
+    public void setAxisLabels(String xLabel, String yLabel) {
+        this.xLabel = xLabel;
+        this.yLabel = yLabel;
+        requestRedraw();
+    }
+
+    /**
+     * Replaces the points, keeping their labels, for layouts that are refined over time. The view
+     * is refitted unless the user has moved it.
+     */
+    public void setPoints(PointQuadtree points) {
+        this.points = points;
+        hovered = -1;
+        if (moved) {
+            requestRedraw();
+        } else {
+            fit();
+        }
+    }
+
+    /** Points always drawn highlighted and labeled. */
+    public void setTrackedRows(int[] trackedRows) {
+        this.trackedRows = trackedRows.clone();
+        requestRedraw();
+    }
+
+    /** Zooms to show all the points. */
+    public void fit() {
+        double[] bounds = points.bounds();
+        double width = Math.max(canvas.getWidth() - 2 * MARGIN, 1);
+        double height = Math.max(canvas.getHeight() - 2 * MARGIN, 1);
+        if (bounds == null) {
+            centerX = 0;
+            centerY = 0;
+            scale = 1;
+        } else {
+            centerX = (bounds[0] + bounds[2]) / 2;
+            centerY = (bounds[1] + bounds[3]) / 2;
+            double spanX = Math.max(bounds[2] - bounds[0], 1e-9);
+            double spanY = Math.max(bounds[3] - bounds[1], 1e-9);
+            scale = Math.min(width / spanX, height / spanY);
+        }
+        moved = false;
+        requestRedraw();
+    }
+
+    private void requestRedraw() {
+        if (!dirty) {
+            dirty = true;
+            redraw.start();
+        }
+    }
+
+    @Override
+    protected void layoutChildren() {
+        double width = snapSizeX(getWidth());
+        double height = snapSizeY(getHeight());
+        if (canvas.getWidth() != width || canvas.getHeight() != height) {
+            canvas.setWidth(width);
+            canvas.setHeight(height);
+            if (!moved) {
+                fit();
+            }
+            requestRedraw();
+        }
+    }
+
+    private double toDataX(double screenX) {
+        return centerX + (screenX - canvas.getWidth() / 2) / scale;
+    }
+
+    private double toDataY(double screenY) {
+        return centerY - (screenY - canvas.getHeight() / 2) / scale;
+    }
+
+    private double toScreenX(double x) {
+        return canvas.getWidth() / 2 + (x - centerX) * scale;
+    }
+
+    private double toScreenY(double y) {
+        return canvas.getHeight() / 2 - (y - centerY) * scale;
+    }
+
+    private void draw() {
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.setFill(Color.WHITE);
+        gc.fillRect(0, 0, width, height);
+        if (width < 1 || height < 1) {
+            return;
+        }
+
+        gc.setStroke(Color.gray(0.85));
+        gc.setLineWidth(1);
+        double originX = Math.floor(toScreenX(0)) + 0.5;
+        double originY = Math.floor(toScreenY(0)) + 0.5;
+        gc.strokeLine(originX, 0, originX, height);
+        gc.strokeLine(0, originY, width, originY);
+
+        // Pad the view by a point radius so points on the edge are not cut off.
+        double pad = TRACKED_RADIUS / scale;
+        double x0 = toDataX(0) - pad;
+        double x1 = toDataX(width) + pad;
+        double y0 = toDataY(height) - pad;
+        double y1 = toDataY(0) + pad;
+        int visible = points.count(x0, y0, x1, y1);
+        if (visible > DETAIL_POINTS) {
+            drawDensity(gc, width, height, x0, y0, x1, y1);
+        } else {
+            drawPoints(gc, x0, y0, x1, y1, visible <= LABEL_POINTS);
+        }
+
+        gc.setFont(Font.font(12));
+        gc.setTextBaseline(VPos.CENTER);
+        for (int row : trackedRows) {
+            drawMarker(gc, row, Color.GOLD, TRACKED_RADIUS);
+        }
+        if (hovered >= 0) {
+            drawMarker(gc, hovered, Color.BLACK, TRACKED_RADIUS);
+        }
+        drawCaptions(gc, width, height, visible);
+    }
+
+    /**
+     * Bins the visible points into cells of {@link #CELL_PIXELS} and writes one pixel per cell,
+     * its opacity growing with the log of the count.
+     */
+    private void drawDensity(GraphicsContext gc, double width, double height, double x0, double y0, double x1, double y1) {
+        int columns = (int) Math.ceil(width / CELL_PIXELS);
+        int rows = (int) Math.ceil(height / CELL_PIXELS);
+        if (densityImage == null || densityImage.getWidth() != columns || densityImage.getHeight() != rows) {
+            densityImage = new WritableImage(columns, rows);
+            densityCounts = new float[columns * rows];
+            densityPixels = new int[columns * rows];
+        }
+        float[] counts = densityCounts;
+        Arrays.fill(counts, 0);
+        double cellScale = scale / CELL_PIXELS;
+        double left = toDataX(0);
+        double top = toDataY(0);
+        float[] max = {0};
+        points.visit(x0, y0, x1, y1, 1 / cellScale, new PointQuadtree.Visitor() {
+            @Override
+            public void point(int index, double x, double y) {
+                add(1, x, y);
+            }
+
+            @Override
+            public void cluster(int count, double x, double y) {
+                add(count, x, y);
+            }
+
+            private void add(int count, double x, double y) {
+                int column = (int) ((x - left) * cellScale);
+                int row = (int) ((top - y) * cellScale);
+                if (column >= 0 && column < columns && row >= 0 && row < rows) {
+                    float total = counts[row * columns + column] += count;
+                    if (total > max[0]) {
+                        max[0] = total;
+                    }
+                }
+            }
+        });
+
+        int rgb = ((int) Math.round(color.getRed() * 255) << 16)
+                | ((int) Math.round(color.getGreen() * 255) << 8)
+                | (int) Math.round(color.getBlue() * 255);
+        double logMax = Math.log1p(max[0]);
+        int[] pixels = densityPixels;
+        for (int i = 0; i < pixels.length; i++) {
+            float count = counts[i];
+            if (count == 0) {
+                pixels[i] = 0;
+            } else {
+                int alpha = 96 + (int) (159 * Math.log1p(count) / logMax);
+                pixels[i] = (alpha << 24) | rgb;
+            }
+        }
+        densityImage.getPixelWriter().setPixels(0, 0, columns, rows, PixelFormat.getIntArgbInstance(), pixels, 0, columns);
+        gc.setImageSmoothing(false);
+        gc.drawImage(densityImage, 0, 0, columns * CELL_PIXELS, rows * CELL_PIXELS);
+    }
+
+    private void drawPoints(GraphicsContext gc, double x0, double y0, double x1, double y1, boolean labeled) {
+        gc.setFill(color);
+        points.visit(x0, y0, x1, y1, 0, new PointQuadtree.Visitor() {
+            @Override
+            public void point(int index, double x, double y) {
+                gc.fillOval(toScreenX(x) - POINT_RADIUS, toScreenY(y) - POINT_RADIUS, 2 * POINT_RADIUS, 2 * POINT_RADIUS);
+            }
+
+            @Override
+            public void cluster(int count, double x, double y) {
+                point(-1, x, y);
+            }
+        });
+        if (labeled) {
+            gc.setFont(Font.font(11));
+            gc.setTextBaseline(VPos.CENTER);
+            gc.setTextAlign(TextAlignment.LEFT);
+            gc.setFill(Color.gray(0.3));
+            points.visit(x0, y0, x1, y1, 0, new PointQuadtree.Visitor() {
+                @Override
+                public void point(int index, double x, double y) {
+                    gc.fillText(labels.apply(index), toScreenX(x) + POINT_RADIUS + 2, toScreenY(y));
+                }
+
+                @Override
+                public void cluster(int count, double x, double y) {
+                }
+            });
+        }
+    }
+
+    private void drawMarker(GraphicsContext gc, int row, Color fill, double radius) {
+        double x = toScreenX(points.x(row));
+        double y = toScreenY(points.y(row));
+        if (x < -radius || y < -radius || x > canvas.getWidth() + radius || y > canvas.getHeight() + radius) {
+            return;
+        }
+        gc.setFill(fill);
+        gc.fillOval(x - radius, y - radius, 2 * radius, 2 * radius);
+        gc.setStroke(Color.BLACK);
+        gc.setLineWidth(1);
+        gc.strokeOval(x - radius, y - radius, 2 * radius, 2 * radius);
+
+        String label = labels.apply(row);
+        double textX = x + radius + 4;
+        double textWidth = label.length() * 7 + 6;
+        gc.setFill(Color.rgb(255, 255, 255, 0.85));
+        gc.fillRect(textX - 3, y - 9, textWidth, 18);
+        gc.setFill(Color.BLACK);
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.fillText(label, textX, y);
+    }
+
+    private void drawCaptions(GraphicsContext gc, double width, double height, int visible) {
+        gc.setFill(Color.BLACK);
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.TOP);
+        gc.setFont(Font.font(16));
+        gc.fillText(title, width / 2, 8);
+        gc.setFont(Font.font(12));
+        gc.setTextBaseline(VPos.BOTTOM);
+        gc.fillText(xLabel, width / 2, height - 6);
+        gc.save();
+        gc.translate(14, height / 2);
+        gc.rotate(-90);
+        gc.setTextBaseline(VPos.CENTER);
+        gc.fillText(yLabel, 0, 0);
+        gc.restore();
+
+        gc.setTextAlign(TextAlignment.RIGHT);
+        gc.setTextBaseline(VPos.BOTTOM);
+        gc.setFill(Color.gray(0.4));
+        gc.fillText(String.format("%,d of %,d points in view%s", visible, points.size(),
+                visible > DETAIL_POINTS ? " (density)" : ""), width - 8, height - 6);
+    }
+}
@@ -6,6 +6,9 @@ import javafx.scene.layout.VBox;
 
 public class TerminalConsole {
 
+    /** Oldest lines are cut once the console holds more text than this. */
+    private static final int MAX_CHARS = 1 << 20;
+
     private TextArea console;
 
     public TerminalConsole() {
@@ -17,7 +20,20 @@ public class TerminalConsole {
     }
 
     public void appendText(String text) {
-        console.appendText(text + "\n");
+        appendLines(text + "\n");
+    }
+
+    /**
+     * Appends a block of newline-terminated lines in one update.
+     */
+    public void appendLines(String lines) {
+        console.appendText(lines);
+        int excess = console.getLength() - MAX_CHARS;
+        if (excess > 0) {
+            String text = console.getText();
+            int cut = text.indexOf('\n', excess);
+            console.deleteText(0, cut < 0 ? text.length() : cut + 1);
+        }
     }
 
     public TextArea getConsole() {
@@ -3,9 +3,23 @@ package com.wordVectorRetrofit.util;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 
+/**
+ * Modal message dialogs. Until {@link #setDialogsEnabled} is called by the JavaFX application the
+ * messages are only logged, so services that report through here also run headless.
+ */
 public class AlertUtil {
 
+    private static volatile boolean dialogsEnabled = false;
+
+    public static void setDialogsEnabled(boolean enabled) {
+        dialogsEnabled = enabled;
+    }
+
     public static void showError(String title, String message) {
+        if (!dialogsEnabled) {
+            LoggerUtil.error(title + ": " + message);
+            return;
+        }
         Alert alert = new Alert(AlertType.ERROR);
         alert.setTitle(title);
         alert.setHeaderText(null);
@@ -14,6 +28,10 @@ public class AlertUtil {
     }
 
     public static void showInfo(String title, String message) {
+        if (!dialogsEnabled) {
+            LoggerUtil.info(title + ": " + message);
+            return;
+        }
         Alert alert = new Alert(AlertType.INFORMATION);
         alert.setTitle(title);
         alert.setHeaderText(null);
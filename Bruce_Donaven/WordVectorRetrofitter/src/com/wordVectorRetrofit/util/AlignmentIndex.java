@@ -0,0 +1,269 @@
+package com.wordVectorRetrofit.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+/**
+ * Cosine similarity between each word's original and retrofitted vector, sorted from most to least
+ * similar, with prefix sums. The words passing any threshold are a prefix of the order, so their
+ * count and average similarity take a binary search and the best words are read off the front.
+ */
+public class AlignmentIndex {
+
+    private static final int BLOCK_ROWS = 256;
+
+    private final VectorStore original;
+    /** Original rows, most similar first. */
+    private final int[] rows;
+    /** Similarity of {@code rows[i]}, non-increasing. */
+    private final double[] similarities;
+    /** {@code prefixSums[i]} is the sum of the first {@code i} similarities. */
+    private final double[] prefixSums;
+
+    private AlignmentIndex(VectorStore original, int[] rows, double[] similarities) {
+        this.original = original;
+        this.rows = rows;
+        this.similarities = similarities;
+        this.prefixSums = new double[similarities.length + 1];
+        for (int i = 0; i < similarities.length; i++) {
+            prefixSums[i + 1] = prefixSums[i] + similarities[i];
+        }
+    }
+
+    /**
+     * Computes the similarity of every original word that also has a retrofitted vector, in parallel.
+     * If {@code retrofitted} is an out-of-core overlay of {@code original}, only its replaced rows
+     * are read and every other word gets similarity 1.
+     */
+    public static AlignmentIndex build(VectorStore original, VectorStore retrofitted) {
+        return build(original, retrofitted, () -> false);
+    }
+
+    /**
+     * Like {@link #build(VectorStore, VectorStore)}, polling {@code cancelled} before every block.
+     *
+     * @throws CancellationException If {@code cancelled} returned true.
+     */
+    public static AlignmentIndex build(VectorStore original, VectorStore retrofitted, BooleanSupplier cancelled) {
+        int[] replaced = retrofitted.rowsReplacedOver(original);
+        if (replaced != null) {
+            return buildOverlay(original, retrofitted, replaced, cancelled);
+        }
+        int size = original.size();
+        int dimension = original.dimension();
+        double[] similarity = new double[size];
+        boolean[] present = new boolean[size];
+        int blocks = (size + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+            int first = block * BLOCK_ROWS;
+            int count = Math.min(BLOCK_ROWS, size - first);
+            double[] originalBlock = new double[count * dimension];
+            double[] retrofittedVector = new double[dimension];
+            original.readRows(first, count, originalBlock, 0);
+            for (int i = 0; i < count; i++) {
+                int row = first + i;
+                String word = original.word(row);
+                // Retrofitted stores keep the original row order; look the word up only if they do not.
+                int retrofittedRow = row < retrofitted.size() && retrofitted.word(row).equals(word)
+                        ? row : retrofitted.indexOf(word);
+                if (retrofittedRow >= 0) {
+                    retrofitted.readRow(retrofittedRow, retrofittedVector);
+                    similarity[row] = VectorKernels.cosine(originalBlock, i * dimension, retrofittedVector, 0, dimension);
+                    present[row] = true;
+                }
+            }
+        });
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("Building the alignment index was cancelled");
+        }
+
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (present[row]) {
+                count++;
+            }
+        }
+        long[] keys = new long[count];
+        int[] rows = new int[count];
+        count = 0;
+        for (int row = 0; row < size; row++) {
+            if (present[row]) {
+                keys[count] = descendingKey(similarity[row]);
+                rows[count++] = row;
+            }
+        }
+        sortByKey(keys, rows);
+        double[] sorted = new double[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = similarity[rows[i]];
+        }
+        return new AlignmentIndex(original, rows, sorted);
+    }
+
+    /**
+     * Index of an overlay of {@code original}: only the {@code replaced} rows are read, so a mapped
+     * vocabulary is not paged in, and every other row is identical to its original, at similarity 1.
+     */
+    private static AlignmentIndex buildOverlay(VectorStore original, VectorStore retrofitted, int[] replaced,
+                                               BooleanSupplier cancelled) {
+        int size = original.size();
+        int dimension = original.dimension();
+        int changed = replaced.length;
+        double[] similarity = new double[changed];
+        int blocks = (changed + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+            double[] originalVector = new double[dimension];
+            double[] retrofittedVector = new double[dimension];
+            int end = Math.min(changed, (block + 1) * BLOCK_ROWS);
+            for (int i = block * BLOCK_ROWS; i < end; i++) {
+                original.readRow(replaced[i], originalVector);
+                retrofitted.readRow(replaced[i], retrofittedVector);
+                similarity[i] = VectorKernels.cosine(originalVector, 0, retrofittedVector, 0, dimension);
+            }
+        });
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("Building the alignment index was cancelled");
+        }
+
+        long[] keys = new long[changed];
+        int[] order = new int[changed];
+        for (int i = 0; i < changed; i++) {
+            keys[i] = descendingKey(similarity[i]);
+            order[i] = i;
+        }
+        sortByKey(keys, order);
+
+        // Merge the sorted replaced rows with the untouched rows, one ascending run at similarity 1.
+        int[] rows = new int[size];
+        double[] sorted = new double[size];
+        int next = 0;
+        int untouched = 0;
+        int skip = 0;
+        for (int i = 0; i <= changed; i++) {
+            double value = i < changed ? similarity[order[i]] : Double.NEGATIVE_INFINITY;
+            int row = i < changed ? replaced[order[i]] : size;
+            while (value < 1.0 || (value == 1.0 && row > untouched)) {
+                while (skip < changed && replaced[skip] < untouched) {
+                    skip++;
+                }
+                if (untouched >= size) {
+                    break;
+                }
+                if (skip < changed && replaced[skip] == untouched) {
+                    untouched++;
+                    continue;
+                }
+                rows[next] = untouched++;
+                sorted[next++] = 1.0;
+            }
+            if (i < changed) {
+                rows[next] = row;
+                sorted[next++] = value;
+            }
+        }
+        return new AlignmentIndex(original, rows, sorted);
+    }
+
+    /** A long that orders like the similarity, highest first, for every finite double. */
+    static long descendingKey(double similarity) {
+        long bits = Double.doubleToLongBits(-(similarity + 0.0));
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    /**
+     * Sorts {@code rows} by {@code keys}, ascending, moving both together. The merge sort is stable,
+     * so rows with equal keys keep their ascending order, and it stays O(n log n) however many rows
+     * share a similarity, as the rows retrofitting left alone all do.
+     */
+    static void sortByKey(long[] keys, int[] rows) {
+        int n = keys.length;
+        long[] sourceKeys = keys;
+        int[] sourceRows = rows;
+        long[] targetKeys = new long[n];
+        int[] targetRows = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int low = 0; low < n; low += 2 * width) {
+                int middle = Math.min(low + width, n);
+                int high = Math.min(low + 2 * width, n);
+                int i = low;
+                int j = middle;
+                for (int k = low; k < high; k++) {
+                    if (j >= high || (i < middle && sourceKeys[i] <= sourceKeys[j])) {
+                        targetKeys[k] = sourceKeys[i];
+                        targetRows[k] = sourceRows[i++];
+                    } else {
+                        targetKeys[k] = sourceKeys[j];
+                        targetRows[k] = sourceRows[j++];
+                    }
+                }
+            }
+            long[] swapKeys = sourceKeys;
+            sourceKeys = targetKeys;
+            targetKeys = swapKeys;
+            int[] swapRows = sourceRows;
+            sourceRows = targetRows;
+            targetRows = swapRows;
+        }
+        if (sourceKeys != keys) {
+            System.arraycopy(sourceKeys, 0, keys, 0, n);
+            System.arraycopy(sourceRows, 0, rows, 0, n);
+        }
+    }
+
+    /** Number of words with both an original and a retrofitted vector. */
+    public int size() {
+        return rows.length;
+    }
+
+    /** Number of words whose similarity is at least {@code threshold}. */
+    public int countAtLeast(double threshold) {
+        int low = 0;
+        int high = similarities.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (similarities[mid] >= threshold) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Average similarity of the words passing {@code threshold}, or NaN if none does. */
+    public double averageAtLeast(double threshold) {
+        int count = countAtLeast(threshold);
+        return count == 0 ? Double.NaN : prefixSums[count] / count;
+    }
+
+    /** Words passing {@code threshold}, in row order. */
+    public List<String> wordsAtLeast(double threshold) {
+        int[] passing = Arrays.copyOf(rows, countAtLeast(threshold));
+        Arrays.sort(passing);
+        List<String> words = new ArrayList<>(passing.length);
+        for (int row : passing) {
+            words.add(original.word(row));
+        }
+        return words;
+    }
+
+    /** The {@code n} most similar words, most similar first. */
+    public List<Neighbor> top(int n) {
+        int count = Math.min(Math.max(n, 0), rows.length);
+        List<Neighbor> top = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            top.add(new Neighbor(original.word(rows[i]), rows[i], similarities[i]));
+        }
+        return top;
+    }
+}
@@ -0,0 +1,329 @@
+package com.wordVectorRetrofit.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * Versioned binary word vector format ({@value #EXTENSION}). All values are little-endian.
+ *
+ * <pre>
+ * offset  0  int    magic "WVEC"
+ *         4  int    format version
+ *         8  int    dtype of the matrix values ({@link Precision#code()})
+ *        12  int    flags (bit 0: rows are L2-normalized)
+ *        16  int    vocabulary size
+ *        20  int    dimension
+ *        24  long   offset of the vocabulary block
+ *        32  long   offset of the matrix block (aligned to 64 bytes)
+ * vocabulary: per word an int byte length followed by its UTF-8 bytes, in row order
+ * matrix:     vocabulary size rows of {@link Precision#rowBytes(int)} bytes each, row-major
+ * </pre>
+ */
+public class BinaryVectorFormat {
+    private static final Logger LOGGER = Logger.getLogger(BinaryVectorFormat.class.getName());
+
+    public static final String EXTENSION = ".wvb";
+
+    static final int MAGIC = 0x43455657; // "WVEC" read as a little-endian int
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int MATRIX_ALIGNMENT = 64;
+    static final int FLAG_NORMALIZED = 1;
+
+    private static final int BUFFER_BYTES = 4 << 20;
+
+    public static boolean isBinary(String filename) {
+        return filename.endsWith(EXTENSION);
+    }
+
+    /**
+     * Writes a store in the binary format, keeping the store's storage precision.
+     *
+     * @param vectors        Store to write.
+     * @param outputFileName Path to the output file.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void write(VectorStore vectors, String outputFileName) throws IOException {
+        LOGGER.info("Writing binary word vectors to: " + outputFileName);
+        Path path = Paths.get(outputFileName);
+        int dimension = vectors.dimension();
+        Precision precision = vectors.precision();
+        int rowBytes = precision.rowBytes(dimension);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_BYTES, rowBytes))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(HEADER_BYTES);
+            long matrixOffset = writeVocabulary(channel, buffer, vectors.vocabulary());
+
+            // Rows already encoded in the store's precision (heap, mapped and untouched overlay rows)
+            // are copied as bytes; anything else is decoded and encoded again.
+            double[] vector = new double[dimension];
+            int size = vectors.size();
+            for (int row = 0; row < size; ) {
+                if (buffer.remaining() < rowBytes) {
+                    flush(channel, buffer);
+                }
+                int rows = Math.min(size - row, buffer.remaining() / rowBytes);
+                if (!vectors.copyEncodedRows(row, rows, buffer)) {
+                    for (int i = 0; i < rows; i++) {
+                        vectors.readRow(row + i, vector);
+                        precision.encode(vector, 0, dimension, buffer, buffer.position());
+                        buffer.position(buffer.position() + rowBytes);
+                    }
+                }
+                row += rows;
+            }
+            flush(channel, buffer);
+            writeHeader(channel, precision, vectors.isNormalized(), vectors.size(), dimension, matrixOffset);
+        }
+        LOGGER.info("Completed writing binary word vectors. Total words written: " + vectors.size());
+    }
+
+    /**
+     * Writes the vocabulary block at the channel's position, padded up to the matrix alignment.
+     *
+     * @return The offset of the matrix block, where the channel is left.
+     */
+    private static long writeVocabulary(FileChannel channel, ByteBuffer buffer, Vocabulary vocabulary) throws IOException {
+        for (int row = 0; row < vocabulary.size(); row++) {
+            byte[] bytes = vocabulary.word(row).getBytes(StandardCharsets.UTF_8);
+            if (buffer.remaining() < Integer.BYTES + bytes.length) {
+                flush(channel, buffer);
+            }
+            if (buffer.remaining() < Integer.BYTES + bytes.length) {
+                throw new IOException("Word at row " + row + " is too long to write: " + bytes.length + " bytes");
+            }
+            buffer.putInt(bytes.length).put(bytes);
+        }
+        flush(channel, buffer);
+
+        long matrixOffset = align(channel.position(), MATRIX_ALIGNMENT);
+        buffer.put(new byte[(int) (matrixOffset - channel.position())]);
+        flush(channel, buffer);
+        return matrixOffset;
+    }
+
+    /** Writes the header last, so a file cut short by a failure never has a valid one. */
+    private static void writeHeader(FileChannel channel, Precision precision, boolean normalized, int size, int dimension,
+                                    long matrixOffset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(precision.code())
+                .putInt(normalized ? FLAG_NORMALIZED : 0)
+                .putInt(size)
+                .putInt(dimension)
+                .putLong(HEADER_BYTES)
+                .putLong(matrixOffset);
+        header.clear();
+        channel.write(header, 0);
+    }
+
+    /**
+     * Writes a binary file from rows as they arrive, without holding the matrix. The vocabulary
+     * block precedes the matrix and its size is only known at the end, so the encoded rows go to a
+     * temporary file next to the output; {@link #finish} then writes the vocabulary, appends the
+     * rows and writes the header with the final word count. A word put again keeps its first row
+     * and takes the new vector, as in {@link VectorStore#put}.
+     */
+    static final class Writer implements VectorFileParser.RowSink, Closeable {
+        private final Path path;
+        private final Precision precision;
+        private Vocabulary vocabulary = new Vocabulary();
+        private int dimension;
+        private int rowBytes;
+        private Path rowsPath;
+        private FileChannel rows;
+        private ByteBuffer buffer;
+        /** Rows already in the temporary file; the later ones are still in {@link #buffer}. */
+        private int flushedRows;
+        private double maxAbsValue;
+
+        Writer(String outputFileName, Precision precision) {
+            this.path = Paths.get(outputFileName);
+            this.precision = precision;
+        }
+
+        @Override
+        public void begin(int dimension, int expectedRows) throws IOException {
+            this.dimension = dimension;
+            this.rowBytes = precision.rowBytes(dimension);
+            this.vocabulary = new Vocabulary(expectedRows);
+            this.rowsPath = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".rows");
+            this.rows = FileChannel.open(rowsPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_BYTES, rowBytes)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        public void put(String word, double[] source, int offset) throws IOException {
+            for (int i = 0; i < dimension; i++) {
+                maxAbsValue = Math.max(maxAbsValue, Math.abs(source[offset + i]));
+            }
+            int size = vocabulary.size();
+            int row = vocabulary.intern(word);
+            if (row < flushedRows) {
+                ByteBuffer encoded = ByteBuffer.allocate(rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+                precision.encode(source, offset, dimension, encoded, 0);
+                while (encoded.hasRemaining()) {
+                    rows.write(encoded, (long) row * rowBytes + encoded.position());
+                }
+            } else if (row < size) {
+                precision.encode(source, offset, dimension, buffer, (row - flushedRows) * rowBytes);
+            } else {
+                if (buffer.remaining() < rowBytes) {
+                    flush(rows, buffer);
+                    flushedRows = row;
+                }
+                precision.encode(source, offset, dimension, buffer, buffer.position());
+                buffer.position(buffer.position() + rowBytes);
+            }
+        }
+
+        /**
+         * Writes the output file from the rows put so far.
+         *
+         * @param normalized Whether every row is L2-normalized.
+         */
+        void finish(boolean normalized) throws IOException {
+            long matrixBytes = (long) vocabulary.size() * rowBytes;
+            if (rows != null) {
+                flush(rows, buffer);
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                channel.position(HEADER_BYTES);
+                long matrixOffset = writeVocabulary(channel, out, vocabulary);
+                for (long copied = 0; copied < matrixBytes; ) {
+                    copied += rows.transferTo(copied, matrixBytes - copied, channel);
+                }
+                // An empty file keeps the dimension of an empty store.
+                writeHeader(channel, precision, normalized, vocabulary.size(), Math.max(dimension, 1), matrixOffset);
+            }
+            String report = String.format("Completed writing %d %s word vectors of dimension %d to %s",
+                    vocabulary.size(), precision, dimension, path);
+            if (precision.isLossy() && maxAbsValue > 0) {
+                report += String.format(" (max abs error bound %.3g)", precision.errorBound(maxAbsValue));
+            }
+            LOGGER.info(report);
+        }
+
+        /** Deletes the temporary file; the output is complete only if {@link #finish} returned. */
+        @Override
+        public void close() throws IOException {
+            if (rows != null) {
+                rows.close();
+                rows = null;
+                Files.deleteIfExists(rowsPath);
+            }
+        }
+    }
+
+    /**
+     * Opens a binary vector file. The vocabulary is decoded onto the heap; the matrix stays
+     * memory-mapped and read-only.
+     *
+     * @param filename Path to the binary vector file.
+     * @return Store backed by the mapped file.
+     * @throws IOException If the file cannot be read or is not in the expected format.
+     */
+    public static VectorStore map(String filename) throws IOException {
+        LOGGER.info("Mapping binary word vectors from: " + filename);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Not a binary vector file (too short): " + filename);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a binary vector file (bad magic): " + filename);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary vector format version " + version + " in " + filename);
+            }
+            int dtype = header.getInt();
+            Precision precision;
+            try {
+                precision = Precision.fromCode(dtype);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unsupported value type " + dtype + " in " + filename);
+            }
+            int flags = header.getInt();
+            int size = header.getInt();
+            int dimension = header.getInt();
+            long vocabularyOffset = header.getLong();
+            long matrixOffset = header.getLong();
+
+            if (dimension <= 0 || (long) dimension * Double.BYTES > Integer.MAX_VALUE - Float.BYTES) {
+                throw new IOException("Corrupt binary vector header (dimension " + dimension + ") in " + filename);
+            }
+            if (size < 0) {
+                throw new IOException("Corrupt binary vector header (vocabulary size " + size + ") in " + filename);
+            }
+            long fileSize = channel.size();
+            long matrixBytes = (long) size * precision.rowBytes(dimension);
+            if (vocabularyOffset < HEADER_BYTES || matrixOffset < vocabularyOffset || matrixOffset > fileSize
+                    || matrixBytes > fileSize - matrixOffset) {
+                throw new IOException(String.format("Corrupt binary vector header (vocabulary at %d, %d matrix bytes at %d) "
+                        + "in %s of %d bytes", vocabularyOffset, matrixBytes, matrixOffset, filename, fileSize));
+            }
+            if (matrixOffset - vocabularyOffset > Integer.MAX_VALUE
+                    || matrixOffset - vocabularyOffset < (long) size * Integer.BYTES) {
+                throw new IOException("Corrupt binary vector header (vocabulary block of "
+                        + (matrixOffset - vocabularyOffset) + " bytes for " + size + " words) in " + filename);
+            }
+
+            ByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, vocabularyOffset, matrixOffset - vocabularyOffset)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            Vocabulary vocabulary = new Vocabulary(size);
+            byte[] bytes = new byte[64];
+            for (int row = 0; row < size; row++) {
+                if (block.remaining() < Integer.BYTES) {
+                    throw new IOException("Vocabulary ends before row " + row + " of " + size + " in " + filename);
+                }
+                int length = block.getInt();
+                if (length < 0 || length > block.remaining()) {
+                    throw new IOException("Corrupt word length " + length + " at row " + row + " in " + filename);
+                }
+                if (bytes.length < length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                block.get(bytes, 0, length);
+                String word = new String(bytes, 0, length, StandardCharsets.UTF_8);
+                if (vocabulary.intern(word) != row) {
+                    throw new IOException("Duplicate word '" + word + "' at row " + row + " in " + filename);
+                }
+            }
+
+            VectorMatrix matrix = MappedMatrix.map(channel, matrixOffset, size, dimension, precision);
+            LOGGER.info("Mapped " + size + " " + precision + " word vectors of dimension " + dimension + " from " + filename);
+            return new VectorStore(vocabulary, matrix, (flags & FLAG_NORMALIZED) != 0);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static long align(long position, int alignment) {
+        return (position + alignment - 1) / alignment * alignment;
+    }
+}
@@ -0,0 +1,227 @@
+package com.wordVectorRetrofit.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * Cosine similarity of every edge of a {@link NeighborGraph}, and how retrofitting changed it.
+ *
+ * Similarities are kept in a primitive array indexed like the graph's edges, so the pre- and
+ * post-retrofit values of an edge sit at the same index and never go through word keys. Nodes are
+ * processed in parallel blocks; each node row is read once for all its edges. Norms are taken from
+ * the rows as they are read, so only the rows of the graph are ever touched, which keeps a mapped
+ * store from being paged in whole; stores whose rows are unit length skip them.
+ */
+public final class EdgeSimilarities {
+
+    private static final int BLOCK_NODES = 256;
+    private static final double[] QUANTILES = {0.05, 0.25, 0.5, 0.75, 0.95};
+    private static final int BINS = 20;
+    private static final int EXTREMES = 3;
+
+    private EdgeSimilarities() {
+    }
+
+    /**
+     * Returns the cosine similarity of each edge, indexed like {@link NeighborGraph#neighborRow}.
+     * The rows of the store must line up with the rows the graph was built against.
+     */
+    public static double[] compute(NeighborGraph graph, VectorStore vectors) {
+        boolean normalized = vectors.isNormalized();
+        int dimension = vectors.dimension();
+        double[] similarities = new double[graph.edgeCount()];
+        int blocks = (graph.nodeCount() + BLOCK_NODES - 1) / BLOCK_NODES;
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+            double[] nodeVector = new double[dimension];
+            double[] neighborVector = new double[dimension];
+            int end = Math.min(graph.nodeCount(), (block + 1) * BLOCK_NODES);
+            for (int node = block * BLOCK_NODES; node < end; node++) {
+                int first = graph.firstEdge(node);
+                int last = graph.firstEdge(node + 1);
+                if (first == last) {
+                    continue;
+                }
+                vectors.readRow(graph.row(node), nodeVector);
+                double nodeScale = normalized ? 1.0 : inverseNorm(nodeVector);
+                for (int edge = first; edge < last; edge++) {
+                    vectors.readRow(graph.neighborRow(edge), neighborVector);
+                    double dot = VectorKernels.dot(nodeVector, 0, neighborVector, 0, dimension);
+                    similarities[edge] = normalized ? dot : dot * nodeScale * inverseNorm(neighborVector);
+                }
+            }
+        });
+        return similarities;
+    }
+
+    /** Same scale as {@link ExactNearestNeighbors} uses, so both agree on every similarity. */
+    private static double inverseNorm(double[] vector) {
+        return 1.0 / (Math.sqrt(VectorKernels.dot(vector, 0, vector, 0, vector.length)) + 1e-10);
+    }
+
+    /**
+     * Summarizes the change from {@code pre} to {@code post}, both indexed like the graph's edges.
+     */
+    public static Summary summarize(NeighborGraph graph, double[] pre, double[] post) {
+        if (pre.length != graph.edgeCount() || post.length != graph.edgeCount()) {
+            throw new IllegalArgumentException("Expected " + graph.edgeCount() + " similarities, got "
+                    + pre.length + " and " + post.length);
+        }
+        return new Summary(graph, pre, post);
+    }
+
+    public static final class Summary {
+        private final int edges;
+        private final double meanPre;
+        private final double meanPost;
+        private final double meanAbsoluteDelta;
+        private final double increasedFraction;
+        private final double[] preQuantiles;
+        private final double[] postQuantiles;
+        private final double[] deltaQuantiles;
+        private final int[] preHistogram = new int[BINS];
+        private final int[] postHistogram = new int[BINS];
+        private final List<String> largestGains = new ArrayList<>();
+        private final List<String> largestLosses = new ArrayList<>();
+
+        private Summary(NeighborGraph graph, double[] pre, double[] post) {
+            edges = pre.length;
+            double[] delta = new double[edges];
+            double sumPre = 0;
+            double sumPost = 0;
+            double sumAbsolute = 0;
+            int increased = 0;
+            TopK gains = new TopK(EXTREMES);
+            TopK losses = new TopK(EXTREMES);
+            for (int edge = 0; edge < edges; edge++) {
+                delta[edge] = post[edge] - pre[edge];
+                sumPre += pre[edge];
+                sumPost += post[edge];
+                sumAbsolute += Math.abs(delta[edge]);
+                preHistogram[bin(pre[edge])]++;
+                postHistogram[bin(post[edge])]++;
+                // Unchanged edges are neither; the lists are shorter than EXTREMES if few edges moved.
+                if (delta[edge] > 0) {
+                    increased++;
+                    gains.offer(edge, delta[edge]);
+                } else if (delta[edge] < 0) {
+                    losses.offer(edge, -delta[edge]);
+                }
+            }
+            int n = Math.max(edges, 1);
+            meanPre = sumPre / n;
+            meanPost = sumPost / n;
+            meanAbsoluteDelta = sumAbsolute / n;
+            increasedFraction = (double) increased / n;
+            preQuantiles = quantiles(pre);
+            postQuantiles = quantiles(post);
+            deltaQuantiles = quantiles(delta);
+            describe(graph, gains, pre, post, largestGains);
+            describe(graph, losses, pre, post, largestLosses);
+        }
+
+        public int edges() {
+            return edges;
+        }
+
+        public double meanPre() {
+            return meanPre;
+        }
+
+        public double meanPost() {
+            return meanPost;
+        }
+
+        public double meanDelta() {
+            return meanPost - meanPre;
+        }
+
+        public double meanAbsoluteDelta() {
+            return meanAbsoluteDelta;
+        }
+
+        /** Fraction of edges whose similarity went up. */
+        public double increasedFraction() {
+            return increasedFraction;
+        }
+
+        /** Edge counts per similarity bin of width 0.1 from -1 to 1, before retrofitting. */
+        public int[] preHistogram() {
+            return preHistogram.clone();
+        }
+
+        public int[] postHistogram() {
+            return postHistogram.clone();
+        }
+
+        /**
+         * One line per statistic, for the log.
+         */
+        public List<String> reportLines() {
+            List<String> lines = new ArrayList<>();
+            lines.add(String.format(Locale.ROOT,
+                    "Edge similarities over %d edges: mean %.4f -> %.4f (delta %+.4f, mean |delta| %.4f), %.1f%% increased",
+                    edges, meanPre, meanPost, meanDelta(), meanAbsoluteDelta, increasedFraction * 100));
+            lines.add("Quantiles " + quantileHeader() + " pre:   " + format(preQuantiles));
+            lines.add("Quantiles " + quantileHeader() + " post:  " + format(postQuantiles));
+            lines.add("Quantiles " + quantileHeader() + " delta: " + format(deltaQuantiles));
+            lines.add("Histogram [-1, 1] in steps of 0.1, pre:  " + Arrays.toString(preHistogram));
+            lines.add("Histogram [-1, 1] in steps of 0.1, post: " + Arrays.toString(postHistogram));
+            if (!largestGains.isEmpty()) {
+                lines.add("Largest gains: " + String.join(", ", largestGains));
+            }
+            if (!largestLosses.isEmpty()) {
+                lines.add("Largest losses: " + String.join(", ", largestLosses));
+            }
+            return lines;
+        }
+
+        private static int bin(double similarity) {
+            int bin = (int) Math.floor((similarity + 1.0) / 2.0 * BINS);
+            return Math.max(0, Math.min(BINS - 1, bin));
+        }
+
+        private static double[] quantiles(double[] values) {
+            double[] quantiles = new double[QUANTILES.length];
+            if (values.length == 0) {
+                Arrays.fill(quantiles, Double.NaN);
+                return quantiles;
+            }
+            double[] sorted = values.clone();
+            Arrays.parallelSort(sorted);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                quantiles[i] = sorted[(int) Math.round(QUANTILES[i] * (sorted.length - 1))];
+            }
+            return quantiles;
+        }
+
+        private static void describe(NeighborGraph graph, TopK extremes, double[] pre, double[] post, List<String> out) {
+            int[] edges = new int[extremes.size()];
+            extremes.drainSorted(edges, new double[edges.length]);
+            Vocabulary vocabulary = graph.vocabulary();
+            for (int edge : edges) {
+                out.add(String.format(Locale.ROOT, "%s->%s %.3f -> %.3f",
+                        vocabulary.word(graph.row(graph.nodeOfEdge(edge))), vocabulary.word(graph.neighborRow(edge)),
+                        pre[edge], post[edge]));
+            }
+        }
+
+        private static String quantileHeader() {
+            StringBuilder header = new StringBuilder("(");
+            for (int i = 0; i < QUANTILES.length; i++) {
+                header.append(i == 0 ? "p" : "/p").append(Math.round(QUANTILES[i] * 100));
+            }
+            return header.append(")").toString();
+        }
+
+        private static String format(double[] values) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < values.length; i++) {
+                text.append(i == 0 ? "" : " ").append(String.format(Locale.ROOT, "%.4f", values[i]));
+            }
+            return text.toString();
+        }
+    }
+}
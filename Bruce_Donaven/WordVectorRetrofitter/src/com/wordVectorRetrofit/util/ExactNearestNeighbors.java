@@ -0,0 +1,167 @@
+package com.wordVectorRetrofit.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Exact cosine nearest neighbors by brute force over every row of a {@link VectorStore}.
+ *
+ * The rows are split into contiguous ranges scanned in parallel. Each range decodes blocks of rows
+ * into a double buffer, scores a whole block with {@link VectorKernels#dotBatch} and keeps its own
+ * bounded heap; the heaps are merged at the end. Stores loaded from text are already L2-normalized,
+ * so the score is just the dot product with the normalized query. For other stores (retrofitted
+ * vectors) the inverse row norms are computed once when the search is created.
+ */
+public class ExactNearestNeighbors {
+
+    private static final int BLOCK_ROWS = 256;
+
+    private final VectorStore vectors;
+    private final double[] inverseNorms;
+
+    public ExactNearestNeighbors(VectorStore vectors) {
+        this.vectors = vectors;
+        this.inverseNorms = inverseNorms(vectors);
+    }
+
+    /**
+     * Returns 1 / L2 norm of every row, or null if the store's rows are already normalized.
+     */
+    static double[] inverseNorms(VectorStore vectors) {
+        if (vectors.isNormalized()) {
+            return null;
+        }
+        int dimension = vectors.dimension();
+        double[] norms = new double[vectors.size()];
+        double[] block = new double[BLOCK_ROWS * dimension];
+        for (int first = 0; first < norms.length; first += BLOCK_ROWS) {
+            int count = Math.min(BLOCK_ROWS, norms.length - first);
+            vectors.readRows(first, count, block, 0);
+            for (int i = 0; i < count; i++) {
+                double norm = Math.sqrt(VectorKernels.dot(block, i * dimension, block, i * dimension, dimension));
+                norms[first + i] = 1.0 / (norm + 1e-10);
+            }
+        }
+        return norms;
+    }
+
+    public VectorStore vectors() {
+        return vectors;
+    }
+
+    /**
+     * Returns the {@code k} words closest to the word, excluding the word itself, or an empty list
+     * if the word has no vector.
+     */
+    public List<Neighbor> nearest(String word, int k) {
+        int row = vectors.indexOf(word);
+        if (row < 0) {
+            return new ArrayList<>();
+        }
+        return nearest(vectors.getRow(row), k, row);
+    }
+
+    public List<Neighbor> nearest(double[] query, int k) {
+        return nearest(query, k, -1);
+    }
+
+    /**
+     * Returns the {@code k} rows with the highest cosine similarity to {@code query}, best first.
+     * Ties go to the lower row, so results do not depend on the number of threads.
+     *
+     * @param excludeRow Row to leave out of the results, or -1.
+     */
+    public List<Neighbor> nearest(double[] query, int k, int excludeRow) {
+        return nearest(new double[][] { query }, new int[] { k }, new int[] { excludeRow }).get(0);
+    }
+
+    /**
+     * Answers several queries with a single pass over the rows: each block of rows is read and
+     * decoded once and then scored against every query while it is in cache. That shares the
+     * memory traffic and decoding between the queries, but the dot products are still computed
+     * per query, so a batch costs more than one query and less than querying one at a time.
+     * Results are the same as querying one at a time.
+     *
+     * @param queries     Query vectors.
+     * @param k           Per query, the number of neighbors to return.
+     * @param excludeRows Per query, a row to leave out of the results, or -1.
+     */
+    public List<List<Neighbor>> nearest(double[][] queries, int[] k, int[] excludeRows) {
+        int dimension = vectors.dimension();
+        int size = vectors.size();
+        double[][] unitQueries = new double[queries.length][];
+        int[] wanted = new int[queries.length];
+        for (int q = 0; q < queries.length; q++) {
+            if (queries[q].length != dimension) {
+                throw new IllegalArgumentException("Query has " + queries[q].length + " values, expected " + dimension);
+            }
+            unitQueries[q] = VectorProcessor.normalize(queries[q]);
+            wanted[q] = k[q] <= 0 ? 0 : excludeRows[q] >= 0 ? k[q] + 1 : k[q];
+        }
+
+        TopK[] best;
+        if (size == 0) {
+            best = new TopK[queries.length];
+            for (int q = 0; q < queries.length; q++) {
+                best[q] = new TopK(0);
+            }
+        } else {
+            int blocks = (size + BLOCK_ROWS - 1) / BLOCK_ROWS;
+            int ranges = Math.min(blocks, Runtime.getRuntime().availableProcessors() * 4);
+            best = IntStream.range(0, ranges).parallel()
+                    .mapToObj(range -> scan(unitQueries, wanted,
+                            (int) ((long) blocks * range / ranges) * BLOCK_ROWS,
+                            Math.min(size, (int) ((long) blocks * (range + 1) / ranges) * BLOCK_ROWS)))
+                    .reduce((a, b) -> {
+                        for (int q = 0; q < a.length; q++) {
+                            a[q].addAll(b[q]);
+                        }
+                        return a;
+                    })
+                    .get();
+        }
+
+        List<List<Neighbor>> results = new ArrayList<>(queries.length);
+        for (int q = 0; q < queries.length; q++) {
+            int[] rows = new int[best[q].size()];
+            double[] scores = new double[best[q].size()];
+            best[q].drainSorted(rows, scores);
+            List<Neighbor> result = new ArrayList<>(Math.max(k[q], 0));
+            for (int i = 0; i < rows.length && result.size() < k[q]; i++) {
+                if (rows[i] != excludeRows[q]) {
+                    result.add(new Neighbor(vectors.word(rows[i]), rows[i], scores[i]));
+                }
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    private TopK[] scan(double[][] queries, int[] wanted, int from, int to) {
+        int dimension = vectors.dimension();
+        TopK[] top = new TopK[queries.length];
+        for (int q = 0; q < queries.length; q++) {
+            top[q] = new TopK(wanted[q]);
+        }
+        double[] block = new double[BLOCK_ROWS * dimension];
+        double[] scores = new double[BLOCK_ROWS];
+        for (int first = from; first < to; first += BLOCK_ROWS) {
+            int count = Math.min(BLOCK_ROWS, to - first);
+            vectors.readRows(first, count, block, 0);
+            for (int q = 0; q < queries.length; q++) {
+                VectorKernels.dotBatch(queries[q], block, 0, count, dimension, scores, 0);
+                TopK queryTop = top[q];
+                double threshold = queryTop.threshold();
+                for (int i = 0; i < count; i++) {
+                    double score = inverseNorms == null ? scores[i] : scores[i] * inverseNorms[first + i];
+                    if (score >= threshold) {
+                        queryTop.offer(first + i, score);
+                        threshold = queryTop.threshold();
+                    }
+                }
+            }
+        }
+        return top;
+    }
+}
@@ -3,126 +3,143 @@ package com.wordVectorRetrofit.util;
 import java.io.*;
 import java.util.*;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
 
 public class FileOperations {
     private static final Logger LOGGER = Logger.getLogger(FileOperations.class.getName());
 
+    /**
+     * Lowercases a lexicon word; words starting with a digit become {@code ---num---} and words
+     * without letters, digits or underscores {@code ---punc---}.
+     */
     public static String normWord(String word) {
-        if (word.matches("\\d+.*")) {
-            LOGGER.info("Normalizing word '" + word + "' to '---num---'");
-            return "---num---";
-        } else if (word.replaceAll("\\W+", "").isEmpty()) {
-            LOGGER.info("Normalizing word '" + word + "' to '---punc---'");
-            return "---punc---";
-        } else {
-            String normalized = word.toLowerCase();
-            LOGGER.info("Normalizing word '" + word + "' to '" + normalized + "'");
-            return normalized;
-        }
+        return LexiconReader.normWord(word);
     }
 
-    public static Map<String, double[]> readWordVectors(String filename) throws IOException {
+    /**
+     * Reads word vectors. Binary ({@value BinaryVectorFormat#EXTENSION}) files are memory-mapped as is;
+     * whitespace separated text (plain or .gz) is parsed in newline-aligned chunks on all available
+     * cores and every row is L2-normalized.
+     *
+     * @param filename  Path to the vector file.
+     * @param precision Storage precision for parsed text; binary files keep the precision they were written with.
+     * @return Store of lowercased words and their vectors.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static VectorStore readWordVectors(String filename, Precision precision) throws IOException {
         LOGGER.info("Starting to read word vectors from: " + filename);
-        Map<String, double[]> wordVectors = new HashMap<>();
-        try (BufferedReader reader = filename.endsWith(".gz")
-                ? new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(filename))))
-                : new BufferedReader(new FileReader(filename))) {
-
-            String line;
-            int lineCount = 0;
-            while ((line = reader.readLine()) != null) {
-                lineCount++;
-                line = line.trim().toLowerCase();
-                String[] parts = line.split("\\s+");
-                if (parts.length < 2) {
-                    LOGGER.warning("Skipping invalid line " + lineCount + ": " + line);
-                    continue; // Skip invalid lines
-                }
-                String word = parts[0];
-                double[] vector = new double[parts.length - 1];
-                double sumSquares = 0;
-
-                for (int i = 1; i < parts.length; i++) {
-                    try {
-                        vector[i - 1] = Double.parseDouble(parts[i]);
-                        sumSquares += vector[i - 1] * vector[i - 1];
-                    } catch (NumberFormatException e) {
-                        LOGGER.warning("Invalid number format at line " + lineCount + ": " + parts[i]);
-                        vector[i - 1] = 0.0; // Assign zero or handle as needed
-                    }
-                }
-
-                double norm = Math.sqrt(sumSquares + 1e-6);
-                for (int i = 0; i < vector.length; i++) {
-                    vector[i] /= norm;
-                }
-
-                wordVectors.put(word, vector);
-                if (lineCount % 100000 == 0) {
-                    LOGGER.info("Processed " + lineCount + " lines.");
-                }
-            }
+        VectorStore wordVectors = BinaryVectorFormat.isBinary(filename)
+                ? BinaryVectorFormat.map(filename)
+                : new VectorFileParser(filename, precision).read();
+        LOGGER.info("Completed reading word vectors. Total words loaded: " + wordVectors.size());
+        LOGGER.info(wordVectors.precisionReport());
+        return wordVectors;
+    }
 
-            LOGGER.info("Completed reading word vectors. Total words loaded: " + wordVectors.size());
+    /**
+     * Reads only the vectors of the words in {@code filter}, skipping every other row of a text file
+     * before its values are parsed. Binary files are mapped as a whole, since mapping pages in only
+     * the rows that are used anyway.
+     *
+     * @param filename  Path to the vector file.
+     * @param precision Storage precision for parsed text.
+     * @param filter    Words to keep.
+     * @return Store of the kept words and their vectors, in file order.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static VectorStore readWordVectors(String filename, Precision precision, WordFilter filter) throws IOException {
+        if (BinaryVectorFormat.isBinary(filename)) {
+            return readWordVectors(filename, precision);
         }
+        LOGGER.info("Starting to read the vectors of " + filter.size() + " words from: " + filename);
+        VectorStore wordVectors = new VectorFileParser(filename, precision,
+                Runtime.getRuntime().availableProcessors(), filter).read();
+        LOGGER.info("Completed reading word vectors. Total words loaded: " + wordVectors.size());
+        LOGGER.info(wordVectors.precisionReport());
         return wordVectors;
     }
 
+    public static VectorStore readWordVectors(String filename) throws IOException {
+        return readWordVectors(filename, Precision.DEFAULT);
+    }
+
     /**
-     * Writes word vectors to a file.
+     * Writes word vectors to a file, in the binary format if the name ends with
+     * {@value BinaryVectorFormat#EXTENSION} and as whitespace separated text with four decimals
+     * otherwise. Text is gzip-compressed if the name ends with .gz.
      *
-     * @param wordVectors    Map of words to their vector representations.
+     * @param wordVectors    Store of words and their vector representations.
      * @param outputFileName Path to the output file.
      * @throws IOException If an I/O error occurs.
      */
-    public static void writeWordVectors(Map<String, double[]> wordVectors, String outputFileName) throws IOException {
+    public static void writeWordVectors(VectorStore wordVectors, String outputFileName) throws IOException {
+        writeWordVectors(wordVectors, outputFileName, VectorFileWriter.DEFAULT_DECIMALS);
+    }
+
+    /**
+     * Writes word vectors to a file, as text with {@code decimals} digits after the decimal point
+     * unless the name ends with {@value BinaryVectorFormat#EXTENSION}. Rows are encoded on all
+     * available cores and written in order.
+     *
+     * @param wordVectors    Store of words and their vector representations.
+     * @param outputFileName Path to the output file (.gz for compressed text).
+     * @param decimals       Digits after the decimal point, 0 to 15.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void writeWordVectors(VectorStore wordVectors, String outputFileName, int decimals) throws IOException {
+        if (BinaryVectorFormat.isBinary(outputFileName)) {
+            BinaryVectorFormat.write(wordVectors, outputFileName);
+            return;
+        }
         LOGGER.info("Starting to write word vectors to: " + outputFileName);
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFileName))) {
-            int count = 0;
-            for (Map.Entry<String, double[]> entry : wordVectors.entrySet()) {
-                String word = entry.getKey();
-                double[] vector = entry.getValue();
-                StringBuilder sb = new StringBuilder(word);
-                for (double val : vector) {
-                    sb.append(String.format(" %.4f", val));
-                }
-                writer.write(sb.toString());
-                writer.newLine();
-                count++;
-                if (count % 100000 == 0) {
-                    LOGGER.info("Written " + count + " word vectors.");
-                }
-            }
-            LOGGER.info("Completed writing word vectors. Total words written: " + count);
+        new VectorFileWriter(wordVectors, decimals).write(outputFileName);
+        LOGGER.info("Completed writing word vectors. Total words written: " + wordVectors.size());
+    }
+
+    public static void writeWordVectors(Map<String, double[]> wordVectors, String outputFileName) throws IOException {
+        writeWordVectors(VectorStore.fromMap(wordVectors), outputFileName);
+    }
+
+    /**
+     * Converts a whitespace separated text (or .gz) vector file to the binary format. Rows are
+     * written as they are parsed, so the file never has to fit on the heap; only the vocabulary does.
+     *
+     * @param inputFileName  Path to the text vector file.
+     * @param outputFileName Path to the binary output file.
+     * @param precision      Precision of the values in the binary file.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void convertToBinary(String inputFileName, String outputFileName, Precision precision) throws IOException {
+        LOGGER.info("Converting " + inputFileName + " to " + precision + " binary format: " + outputFileName);
+        try (BinaryVectorFormat.Writer writer = new BinaryVectorFormat.Writer(outputFileName, precision)) {
+            new VectorFileParser(inputFileName, precision).readInto(writer);
+            writer.finish(true); // the parser L2-normalizes every row
         }
     }
 
+    /**
+     * Reads a lexicon: one entry per line, a word followed by its neighbors, all normalized with
+     * {@link #normWord}. Lines are parsed on all available cores.
+     *
+     * @param filename Path to the lexicon file.
+     * @return Map from each word to its neighbors; a word listed twice keeps its last line.
+     * @throws IOException If an I/O error occurs.
+     */
     public static Map<String, List<String>> readLexicon(String filename) throws IOException {
+        return readLexicon(filename, null);
+    }
+
+    /**
+     * Reads a lexicon, reusing the strings of {@code vocabulary} for the words it contains, so
+     * that the lexicon and the vectors share them.
+     *
+     * @param filename   Path to the lexicon file.
+     * @param vocabulary Vocabulary of the loaded vectors, or null.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static Map<String, List<String>> readLexicon(String filename, Vocabulary vocabulary) throws IOException {
         LOGGER.info("Starting to read lexicon from: " + filename);
-        Map<String, List<String>> lexicon = new HashMap<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            int lineCount = 0;
-            while ((line = reader.readLine()) != null) {
-                lineCount++;
-                String[] words = line.trim().toLowerCase().split("\\s+");
-                if (words.length < 2) {
-                    LOGGER.warning("Skipping invalid lexicon line " + lineCount + ": " + line);
-                    continue; // Skip invalid lines
-                }
-                String key = normWord(words[0]);
-                List<String> values = new ArrayList<>();
-                for (int i = 1; i < words.length; i++) {
-                    values.add(normWord(words[i]));
-                }
-                lexicon.put(key, values);
-                if (lineCount % 10000 == 0) {
-                    LOGGER.info("Processed " + lineCount + " lexicon lines.");
-                }
-            }
-            LOGGER.info("Completed reading lexicon. Total entries loaded: " + lexicon.size());
-        }
+        Map<String, List<String>> lexicon = new LexiconReader(filename, vocabulary).read();
+        LOGGER.info("Completed reading lexicon. Total entries loaded: " + lexicon.size());
         return lexicon;
     }
 }
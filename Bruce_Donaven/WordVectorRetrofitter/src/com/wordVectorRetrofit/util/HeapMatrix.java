@@ -0,0 +1,49 @@
+package com.wordVectorRetrofit.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Growable heap matrix. The last segment doubles until it reaches the segment size, after which
+ * new segments are appended, so growing never copies more than one segment.
+ */
+class HeapMatrix extends SegmentedMatrix {
+
+    private int capacity;
+
+    HeapMatrix(Precision precision, int dimension, int expectedRows) {
+        super(precision, dimension);
+        segments = new ByteBuffer[] { allocate(Math.max(1, Math.min(expectedRows, rowsPerSegment))) };
+        capacity = segments[0].capacity() / rowBytes;
+    }
+
+    @Override
+    public void write(int row, double[] source, int offset) {
+        precision.encode(source, offset, dimension, segments[row / rowsPerSegment], (row % rowsPerSegment) * rowBytes);
+    }
+
+    @Override
+    public void ensureRows(int rows) {
+        while (capacity < rows) {
+            int last = segments.length - 1;
+            int lastRows = segments[last].capacity() / rowBytes;
+            if (lastRows < rowsPerSegment) {
+                long needed = rows - (long) last * rowsPerSegment;
+                int grown = (int) Math.min(rowsPerSegment, Math.max(needed, (long) lastRows * 2));
+                ByteBuffer replacement = allocate(grown);
+                replacement.put(segments[last].duplicate().clear());
+                segments[last] = replacement;
+            } else {
+                long needed = rows - capacity;
+                segments = Arrays.copyOf(segments, segments.length + 1);
+                segments[last + 1] = allocate((int) Math.min(rowsPerSegment, Math.max(needed, 16)));
+            }
+            capacity = (segments.length - 1) * rowsPerSegment + segments[segments.length - 1].capacity() / rowBytes;
+        }
+    }
+
+    private ByteBuffer allocate(int rows) {
+        return ByteBuffer.allocate(rows * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,979 @@
+package com.wordVectorRetrofit.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Approximate cosine nearest neighbors with a hierarchical navigable small world graph (Malkov and
+ * Yashunin, 2016) over the rows of a {@link VectorStore}. The index holds only the graph; vectors
+ * are read from the store, so the store must stay the one the index was built for.
+ *
+ * Every node has up to {@code 2 * m} links on layer 0 and up to {@code m} on each upper layer it
+ * reaches. Layer 0 is one flat int array of {@code size * (2m + 1)} slots (a count, then the links);
+ * the upper layers of the few nodes that have them share a second array. Node levels are drawn up
+ * front, so nodes can be inserted in parallel with per-node striped locks.
+ *
+ * The index is saved next to the vectors ({@value #EXTENSION}). When it is opened again the
+ * link arrays stay memory-mapped, and the words are checked to be the ones it was built for.
+ *
+ * <pre>
+ * offset  0  int    magic "HNSW"
+ *         4  int    format version
+ *         8  int    number of nodes (rows)
+ *        12  int    dimension
+ *        16  int    m
+ *        20  int    efConstruction
+ *        24  int    entry point
+ *        28  int    top level
+ *        32  int    flags (bit 0: inverse row norms stored)
+ *        36  int    length of the upper layer array in ints
+ *        40  long   fingerprint of the words in row order
+ * then, each aligned to 8 bytes: levels (byte per node), upper layer offsets (int per node),
+ * inverse norms (double per node, if flagged), layer 0 links, upper layer links
+ * </pre>
+ */
+public class HnswIndex {
+    private static final Logger LOGGER = Logger.getLogger(HnswIndex.class.getName());
+
+    public static final String EXTENSION = ".hnsw";
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 200;
+    public static final int DEFAULT_EF_SEARCH = 64;
+
+    static final int MAGIC = 0x57534E48; // "HNSW" read as a little-endian int
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int FLAG_INVERSE_NORMS = 1;
+
+    private static final int MAX_LEVEL = 16;
+    private static final int LOCK_STRIPES = 4096;
+    private static final int BUFFER_BYTES = 4 << 20;
+    /** Idle search buffers kept for reuse; enough for every core plus some blocked requests. */
+    private static final int MAX_IDLE_SCRATCH = 2 * Runtime.getRuntime().availableProcessors() + 2;
+
+    private final VectorStore vectors;
+    /** Per row: 1 / L2 norm, or null when the store's rows are normalized. */
+    private final double[] inverseNorms;
+    private final int m;
+    private final int maxLinks0;
+    private final int efConstruction;
+    private final byte[] levels;
+    /** Per node: start of its upper layer slots in {@link #upper}, or -1 if it only has layer 0. */
+    private final int[] upperOffsets;
+    private final IntBuffer layer0;
+    private final IntBuffer upper;
+
+    private final Object entryLock = new Object();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    /** Idle search buffers; see {@link #acquire()}. */
+    private final ConcurrentLinkedQueue<Scratch> idleScratch = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleScratchCount = new AtomicInteger();
+    private volatile int entryPoint;
+    private volatile int topLevel;
+    private volatile int efSearch = DEFAULT_EF_SEARCH;
+
+    private HnswIndex(VectorStore vectors, double[] inverseNorms, int m, int efConstruction, byte[] levels,
+                      int[] upperOffsets, IntBuffer layer0, IntBuffer upper, int entryPoint, int topLevel) {
+        this.vectors = vectors;
+        this.inverseNorms = inverseNorms;
+        this.m = m;
+        this.maxLinks0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.levels = levels;
+        this.upperOffsets = upperOffsets;
+        this.layer0 = layer0;
+        this.upper = upper;
+        this.entryPoint = entryPoint;
+        this.topLevel = topLevel;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public static HnswIndex build(VectorStore vectors) {
+        return build(vectors, () -> false);
+    }
+
+    /**
+     * Like {@link #build(VectorStore)}, polling {@code cancelled} before every insertion.
+     *
+     * @throws CancellationException If {@code cancelled} returned true.
+     */
+    public static HnswIndex build(VectorStore vectors, BooleanSupplier cancelled) {
+        return build(vectors, DEFAULT_M, DEFAULT_EF_CONSTRUCTION, Runtime.getRuntime().availableProcessors(), cancelled);
+    }
+
+    /**
+     * Builds an index over every row of the store.
+     *
+     * @param vectors        Vectors to index.
+     * @param m              Links per node on the upper layers; layer 0 allows twice as many.
+     * @param efConstruction Candidate list size while inserting. Higher is slower and more accurate.
+     * @param threads        Number of threads inserting nodes.
+     */
+    public static HnswIndex build(VectorStore vectors, int m, int efConstruction, int threads) {
+        return build(vectors, m, efConstruction, threads, () -> false);
+    }
+
+    /**
+     * Like {@link #build(VectorStore, int, int, int)}, polling {@code cancelled} before every insertion.
+     *
+     * @throws CancellationException If {@code cancelled} returned true.
+     */
+    public static HnswIndex build(VectorStore vectors, int m, int efConstruction, int threads, BooleanSupplier cancelled) {
+        if (m < 2) {
+            throw new IllegalArgumentException("m must be at least 2: " + m);
+        }
+        int size = vectors.size();
+        if ((long) size * (2 * m + 1) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many rows for one index: " + size);
+        }
+        long start = System.nanoTime();
+
+        byte[] levels = new byte[size];
+        int[] upperOffsets = new int[size];
+        Random random = new Random(42);
+        double levelFactor = 1.0 / Math.log(m);
+        long upperLength = 0;
+        for (int node = 0; node < size; node++) {
+            int level = (int) Math.min(MAX_LEVEL, Math.floor(-Math.log(1.0 - random.nextDouble()) * levelFactor));
+            levels[node] = (byte) level;
+            upperOffsets[node] = level == 0 ? -1 : (int) upperLength;
+            upperLength += (long) level * (m + 1);
+        }
+        if (upperLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many rows for one index: " + size);
+        }
+
+        HnswIndex index = new HnswIndex(vectors, ExactNearestNeighbors.inverseNorms(vectors), m, efConstruction,
+                levels, upperOffsets, IntBuffer.wrap(new int[size * (2 * m + 1)]),
+                IntBuffer.wrap(new int[(int) upperLength]), -1, -1);
+        index.insertAll(IntStream.range(0, size).toArray(), threads, cancelled);
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("Building the HNSW index was cancelled");
+        }
+
+        LOGGER.info(String.format("Built HNSW index over %d vectors (m=%d, efConstruction=%d, %d threads) in %.2f s",
+                size, m, efConstruction, threads, (System.nanoTime() - start) / 1e9));
+        return index;
+    }
+
+    /**
+     * Returns an index over {@code updatedVectors}, a store with the same words in the same rows as
+     * this one whose {@code changedRows} have new values, for example the result of retrofitting.
+     * The changed rows are linked again from scratch; links from other nodes to them are kept.
+     * This index is left unchanged.
+     */
+    public HnswIndex update(VectorStore updatedVectors, int[] changedRows, int threads) {
+        if (updatedVectors.size() != vectors.size() || updatedVectors.dimension() != vectors.dimension()) {
+            throw new IllegalArgumentException("Updated vectors must have the same rows as the indexed vectors");
+        }
+        long start = System.nanoTime();
+        HnswIndex updated = new HnswIndex(updatedVectors, ExactNearestNeighbors.inverseNorms(updatedVectors), m,
+                efConstruction, levels, upperOffsets, copyOf(layer0), copyOf(upper), entryPoint, topLevel);
+        updated.efSearch = efSearch;
+        updated.insertAll(changedRows, threads, () -> false);
+        LOGGER.info(String.format("Updated %d of %d HNSW nodes in %.2f s",
+                changedRows.length, vectors.size(), (System.nanoTime() - start) / 1e9));
+        return updated;
+    }
+
+    private static IntBuffer copyOf(IntBuffer buffer) {
+        int[] copy = new int[buffer.capacity()];
+        buffer.get(0, copy);
+        return IntBuffer.wrap(copy);
+    }
+
+    private void insertAll(int[] nodes, int threads, BooleanSupplier cancelled) {
+        int first = 0;
+        if (entryPoint < 0 && nodes.length > 0) {
+            insert(nodes[0]);
+            first = 1;
+        }
+        int from = first;
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.submit(() -> IntStream.range(from, nodes.length).parallel().forEach(i -> {
+                if (!cancelled.getAsBoolean()) {
+                    insert(nodes[i]);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Index build was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Index build failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public VectorStore vectors() {
+        return vectors;
+    }
+
+    public int size() {
+        return levels.length;
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    /**
+     * Candidate list size for queries. Higher gives better recall and slower queries.
+     */
+    public void setEfSearch(int efSearch) {
+        this.efSearch = Math.max(1, efSearch);
+    }
+
+    /**
+     * Returns about the {@code k} words closest to the word, excluding the word itself, or an empty
+     * list if the word has no vector.
+     */
+    public List<Neighbor> nearest(String word, int k) {
+        int row = vectors.indexOf(word);
+        if (row < 0) {
+            return new ArrayList<>();
+        }
+        return nearest(vectors.getRow(row), k, row);
+    }
+
+    public List<Neighbor> nearest(double[] query, int k) {
+        return nearest(query, k, -1);
+    }
+
+    /**
+     * Returns approximately the {@code k} rows most similar to {@code query}, best first.
+     *
+     * @param excludeRow Row to leave out of the results, or -1.
+     */
+    public List<Neighbor> nearest(double[] query, int k, int excludeRow) {
+        if (query.length != vectors.dimension()) {
+            throw new IllegalArgumentException("Query has " + query.length + " values, expected " + vectors.dimension());
+        }
+        int entry = entryPoint;
+        if (k <= 0 || entry < 0) {
+            return new ArrayList<>();
+        }
+        double[] unitQuery = VectorProcessor.normalize(query);
+        TopK found;
+        Scratch s = acquire();
+        try {
+            int current = entry;
+            double currentSimilarity = similarity(unitQuery, current, s);
+            for (int level = topLevel; level > 0; level--) {
+                current = greedy(unitQuery, current, currentSimilarity, level, s);
+                currentSimilarity = s.greedySimilarity;
+            }
+            found = searchLayer(unitQuery, current, 0, Math.max(efSearch, k + 1), excludeRow, s);
+        } finally {
+            release(s);
+        }
+
+        int[] rows = new int[found.size()];
+        double[] scores = new double[found.size()];
+        found.drainSorted(rows, scores);
+        List<Neighbor> result = new ArrayList<>(k);
+        for (int i = 0; i < rows.length && result.size() < k; i++) {
+            result.add(new Neighbor(vectors.word(rows[i]), rows[i], scores[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Mean recall@k against exact search, over {@code samples} words picked at random.
+     */
+    public double recall(ExactNearestNeighbors exact, int k, int samples) {
+        int size = vectors.size();
+        if (size < 2 || samples <= 0) {
+            return 1.0;
+        }
+        Random random = new Random(7);
+        long hits = 0;
+        long total = 0;
+        for (int i = 0; i < samples; i++) {
+            int row = random.nextInt(size);
+            double[] query = vectors.getRow(row);
+            List<Neighbor> expected = exact.nearest(query, k, row);
+            List<Neighbor> actual = nearest(query, k, row);
+            int[] expectedRows = new int[expected.size()];
+            for (int j = 0; j < expectedRows.length; j++) {
+                expectedRows[j] = expected.get(j).getRow();
+            }
+            Arrays.sort(expectedRows);
+            for (Neighbor neighbor : actual) {
+                if (Arrays.binarySearch(expectedRows, neighbor.getRow()) >= 0) {
+                    hits++;
+                }
+            }
+            total += expectedRows.length;
+        }
+        return total == 0 ? 1.0 : (double) hits / total;
+    }
+
+    private void insert(int node) {
+        Scratch s = acquire();
+        try {
+            insert(node, s);
+        } finally {
+            release(s);
+        }
+    }
+
+    private void insert(int node, Scratch s) {
+        vectors.readRow(node, s.query);
+        if (inverseNorms != null) {
+            VectorKernels.scale(inverseNorms[node], s.query, 0, s.query.length);
+        }
+        int level = levels[node];
+
+        int entry;
+        int top;
+        synchronized (entryLock) {
+            if (entryPoint < 0) {
+                entryPoint = node;
+                topLevel = level;
+                return;
+            }
+            entry = entryPoint;
+            top = topLevel;
+        }
+        if (level > top) {
+            // A new top node: hold the entry lock until it is linked, so no search starts from it early.
+            synchronized (entryLock) {
+                link(node, level, entryPoint, topLevel, s);
+                if (level > topLevel) {
+                    entryPoint = node;
+                    topLevel = level;
+                }
+            }
+        } else {
+            link(node, level, entry, top, s);
+        }
+    }
+
+    private void link(int node, int level, int entry, int top, Scratch s) {
+        double[] query = s.query;
+        int current = entry;
+        double currentSimilarity = similarity(query, current, s);
+        for (int l = top; l > level; l--) {
+            current = greedy(query, current, currentSimilarity, l, s);
+            currentSimilarity = s.greedySimilarity;
+        }
+
+        for (int l = Math.min(level, top); l >= 0; l--) {
+            TopK found = searchLayer(query, current, l, efConstruction, node, s);
+            int count = found.size();
+            if (count == 0) {
+                continue;
+            }
+            int[] rows = new int[count];
+            double[] scores = new double[count];
+            found.drainSorted(rows, scores);
+            current = rows[0];
+
+            int selected = selectNeighbors(rows, scores, count, m, s);
+            IntBuffer links = links(l);
+            int base = base(node, l);
+            synchronized (lock(node)) {
+                for (int i = 0; i < selected; i++) {
+                    links.put(base + 1 + i, rows[i]);
+                }
+                links.put(base, selected);
+            }
+            for (int i = 0; i < selected; i++) {
+                addLink(rows[i], node, scores[i], l, s);
+            }
+        }
+    }
+
+    /**
+     * Adds {@code node} to the links of {@code target}, pruning them with the selection heuristic
+     * if the list is full.
+     */
+    private void addLink(int target, int node, double similarity, int level, Scratch s) {
+        IntBuffer links = links(level);
+        int base = base(target, level);
+        int maxLinks = level == 0 ? maxLinks0 : m;
+        synchronized (lock(target)) {
+            int count = links.get(base);
+            for (int i = 0; i < count; i++) {
+                if (links.get(base + 1 + i) == node) {
+                    return;
+                }
+            }
+            if (count < maxLinks) {
+                links.put(base + 1 + count, node);
+                links.put(base, count + 1);
+                return;
+            }
+
+            vectors.readRow(target, s.center);
+            if (inverseNorms != null) {
+                VectorKernels.scale(inverseNorms[target], s.center, 0, s.center.length);
+            }
+            int[] rows = s.pruneRows;
+            double[] scores = s.pruneScores;
+            for (int i = 0; i < count; i++) {
+                rows[i] = links.get(base + 1 + i);
+                scores[i] = similarity(s.center, rows[i], s);
+            }
+            rows[count] = node;
+            scores[count] = similarity;
+            sortDescending(rows, scores, count + 1);
+            int selected = selectNeighbors(rows, scores, count + 1, maxLinks, s);
+            for (int i = 0; i < selected; i++) {
+                links.put(base + 1 + i, rows[i]);
+            }
+            links.put(base, selected);
+        }
+    }
+
+    /**
+     * Neighbor selection heuristic: walks the candidates best first and keeps one only if it is
+     * closer to the query than to every candidate already kept, which spreads the links out.
+     * Kept candidates are moved to the front of the arrays.
+     *
+     * @return Number of candidates kept.
+     */
+    private int selectNeighbors(int[] rows, double[] scores, int count, int limit, Scratch s) {
+        int dimension = vectors.dimension();
+        int selected = 0;
+        for (int i = 0; i < count && selected < limit; i++) {
+            int candidate = rows[i];
+            vectors.readRow(candidate, s.candidate);
+            if (inverseNorms != null) {
+                VectorKernels.scale(inverseNorms[candidate], s.candidate, 0, dimension);
+            }
+            boolean keep = true;
+            for (int j = 0; j < selected && keep; j++) {
+                keep = VectorKernels.dot(s.candidate, 0, s.selected, j * dimension, dimension) <= scores[i];
+            }
+            if (keep) {
+                rows[selected] = candidate;
+                scores[selected] = scores[i];
+                System.arraycopy(s.candidate, 0, s.selected, selected * dimension, dimension);
+                selected++;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Moves greedily to more similar neighbors on one layer. The similarity of the returned node is
+     * left in {@link Scratch#greedySimilarity}.
+     */
+    private int greedy(double[] query, int current, double currentSimilarity, int level, Scratch s) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int count = copyLinks(current, level, s.links);
+            for (int i = 0; i < count; i++) {
+                double similarity = similarity(query, s.links[i], s);
+                if (similarity > currentSimilarity) {
+                    currentSimilarity = similarity;
+                    current = s.links[i];
+                    changed = true;
+                }
+            }
+        }
+        s.greedySimilarity = currentSimilarity;
+        return current;
+    }
+
+    /**
+     * Best-first search of one layer from {@code entry}, keeping the {@code ef} most similar nodes.
+     * {@code exclude} is walked through but never returned.
+     */
+    private TopK searchLayer(double[] query, int entry, int level, int ef, int exclude, Scratch s) {
+        s.visited.clear();
+        s.visited.add(entry);
+        CandidateQueue candidates = s.candidates;
+        candidates.clear();
+        TopK found = new TopK(ef);
+
+        double entrySimilarity = similarity(query, entry, s);
+        candidates.push(entry, entrySimilarity);
+        if (entry != exclude) {
+            found.offer(entry, entrySimilarity);
+        }
+        while (!candidates.isEmpty()) {
+            if (found.size() == ef && candidates.peekScore() < found.threshold()) {
+                break;
+            }
+            int current = candidates.pop();
+            int count = copyLinks(current, level, s.links);
+            for (int i = 0; i < count; i++) {
+                int neighbor = s.links[i];
+                if (!s.visited.add(neighbor)) {
+                    continue;
+                }
+                double similarity = similarity(query, neighbor, s);
+                if (found.size() < ef || similarity > found.threshold()) {
+                    candidates.push(neighbor, similarity);
+                    if (neighbor != exclude) {
+                        found.offer(neighbor, similarity);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private double similarity(double[] unitQuery, int row, Scratch s) {
+        vectors.readRow(row, s.other);
+        double dot = VectorKernels.dot(unitQuery, 0, s.other, 0, s.other.length);
+        return inverseNorms == null ? dot : dot * inverseNorms[row];
+    }
+
+    private int copyLinks(int node, int level, int[] target) {
+        IntBuffer links = links(level);
+        int base = base(node, level);
+        synchronized (lock(node)) {
+            int count = links.get(base);
+            links.get(base + 1, target, 0, count);
+            return count;
+        }
+    }
+
+    private IntBuffer links(int level) {
+        return level == 0 ? layer0 : upper;
+    }
+
+    private int base(int node, int level) {
+        return level == 0 ? node * (maxLinks0 + 1) : upperOffsets[node] + (level - 1) * (m + 1);
+    }
+
+    private Object lock(int node) {
+        return locks[node & (LOCK_STRIPES - 1)];
+    }
+
+    private static void sortDescending(int[] rows, double[] scores, int count) {
+        for (int i = 1; i < count; i++) {
+            int row = rows[i];
+            double score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                rows[j + 1] = rows[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            rows[j + 1] = row;
+            scores[j + 1] = score;
+        }
+    }
+
+    /**
+     * Path of the index file kept next to a vector file.
+     */
+    public static String indexPath(String vectorsPath) {
+        return vectorsPath + EXTENSION;
+    }
+
+    /**
+     * Writes the index.
+     *
+     * @param filename Path to the index file.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void save(String filename) throws IOException {
+        LOGGER.info("Writing HNSW index to: " + filename);
+        int size = levels.length;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(size)
+                    .putInt(vectors.dimension())
+                    .putInt(m)
+                    .putInt(efConstruction)
+                    .putInt(entryPoint)
+                    .putInt(topLevel)
+                    .putInt(inverseNorms != null ? FLAG_INVERSE_NORMS : 0)
+                    .putInt(upper.capacity())
+                    .putLong(fingerprint(vectors));
+            buffer.put(header.array());
+
+            for (byte level : levels) {
+                ensureRoom(channel, buffer, 1);
+                buffer.put(level);
+            }
+            pad(channel, buffer);
+            for (int offset : upperOffsets) {
+                ensureRoom(channel, buffer, Integer.BYTES);
+                buffer.putInt(offset);
+            }
+            pad(channel, buffer);
+            if (inverseNorms != null) {
+                for (double inverseNorm : inverseNorms) {
+                    ensureRoom(channel, buffer, Double.BYTES);
+                    buffer.putDouble(inverseNorm);
+                }
+            }
+            for (IntBuffer links : new IntBuffer[] { layer0, upper }) {
+                for (int i = 0; i < links.capacity(); i++) {
+                    ensureRoom(channel, buffer, Integer.BYTES);
+                    buffer.putInt(links.get(i));
+                }
+                pad(channel, buffer);
+            }
+            flush(channel, buffer);
+        }
+        LOGGER.info("Completed writing HNSW index over " + size + " vectors.");
+    }
+
+    /**
+     * Opens an index saved by {@link #save(String)} for the given vectors. The link arrays stay
+     * memory-mapped and read-only; {@link #update} copies them before changing anything.
+     *
+     * @param filename Path to the index file.
+     * @param vectors  The vectors the index was built for.
+     * @throws IOException If the file cannot be read, is not an index, or was built for other vectors.
+     */
+    public static HnswIndex map(String filename, VectorStore vectors) throws IOException {
+        LOGGER.info("Mapping HNSW index from: " + filename);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Not an HNSW index file (too short): " + filename);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not an HNSW index file (bad magic): " + filename);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported HNSW index version " + version + " in " + filename);
+            }
+            int size = header.getInt();
+            int dimension = header.getInt();
+            int m = header.getInt();
+            int efConstruction = header.getInt();
+            int entryPoint = header.getInt();
+            int topLevel = header.getInt();
+            int flags = header.getInt();
+            int upperLength = header.getInt();
+            long fingerprint = header.getLong();
+
+            if (size != vectors.size() || dimension != vectors.dimension() || fingerprint != fingerprint(vectors)) {
+                throw new IOException("HNSW index " + filename + " was built for different vectors");
+            }
+            if (m < 2 || upperLength < 0 || (long) size * (2 * m + 1) > Integer.MAX_VALUE
+                    || (size == 0 ? entryPoint != -1 : entryPoint < 0 || entryPoint >= size)
+                    || topLevel < (size == 0 ? -1 : 0) || topLevel > MAX_LEVEL) {
+                throw new IOException("Corrupt HNSW index header in " + filename);
+            }
+
+            long position = HEADER_BYTES;
+            ByteBuffer section = map(channel, position, size);
+            byte[] levels = new byte[size];
+            section.get(levels);
+            position = align(position + size);
+
+            section = map(channel, position, (long) size * Integer.BYTES);
+            int[] upperOffsets = new int[size];
+            section.asIntBuffer().get(upperOffsets);
+            position = align(position + (long) size * Integer.BYTES);
+
+            validateLevels(filename, levels, upperOffsets, m, upperLength, entryPoint, topLevel);
+
+            double[] inverseNorms = null;
+            if ((flags & FLAG_INVERSE_NORMS) != 0) {
+                section = map(channel, position, (long) size * Double.BYTES);
+                position = align(position + (long) size * Double.BYTES);
+                // The stored norms are those of the rows the index was saved with. Rows that have
+                // been normalized since, for example an exported file read back as text, need none.
+                if (!vectors.isNormalized()) {
+                    inverseNorms = new double[size];
+                    section.asDoubleBuffer().get(inverseNorms);
+                    if (!matchesSample(inverseNorms, vectors)) {
+                        LOGGER.warning("Stored row norms in " + filename + " do not match the vectors; recomputing them.");
+                        inverseNorms = ExactNearestNeighbors.inverseNorms(vectors);
+                    }
+                }
+            } else if (!vectors.isNormalized()) {
+                inverseNorms = ExactNearestNeighbors.inverseNorms(vectors);
+            }
+
+            long layer0Bytes = (long) size * (2 * m + 1) * Integer.BYTES;
+            IntBuffer layer0 = map(channel, position, layer0Bytes).asIntBuffer();
+            position = align(position + layer0Bytes);
+            IntBuffer upper = map(channel, position, (long) upperLength * Integer.BYTES).asIntBuffer();
+            validateLinks(filename, levels, upperOffsets, m, layer0, upper);
+
+            HnswIndex index = new HnswIndex(vectors, inverseNorms, m, efConstruction, levels, upperOffsets,
+                    layer0, upper, entryPoint, topLevel);
+            LOGGER.info("Mapped HNSW index over " + size + " vectors from " + filename);
+            return index;
+        }
+    }
+
+    /**
+     * Checks that every node's level is within the top level, the entry point is on the top level,
+     * and each node's upper layer slots lie inside the upper layer array.
+     */
+    private static void validateLevels(String filename, byte[] levels, int[] upperOffsets, int m, int upperLength,
+                                       int entryPoint, int topLevel) throws IOException {
+        for (int node = 0; node < levels.length; node++) {
+            int level = levels[node];
+            if (level < 0 || level > topLevel) {
+                throw new IOException("Corrupt HNSW index " + filename + ": node " + node + " has level " + level
+                        + " above the top level " + topLevel);
+            }
+            int offset = upperOffsets[node];
+            if (level == 0 ? offset != -1 : offset < 0 || (long) offset + (long) level * (m + 1) > upperLength) {
+                throw new IOException("Corrupt HNSW index " + filename + ": node " + node + " has upper layer offset "
+                        + offset + " for level " + level + " in " + upperLength + " slots");
+            }
+        }
+        if (entryPoint >= 0 && levels[entryPoint] != topLevel) {
+            throw new IOException("Corrupt HNSW index " + filename + ": entry point " + entryPoint
+                    + " is not on the top level " + topLevel);
+        }
+    }
+
+    /** Checks every link count and link target, so a corrupt file fails here rather than during a search. */
+    private static void validateLinks(String filename, byte[] levels, int[] upperOffsets, int m,
+                                      IntBuffer layer0, IntBuffer upper) throws IOException {
+        int size = levels.length;
+        for (int node = 0; node < size; node++) {
+            for (int level = 0; level <= levels[node]; level++) {
+                IntBuffer links = level == 0 ? layer0 : upper;
+                int slot = level == 0 ? node * (2 * m + 1) : upperOffsets[node] + (level - 1) * (m + 1);
+                int count = links.get(slot);
+                if (count < 0 || count > (level == 0 ? 2 * m : m)) {
+                    throw new IOException("Corrupt HNSW index " + filename + ": node " + node + " has " + count
+                            + " links on level " + level);
+                }
+                for (int i = 1; i <= count; i++) {
+                    int target = links.get(slot + i);
+                    if (target < 0 || target >= size) {
+                        throw new IOException("Corrupt HNSW index " + filename + ": node " + node
+                                + " links to row " + target + " of " + size);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Compares stored inverse norms with the vectors on up to 64 evenly spread rows. */
+    private static boolean matchesSample(double[] inverseNorms, VectorStore vectors) {
+        int size = vectors.size();
+        int samples = Math.min(size, 64);
+        double[] row = new double[vectors.dimension()];
+        for (int i = 0; i < samples; i++) {
+            int r = (int) ((long) i * size / samples);
+            vectors.readRow(r, row);
+            double expected = 1.0 / (Math.sqrt(VectorKernels.dot(row, row)) + 1e-10);
+            if (!(Math.abs(inverseNorms[r] - expected) <= 1e-9 * expected)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        if (length > Integer.MAX_VALUE || position + length > channel.size()) {
+            throw new IOException("Corrupt or truncated HNSW index");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Hash of the words in row order, to recognize the vectors an index was built for.
+     */
+    static long fingerprint(VectorStore vectors) {
+        long hash = vectors.size();
+        for (int row = 0; row < vectors.size(); row++) {
+            hash = hash * 1_000_003L + vectors.word(row).hashCode();
+        }
+        return hash;
+    }
+
+    private static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void pad(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long written = channel.position() + buffer.position();
+        ensureRoom(channel, buffer, 8);
+        for (long i = written; i < align(written); i++) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Takes idle buffers from the pool or allocates new ones. Their visited set is as large as the
+     * index, so they are pooled rather than kept per thread: a server running each request on its
+     * own (virtual) thread would otherwise allocate a full set per request.
+     */
+    private Scratch acquire() {
+        Scratch s = idleScratch.poll();
+        if (s == null) {
+            return new Scratch(levels.length, vectors.dimension(), maxLinks0);
+        }
+        idleScratchCount.decrementAndGet();
+        return s;
+    }
+
+    /** Returns buffers to the pool, keeping at most {@link #MAX_IDLE_SCRATCH} of them. */
+    private void release(Scratch s) {
+        if (idleScratchCount.incrementAndGet() <= MAX_IDLE_SCRATCH) {
+            idleScratch.offer(s);
+        } else {
+            idleScratchCount.decrementAndGet();
+        }
+    }
+
+    /** Buffers for one search or insertion, so they do not allocate per node. */
+    private static class Scratch {
+        final double[] query;
+        final double[] other;
+        final double[] center;
+        final double[] candidate;
+        final double[] selected;
+        final int[] links;
+        final int[] pruneRows;
+        final double[] pruneScores;
+        final VisitedSet visited;
+        final CandidateQueue candidates = new CandidateQueue();
+        double greedySimilarity;
+
+        Scratch(int size, int dimension, int maxLinks) {
+            query = new double[dimension];
+            other = new double[dimension];
+            center = new double[dimension];
+            candidate = new double[dimension];
+            selected = new double[(maxLinks + 1) * dimension];
+            links = new int[maxLinks + 1];
+            pruneRows = new int[maxLinks + 1];
+            pruneScores = new double[maxLinks + 1];
+            visited = new VisitedSet(size);
+        }
+    }
+
+    /** Visited marks that are cleared in constant time by bumping a generation counter. */
+    private static class VisitedSet {
+        private final int[] marks;
+        private int generation;
+
+        VisitedSet(int size) {
+            marks = new int[size];
+        }
+
+        void clear() {
+            if (++generation == 0) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        /** Marks the node, returning false if it was already marked. */
+        boolean add(int node) {
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+    }
+
+    /** Unbounded max-heap of (node, similarity), most similar first. */
+    private static class CandidateQueue {
+        private int[] nodes = new int[64];
+        private double[] scores = new double[64];
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double peekScore() {
+            return scores[0];
+        }
+
+        void push(int node, double score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int index = size++;
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (scores[parent] >= score) {
+                    break;
+                }
+                nodes[index] = nodes[parent];
+                scores[index] = scores[parent];
+                index = parent;
+            }
+            nodes[index] = node;
+            scores[index] = score;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            int node = nodes[size];
+            double score = scores[size];
+            int index = 0;
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && scores[child + 1] > scores[child]) {
+                    child++;
+                }
+                if (scores[child] <= score) {
+                    break;
+                }
+                nodes[index] = nodes[child];
+                scores[index] = scores[child];
+                index = child;
+            }
+            nodes[index] = node;
+            scores[index] = score;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.wordVectorRetrofit.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Re-solves only the part of the neighbor graph affected by lexicon or vocabulary edits, warm
+ * started from the previous result.
+ *
+ * A word is changed when it joined or left the lexicon, when its list of known neighbors differs,
+ * or when the caller names it (for example because its original vector was replaced). The affected
+ * region is the changed words plus every lexicon word that reaches one of them through neighbor
+ * edges, up to a number of hops. Words outside the region keep their previous retrofitted vectors
+ * and act as fixed neighbors while the region is solved.
+ */
+class IncrementalRetrofit {
+
+    private final VectorStore originalVectors;
+    private final NeighborGraph graph;
+    private final VectorStore previousVectors;
+    private final NeighborGraph previousGraph;
+
+    /** Per node of {@link #graph}: its row in the previous result if it was a node there too, else -1. */
+    private final int[] previousRowOfNode;
+
+    IncrementalRetrofit(VectorStore originalVectors, NeighborGraph graph,
+                        VectorStore previousVectors, NeighborGraph previousGraph) {
+        this.originalVectors = originalVectors;
+        this.graph = graph;
+        this.previousVectors = previousVectors;
+        this.previousGraph = previousGraph;
+        this.previousRowOfNode = new int[graph.nodeCount()];
+        Arrays.fill(previousRowOfNode, -1);
+    }
+
+    VectorStore run(Collection<String> changedWords, int hops, RetrofitOptions options, RetrofitProgress progress) {
+        int[] seeds = changedRows(changedWords);
+        int[] affected = graph.affectedNodes(seeds, hops);
+        LoggerUtil.log(String.format("Incremental retrofitting: %d changed words, %d of %d lexicon words to re-solve (%s).",
+                seeds.length, affected.length, graph.nodeCount(),
+                hops < 0 ? "all reachable words" : "up to " + hops + " hops"));
+
+        Precision precision = options.getPrecision() != null ? options.getPrecision() : previousVectors.precision();
+        VectorStore warm = warmStart(precision, options);
+        if (affected.length == 0) {
+            LoggerUtil.log("No lexicon words are affected; keeping the previous retrofitted vectors.");
+            return warm;
+        }
+        return new RetrofitEngine(originalVectors, warm, graph.subgraph(affected), options).run(progress);
+    }
+
+    /**
+     * Rows of the current store whose retrofitted vector changes directly.
+     */
+    private int[] changedRows(Collection<String> changedWords) {
+        boolean[] changed = new boolean[originalVectors.size()];
+
+        for (int oldNode = 0; oldNode < previousGraph.nodeCount(); oldNode++) {
+            int oldRow = previousGraph.row(oldNode);
+            int row = currentRow(oldRow);
+            if (row < 0) {
+                continue; // the word no longer has a vector, so nothing can refer to it
+            }
+            int node = graph.nodeOf(row);
+            if (node < 0) {
+                changed[row] = true; // left the lexicon and falls back to its original vector
+                continue;
+            }
+            previousRowOfNode[node] = oldRow;
+            if (!sameNeighbors(oldNode, node)) {
+                changed[row] = true;
+            }
+        }
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            if (previousRowOfNode[node] < 0) {
+                changed[graph.row(node)] = true; // joined the lexicon, or is a new word
+            }
+        }
+        for (String word : changedWords) {
+            int row = originalVectors.indexOf(word);
+            if (row >= 0) {
+                changed[row] = true;
+            }
+        }
+
+        int count = 0;
+        int[] rows = new int[changed.length];
+        for (int row = 0; row < changed.length; row++) {
+            if (changed[row]) {
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    private boolean sameNeighbors(int oldNode, int node) {
+        if (previousGraph.degree(oldNode) != graph.degree(node)) {
+            return false;
+        }
+        int oldEdge = previousGraph.firstEdge(oldNode);
+        int edge = graph.firstEdge(node);
+        for (int i = 0; i < graph.degree(node); i++) {
+            if (currentRow(previousGraph.neighborRow(oldEdge + i)) != graph.neighborRow(edge + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Row in the current store of a row of the previous result, or -1 if the word is gone. Stores
+     * that only appended words keep their row ids, so the string lookup is usually skipped.
+     */
+    private int currentRow(int previousRow) {
+        String word = previousVectors.word(previousRow);
+        if (previousRow < originalVectors.size() && originalVectors.word(previousRow).equals(word)) {
+            return previousRow;
+        }
+        return originalVectors.indexOf(word);
+    }
+
+    /**
+     * Original vectors with the previous retrofitted vector of every word that is still in the lexicon.
+     */
+    private VectorStore warmStart(Precision precision, RetrofitOptions options) {
+        VectorStore warm = RetrofitEngine.output(originalVectors, graph.rows(), precision, options);
+        warm.setNormalized(false);
+        double[] buffer = new double[originalVectors.dimension()];
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            if (previousRowOfNode[node] >= 0) {
+                previousVectors.readRow(previousRowOfNode[node], buffer);
+                warm.writeRow(graph.row(node), buffer);
+            }
+        }
+        return warm;
+    }
+}
@@ -0,0 +1,356 @@
+package com.wordVectorRetrofit.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs long operations as jobs on a fixed number of worker threads with a bounded queue.
+ *
+ * Every job has a key naming what it works on. While a job is queued or running, another request
+ * with the same key is either rejected or coalesced into the new one, which supersedes the old job,
+ * so repeated requests never pile up. Cancellation is cooperative: a job that has not started is
+ * skipped, a running one is expected to poll {@link Job#isCancelled()} or call
+ * {@link Job#checkCancelled()} in its loops. Jobs publish their progress, which can be read at any
+ * time as a {@link Snapshot}.
+ */
+public class JobScheduler {
+
+    /** Finished jobs kept for {@link #jobs()}. */
+    private static final int HISTORY = 32;
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED,
+        /** Cancelled because a newer request with the same key replaced it ({@link Policy#COALESCE}). */
+        SUPERSEDED,
+        /** Never queued: refused by {@link Policy#REJECT} or because the queue was full. */
+        REJECTED;
+
+        public boolean isDone() {
+            return this != QUEUED && this != RUNNING;
+        }
+    }
+
+    /** What to do with a request whose key already has a queued or running job. */
+    public enum Policy {
+        /** Refuse the new request. */
+        REJECT,
+        /** Cancel the existing job; the new request supersedes it. */
+        COALESCE
+    }
+
+    @FunctionalInterface
+    public interface Task {
+        void run(Job job) throws Exception;
+    }
+
+    /** Told how a job ended when it did not succeed. */
+    @FunctionalInterface
+    public interface FailureListener {
+        /**
+         * @param state {@link State#FAILED}, {@link State#CANCELLED}, {@link State#SUPERSEDED} or {@link State#REJECTED}.
+         * @param cause Why the job failed or was rejected; null if it was cancelled or superseded.
+         */
+        void failed(State state, Throwable cause);
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int maxQueued;
+    private final Map<String, Job> active = new HashMap<>();
+    private final Deque<Job> history = new ArrayDeque<>();
+    private int nextId = 1;
+
+    /**
+     * @param name      Prefix of the worker thread names.
+     * @param workers   Number of jobs run at the same time.
+     * @param maxQueued Number of jobs that may wait for a worker; further requests are rejected.
+     */
+    public JobScheduler(String name, int workers, int maxQueued) {
+        this.maxQueued = maxQueued;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(maxQueued), r -> {
+            Thread thread = new Thread(r, name + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a job. If the policy is {@link Policy#REJECT} and a job with the same key is queued or
+     * running, or if the queue is full, the returned job is already {@link State#REJECTED} and its
+     * error, a {@link RejectedExecutionException}, says why.
+     */
+    public synchronized Job submit(String key, String name, Policy policy, Task task) {
+        Job existing = active.get(key);
+        Job job = new Job(nextId++, key, name);
+        if (existing != null && policy == Policy.REJECT) {
+            return reject(job, existing.name + " is already "
+                    + existing.state.name().toLowerCase(Locale.ROOT) + "; " + name + " was not started.");
+        }
+        try {
+            executor.execute(() -> run(job, task));
+        } catch (RejectedExecutionException e) {
+            return reject(job, "Job queue is full (" + maxQueued + " waiting); " + name + " was not started.");
+        }
+        if (existing != null) {
+            existing.supersede();
+        }
+        active.put(key, job);
+        remember(job);
+        return job;
+    }
+
+    private Job reject(Job job, String reason) {
+        job.finish(State.REJECTED, new RejectedExecutionException(reason));
+        job.completion.complete(job);
+        remember(job);
+        return job;
+    }
+
+    private void remember(Job job) {
+        history.addLast(job);
+        while (history.size() > HISTORY && history.peekFirst().state.isDone()) {
+            history.removeFirst();
+        }
+    }
+
+    private void run(Job job, Task task) {
+        try {
+            if (job.start()) {
+                task.run(job);
+                job.finish(State.SUCCEEDED, null);
+            } else {
+                job.finish(job.cancelledState(), null);
+            }
+        } catch (CancellationException e) {
+            job.finish(job.cancelledState(), null);
+        } catch (Exception e) {
+            job.finish(job.isCancelled() ? job.cancelledState() : State.FAILED, e);
+        } finally {
+            synchronized (this) {
+                active.remove(job.key, job);
+            }
+            job.completion.complete(job);
+        }
+    }
+
+    /**
+     * Cancels every queued or running job.
+     *
+     * @return The jobs that were cancelled.
+     */
+    public synchronized List<Snapshot> cancelAll() {
+        List<Snapshot> cancelled = new ArrayList<>();
+        for (Job job : active.values()) {
+            job.cancel();
+            cancelled.add(job.snapshot());
+        }
+        return cancelled;
+    }
+
+    /** Queued or running job with the key, or null. */
+    public synchronized Job active(String key) {
+        return active.get(key);
+    }
+
+    /** The recent jobs, oldest first, including the queued and running ones. */
+    public synchronized List<Snapshot> jobs() {
+        List<Snapshot> snapshots = new ArrayList<>(history.size());
+        for (Job job : history) {
+            snapshots.add(job.snapshot());
+        }
+        return snapshots;
+    }
+
+    /** Cancels every job and stops the workers once they are idle. */
+    public void shutdown() {
+        cancelAll();
+        executor.shutdown();
+    }
+
+    public static final class Job {
+        private final int id;
+        private final String key;
+        private final String name;
+        private final long submitted = System.nanoTime();
+        private final CompletableFuture<Job> completion = new CompletableFuture<>();
+        private volatile State state = State.QUEUED;
+        private volatile boolean cancelled;
+        private volatile boolean superseded;
+        private volatile long started;
+        private volatile long finished;
+        private volatile Throwable error;
+        private volatile Snapshot progress;
+
+        private Job(int id, String key, String name) {
+            this.id = id;
+            this.key = key;
+            this.name = name;
+        }
+
+        private synchronized boolean start() {
+            if (cancelled) {
+                return false;
+            }
+            started = System.nanoTime();
+            state = State.RUNNING;
+            return true;
+        }
+
+        private synchronized void finish(State state, Throwable error) {
+            this.finished = System.nanoTime();
+            this.error = error;
+            this.state = state;
+        }
+
+        public int id() {
+            return id;
+        }
+
+        public String key() {
+            return key;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public State state() {
+            return state;
+        }
+
+        /** Why the job failed or was rejected, or null. */
+        public Throwable error() {
+            return error;
+        }
+
+        /** Asks the job to stop; a queued job is skipped. */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void supersede() {
+            superseded = true;
+            cancelled = true;
+        }
+
+        private State cancelledState() {
+            return superseded ? State.SUPERSEDED : State.CANCELLED;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @throws CancellationException If the job has been cancelled.
+         */
+        public void checkCancelled() {
+            if (cancelled) {
+                throw new CancellationException(name + " was cancelled");
+            }
+        }
+
+        /**
+         * Publishes how far the job has got.
+         *
+         * @param done    Units of work done.
+         * @param total   Units of work expected, or 0 if unknown.
+         * @param message Short description of the current step.
+         */
+        public void setProgress(long done, long total, String message) {
+            progress = new Snapshot(this, done, total, message);
+        }
+
+        /** Completes with the job once it has finished, whatever the outcome. */
+        public CompletableFuture<Job> completion() {
+            return completion;
+        }
+
+        public Snapshot snapshot() {
+            Snapshot last = progress;
+            return last == null ? new Snapshot(this, 0, 0, "") : new Snapshot(this, last.done, last.total, last.message);
+        }
+    }
+
+    /** State and progress of a job at one moment. */
+    public static final class Snapshot {
+        private final int id;
+        private final String name;
+        private final State state;
+        private final long done;
+        private final long total;
+        private final String message;
+        private final double seconds;
+
+        private Snapshot(Job job, long done, long total, String message) {
+            this.id = job.id;
+            this.name = job.name;
+            this.state = job.state;
+            this.done = done;
+            this.total = total;
+            this.message = message;
+            long from = job.started != 0 ? job.started : job.submitted;
+            long to = job.state.isDone() ? job.finished : System.nanoTime();
+            this.seconds = (to - from) / 1e9;
+        }
+
+        public int id() {
+            return id;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public State state() {
+            return state;
+        }
+
+        public long done() {
+            return done;
+        }
+
+        public long total() {
+            return total;
+        }
+
+        public String message() {
+            return message;
+        }
+
+        /** Time spent running, or waiting if the job has not started. */
+        public double seconds() {
+            return seconds;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(String.format(Locale.ROOT, "#%d %s: %s", id, name,
+                    state.name().toLowerCase(Locale.ROOT)));
+            if (total > 0) {
+                text.append(String.format(Locale.ROOT, " %d/%d", done, total));
+            }
+            if (!message.isEmpty()) {
+                text.append(", ").append(message);
+            }
+            return text.append(String.format(Locale.ROOT, " (%.1f s)", seconds)).toString();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.wordVectorRetrofit.util;
+
+/**
+ * Dense double kernels behind {@link VectorKernels}. Offsets index into the arrays, lengths count
+ * values.
+ */
+interface Kernels {
+
+    String name();
+
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    /**
+     * Dot product and both squared norms in one pass, combined as
+     * {@code dot / (sqrt(|a|^2) * sqrt(|b|^2) + 1e-10)}.
+     */
+    double cosine(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    /** {@code y += alpha * x} */
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    /** {@code x *= alpha} */
+    void scale(double alpha, double[] x, int offset, int length);
+
+    double distanceSquared(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    /**
+     * Dot products of {@code query} with {@code rows} consecutive rows of {@code matrix}, starting at
+     * {@code matrixOffset}, written to {@code out[outOffset ..]}.
+     */
+    void dotBatch(double[] query, double[] matrix, int matrixOffset, int rows, int dimension,
+                  double[] out, int outOffset);
+}
@@ -0,0 +1,205 @@
+package com.wordVectorRetrofit.util;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Parallel loader for lexicon files: one entry per line, a word followed by its neighbors.
+ *
+ * The text is cut into line-aligned chunks that are tokenized and normalized on all cores, then
+ * merged in file order, so later lines replace earlier ones for the same word as in a sequential
+ * read. Every term is interned while merging: each distinct word is stored once however many
+ * lines it appears on, and words that are already in the vocabulary of the loaded vectors reuse
+ * its strings.
+ */
+class LexiconReader {
+    private static final Logger LOGGER = Logger.getLogger(LexiconReader.class.getName());
+
+    static final String NUMBER = "---num---";
+    static final String PUNCTUATION = "---punc---";
+    private static final int CHUNK_CHARS = 1 << 20;
+
+    private final String filename;
+    private final int threads;
+    private final Vocabulary known;
+    private final Vocabulary symbols = new Vocabulary(1 << 12);
+    private int shared = 0;
+
+    /**
+     * @param known Vocabulary whose strings are reused for the words it contains, or null.
+     */
+    LexiconReader(String filename, Vocabulary known) {
+        this(filename, known, Runtime.getRuntime().availableProcessors());
+    }
+
+    LexiconReader(String filename, Vocabulary known, int threads) {
+        this.filename = filename;
+        this.known = known;
+        this.threads = Math.max(1, threads);
+    }
+
+    Map<String, List<String>> read() throws IOException {
+        long startTime = System.nanoTime();
+        // Decoded like FileReader, in the platform charset.
+        String text = new String(Files.readAllBytes(Paths.get(filename)), Charset.defaultCharset());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "lexicon-parser");
+            t.setDaemon(true);
+            return t;
+        });
+
+        Map<String, List<String>> lexicon = new HashMap<>();
+        int lines = 0;
+        long terms = 0;
+        try {
+            ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+            int start = 0;
+            while (start < text.length()) {
+                int end = Math.min(text.length(), start + CHUNK_CHARS);
+                if (end < text.length()) {
+                    int newline = text.indexOf('\n', end);
+                    end = newline < 0 ? text.length() : newline + 1;
+                }
+                int chunkStart = start;
+                int chunkEnd = end;
+                pending.add(pool.submit(() -> parseChunk(text, chunkStart, chunkEnd)));
+                start = end;
+            }
+            while (!pending.isEmpty()) {
+                Chunk chunk = get(pending.poll());
+                for (int i = 0; i < chunk.entries.size(); i++) {
+                    String[] entry = chunk.entries.get(i);
+                    if (entry.length < 2) {
+                        LOGGER.warning("Skipping invalid lexicon line " + (lines + i + 1) + ": " + entry[0]);
+                        continue;
+                    }
+                    List<String> neighbors = new ArrayList<>(entry.length - 1);
+                    for (int t = 1; t < entry.length; t++) {
+                        neighbors.add(intern(entry[t]));
+                    }
+                    lexicon.put(intern(entry[0]), neighbors);
+                    terms += entry.length;
+                }
+                int before = lines;
+                lines += chunk.lines;
+                if (lines / 10000 != before / 10000) {
+                    LOGGER.info("Processed " + lines + " lexicon lines.");
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        double seconds = Math.max((System.nanoTime() - startTime) / 1e9, 1e-9);
+        LOGGER.info(String.format("Read %d lexicon entries from %d lines in %.2f s: %d terms, %d distinct, %d shared with the vectors",
+                lexicon.size(), lines, seconds, terms, symbols.size(), shared));
+        return lexicon;
+    }
+
+    private String intern(String word) {
+        int id = symbols.indexOf(word);
+        if (id >= 0) {
+            return symbols.word(id);
+        }
+        int row = known == null ? -1 : known.indexOf(word);
+        if (row >= 0) {
+            word = known.word(row);
+            shared++;
+        }
+        return symbols.word(symbols.intern(word));
+    }
+
+    private static Chunk get(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the lexicon", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to parse the lexicon: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Tokenizes the lines of {@code text[start, end)}. Lines with fewer than two tokens are kept
+     * as their raw text, for the warning.
+     */
+    static Chunk parseChunk(String text, int start, int end) {
+        Chunk chunk = new Chunk();
+        List<String> tokens = new ArrayList<>();
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0 || lineEnd > end) {
+                lineEnd = end;
+            }
+            chunk.lines++;
+            tokens.clear();
+            int i = lineStart;
+            while (i < lineEnd) {
+                while (i < lineEnd && isSpace(text.charAt(i))) {
+                    i++;
+                }
+                int tokenStart = i;
+                while (i < lineEnd && !isSpace(text.charAt(i))) {
+                    i++;
+                }
+                if (i > tokenStart) {
+                    tokens.add(normWord(text.substring(tokenStart, i)));
+                }
+            }
+            if (tokens.size() < 2) {
+                String line = text.substring(lineStart, lineEnd);
+                chunk.entries.add(new String[]{line.endsWith("\r") ? line.substring(0, line.length() - 1) : line});
+            } else {
+                chunk.entries.add(tokens.toArray(new String[0]));
+            }
+            lineStart = lineEnd + 1;
+        }
+        return chunk;
+    }
+
+    /**
+     * Lowercases a token and maps tokens starting with a digit to {@link #NUMBER} and tokens
+     * without any ASCII letter, digit or underscore to {@link #PUNCTUATION}. Same result as
+     * matching {@code \d+.*} and stripping {@code \W+}, without regular expressions or copies.
+     */
+    static String normWord(String word) {
+        if (word.isEmpty()) {
+            return PUNCTUATION;
+        }
+        char first = word.charAt(0);
+        if (first >= '0' && first <= '9') {
+            return NUMBER;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_') {
+                return word.toLowerCase();
+            }
+        }
+        return PUNCTUATION;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    static final class Chunk {
+        int lines = 0;
+        /** Tokens of each line, or the raw text of lines with fewer than two tokens. */
+        final List<String[]> entries = new ArrayList<>();
+    }
+}
@@ -1,47 +1,114 @@
 package com.wordVectorRetrofit.util;
 
+import java.io.PrintStream;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 import com.wordVectorRetrofit.ui.TerminalConsole;
 import javafx.application.Platform;
 
+/**
+ * Application log shown in the terminal console, or printed to {@link #setOutput} without one.
+ *
+ * Logging only puts the message on a lock-free ring buffer; a single writer thread takes what has
+ * accumulated {@link #FRAMES_PER_SECOND} times a second, formats it and hands it to the console as
+ * one block, so the FX thread gets one update per frame however many messages there are. Messages
+ * below the current level are dropped before any formatting; pass a format and arguments rather
+ * than a preformatted string to make that free. When the buffer is full, FINE and INFO messages are
+ * dropped and counted while warnings and errors wait for room.
+ *
+ * Loops that log per word or per pair use a {@link Site}, which lets through at most a few
+ * messages per second and counts the rest for a closing {@link Site#summarize() summary}.
+ */
 public class LoggerUtil {
 
-    private static TerminalConsole terminalConsole;
+    public static final int FRAMES_PER_SECOND = 30;
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static volatile TerminalConsole terminalConsole;
+    private static volatile PrintStream output = System.out;
+    private static volatile LogLevel threshold = LogLevel.FINE;
+
+    // Ring buffer: producers claim a sequence number by advancing the tail and then publish their
+    // entry in its slot; the writer consumes slots in order and clears them before advancing the head.
+    private static final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong head = new AtomicLong();
+    private static final LongAdder dropped = new LongAdder();
+    private static final Object drainLock = new Object();
+
+    // Owned by whoever holds drainLock.
+    private static final StringBuilder batch = new StringBuilder(1 << 16);
+    private static long cachedSecond = Long.MIN_VALUE;
+    private static String cachedTimestamp;
+
+    private static final StringBuilder consoleBacklog = new StringBuilder();
+    private static boolean consoleUpdatePosted = false;
+
+    static {
+        Thread writer = new Thread(LoggerUtil::runWriter, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(LoggerUtil::flush, "log-flush"));
+    }
 
     public static void initialize(TerminalConsole console) {
         terminalConsole = console;
     }
 
+    /**
+     * Stream that messages go to when there is no terminal console, standard output by default.
+     */
+    public static void setOutput(PrintStream stream) {
+        flush();
+        output = stream;
+    }
+
+    /**
+     * When false, FINE messages (per word and per pair details) are dropped.
+     */
+    public static void setVerbose(boolean enabled) {
+        setLevel(enabled ? LogLevel.FINE : LogLevel.INFO);
+    }
+
+    /**
+     * Drops messages below the given level.
+     */
+    public static void setLevel(LogLevel level) {
+        threshold = level;
+    }
+
+    public static boolean isLoggable(LogLevel level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
     public static void log(String message) {
         log(message, LogLevel.INFO);
     }
 
     public static void log(String message, LogLevel level) {
-        String timestamp = LocalDateTime.now().format(formatter);
-        String formattedMessage = String.format("[%s] [%s] %s", timestamp, level.name(), message);
-
-        if (terminalConsole != null) {
-            Platform.runLater(() -> {
-                switch (level) {
-                    case FINE:
-                        terminalConsole.appendText("[FINE] " + formattedMessage);
-                        break;
-                    case INFO:
-                        terminalConsole.appendText("[INFO] " + formattedMessage);
-                        break;
-                    case WARNING:
-                        terminalConsole.appendText("[WARNING] " + formattedMessage);
-                        break;
-                    case SEVERE:
-                        terminalConsole.appendText("[SEVERE] " + formattedMessage);
-                        break;
-                }
-            });
-        } else {
-            System.out.println(formattedMessage);
+        if (isLoggable(level)) {
+            enqueue(new Entry(level, message, null));
+        }
+    }
+
+    /**
+     * Logs {@code String.format(format, args)}, formatting on the writer thread and only if the
+     * level is enabled.
+     */
+    public static void log(LogLevel level, String format, Object... args) {
+        if (isLoggable(level)) {
+            enqueue(new Entry(level, format, args));
         }
     }
 
@@ -49,6 +116,10 @@ public class LoggerUtil {
         log(message, LogLevel.FINE);
     }
 
+    public static void fine(String format, Object... args) {
+        log(LogLevel.FINE, format, args);
+    }
+
     public static void info(String message) {
         log(message, LogLevel.INFO);
     }
@@ -65,10 +136,210 @@ public class LoggerUtil {
         log(message, LogLevel.SEVERE);
     }
 
-    private enum LogLevel {
+    /**
+     * Returns a rate-limited call site that logs at most {@code maxPerSecond} messages a second.
+     * Keep it in a static field so that the limit applies across calls.
+     */
+    public static Site site(String name, int maxPerSecond) {
+        return new Site(name, maxPerSecond);
+    }
+
+    /**
+     * Writes out everything logged so far. Called on shutdown; the writer thread does it every frame.
+     */
+    public static void flush() {
+        synchronized (drainLock) {
+            drain();
+        }
+    }
+
+    private static void enqueue(Entry entry) {
+        while (true) {
+            long sequence = tail.get();
+            if (sequence - head.get() >= CAPACITY) {
+                if (entry.level.compareTo(LogLevel.WARNING) < 0) {
+                    dropped.increment();
+                    return;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            } else if (tail.compareAndSet(sequence, sequence + 1)) {
+                slots.lazySet((int) sequence & MASK, entry);
+                return;
+            }
+        }
+    }
+
+    private static void runWriter() {
+        long frameNanos = TimeUnit.SECONDS.toNanos(1) / FRAMES_PER_SECOND;
+        while (true) {
+            LockSupport.parkNanos(frameNanos);
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                System.err.println("Logging failed: " + e);
+            }
+        }
+    }
+
+    private static void drain() {
+        long sequence = head.get();
+        long end = tail.get();
+        while (sequence < end) {
+            int slot = (int) sequence & MASK;
+            Entry entry = slots.get(slot);
+            if (entry == null) {
+                // Claimed but not yet published; it goes out with the next frame.
+                break;
+            }
+            slots.lazySet(slot, null);
+            head.lazySet(++sequence);
+            append(entry.level, entry.millis, entry.text());
+        }
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            append(LogLevel.WARNING, System.currentTimeMillis(), lost + " log messages were dropped because the log buffer was full.");
+        }
+        if (batch.length() == 0) {
+            return;
+        }
+
+        TerminalConsole console = terminalConsole;
+        if (console != null) {
+            synchronized (consoleBacklog) {
+                consoleBacklog.append(batch);
+                // While the FX thread has not taken the last block yet, later frames add to it.
+                if (!consoleUpdatePosted) {
+                    consoleUpdatePosted = true;
+                    try {
+                        Platform.runLater(() -> console.appendLines(takeConsoleBacklog()));
+                    } catch (IllegalStateException e) {
+                        // The FX toolkit has shut down; whatever is left goes to the output stream.
+                        output.print(takeConsoleBacklog());
+                        output.flush();
+                    }
+                }
+            }
+        } else {
+            PrintStream stream = output;
+            stream.print(batch);
+            stream.flush();
+        }
+        batch.setLength(0);
+    }
+
+    private static String takeConsoleBacklog() {
+        synchronized (consoleBacklog) {
+            String text = consoleBacklog.toString();
+            consoleBacklog.setLength(0);
+            consoleUpdatePosted = false;
+            return text;
+        }
+    }
+
+    private static void append(LogLevel level, long millis, String message) {
+        boolean console = terminalConsole != null;
+        if (console) {
+            batch.append('[').append(level.name()).append("] ");
+        }
+        batch.append('[').append(timestamp(millis)).append("] [").append(level.name()).append("] ")
+                .append(message).append(console ? "\n" : System.lineSeparator());
+    }
+
+    private static String timestamp(long millis) {
+        long second = millis / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedTimestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()).format(formatter);
+        }
+        return cachedTimestamp;
+    }
+
+    public enum LogLevel {
         FINE,
         INFO,
         WARNING,
         SEVERE
     }
+
+    private static final class Entry {
+        final LogLevel level;
+        final long millis = System.currentTimeMillis();
+        final String message;
+        final Object[] args;
+
+        Entry(LogLevel level, String message, Object[] args) {
+            this.level = level;
+            this.message = message;
+            this.args = args;
+        }
+
+        String text() {
+            if (args == null) {
+                return message;
+            }
+            try {
+                return String.format(message, args);
+            } catch (RuntimeException e) {
+                return message + " (bad log format: " + e.getMessage() + ")";
+            }
+        }
+    }
+
+    /**
+     * A logging call site inside a loop. Every call is counted; at most {@code maxPerSecond} of
+     * them are logged and the rest only show up in {@link #summarize()}.
+     */
+    public static final class Site {
+        private final String name;
+        private final int maxPerSecond;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder logged = new LongAdder();
+        private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+        private final AtomicInteger inWindow = new AtomicInteger();
+
+        private Site(String name, int maxPerSecond) {
+            this.name = name;
+            this.maxPerSecond = maxPerSecond;
+        }
+
+        public void fine(String format, Object... args) {
+            log(LogLevel.FINE, format, args);
+        }
+
+        public void log(LogLevel level, String format, Object... args) {
+            calls.increment();
+            if (isLoggable(level) && tryAcquire()) {
+                logged.increment();
+                enqueue(new Entry(level, format, args));
+            }
+        }
+
+        /**
+         * Counts an event without logging anything.
+         */
+        public void count() {
+            calls.increment();
+        }
+
+        /**
+         * Logs how many calls there were since the last summary and how many were logged, then
+         * resets the counters. Logs nothing if there were no calls.
+         */
+        public void summarize() {
+            long total = calls.sumThenReset();
+            long shown = logged.sumThenReset();
+            if (total > 0) {
+                LoggerUtil.log(String.format("%s: %d events, %d logged.", name, total, shown));
+            }
+        }
+
+        private boolean tryAcquire() {
+            long now = System.nanoTime();
+            long start = windowStart.get();
+            if (now - start >= TimeUnit.SECONDS.toNanos(1) && windowStart.compareAndSet(start, now)) {
+                inWindow.set(0);
+            }
+            return inWindow.get() < maxPerSecond && inWindow.incrementAndGet() <= maxPerSecond;
+        }
+    }
 }
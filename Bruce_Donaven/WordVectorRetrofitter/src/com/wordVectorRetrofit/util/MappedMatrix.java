@@ -0,0 +1,51 @@
+package com.wordVectorRetrofit.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only matrix over a memory-mapped region of a binary vector file. Rows are decoded straight
+ * from the page cache into the caller's buffer; nothing is loaded onto the heap up front.
+ */
+class MappedMatrix extends SegmentedMatrix {
+
+    private final int rows;
+
+    private MappedMatrix(Precision precision, int dimension, int rows) {
+        super(precision, dimension);
+        this.rows = rows;
+    }
+
+    static MappedMatrix map(FileChannel channel, long offset, int rows, int dimension, Precision precision)
+            throws IOException {
+        MappedMatrix matrix = new MappedMatrix(precision, dimension, rows);
+        if (offset < 0 || (long) rows * matrix.rowBytes > channel.size() - offset) {
+            throw new IOException("Matrix of " + rows + " rows at offset " + offset + " does not fit in the "
+                    + channel.size() + " byte file");
+        }
+        int segmentCount = Math.max(1, (rows + matrix.rowsPerSegment - 1) / matrix.rowsPerSegment);
+        matrix.segments = new ByteBuffer[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            long firstRow = (long) s * matrix.rowsPerSegment;
+            long segmentRows = Math.min(matrix.rowsPerSegment, rows - firstRow);
+            matrix.segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                            offset + firstRow * matrix.rowBytes, segmentRows * matrix.rowBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return matrix;
+    }
+
+    @Override
+    public void write(int row, double[] source, int offset) {
+        throw new UnsupportedOperationException("Memory-mapped vectors are read-only");
+    }
+
+    @Override
+    public void ensureRows(int rows) {
+        if (rows > this.rows) {
+            throw new UnsupportedOperationException("Memory-mapped vectors are read-only");
+        }
+    }
+}
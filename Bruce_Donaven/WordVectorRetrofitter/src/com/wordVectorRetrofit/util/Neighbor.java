@@ -0,0 +1,34 @@
+package com.wordVectorRetrofit.util;
+
+/**
+ * One result of a nearest-neighbor query: a word, its row and its cosine similarity to the query.
+ */
+public class Neighbor {
+
+    private final String word;
+    private final int row;
+    private final double similarity;
+
+    public Neighbor(String word, int row, double similarity) {
+        this.word = word;
+        this.row = row;
+        this.similarity = similarity;
+    }
+
+    public String getWord() {
+        return word;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public double getSimilarity() {
+        return similarity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%.4f)", word, similarity);
+    }
+}
@@ -0,0 +1,260 @@
+package com.wordVectorRetrofit.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lexicon resolved against a vector vocabulary into a compressed sparse row graph of row ids.
+ *
+ * Nodes are the lexicon words that have a vector, in row order. The neighbors of node {@code n}
+ * are {@code neighborRows[offsets[n]] .. neighborRows[offsets[n + 1] - 1]}, in lexicon order.
+ * Neighbors without a vector are dropped and counted once here, so the retrofitting, evaluation and
+ * filtering stages only work on int arrays. Row ids stay valid for copies of the store the graph
+ * was built against, since {@link VectorStore#copy()} keeps the row order.
+ */
+public class NeighborGraph {
+
+    private final Vocabulary vocabulary;
+    private final int[] rows;
+    private final int[] nodeOfRow;
+    private final int[] offsets;
+    private final int[] neighborRows;
+    private final int droppedNeighbors;
+    private final int isolatedNodes;
+
+    private NeighborGraph(Vocabulary vocabulary, int[] rows, int[] nodeOfRow, int[] offsets, int[] neighborRows,
+                          int droppedNeighbors, int isolatedNodes) {
+        this.vocabulary = vocabulary;
+        this.rows = rows;
+        this.nodeOfRow = nodeOfRow;
+        this.offsets = offsets;
+        this.neighborRows = neighborRows;
+        this.droppedNeighbors = droppedNeighbors;
+        this.isolatedNodes = isolatedNodes;
+    }
+
+    /**
+     * Resolves the lexicon against the vocabulary of {@code vectors}.
+     */
+    public static NeighborGraph build(Map<String, List<String>> lexicon, VectorStore vectors) {
+        Vocabulary vocabulary = vectors.vocabulary();
+        int[] rows = VectorProcessor.lexiconRows(vectors, lexicon);
+        int[] nodeOfRow = new int[vocabulary.size()];
+        Arrays.fill(nodeOfRow, -1);
+        for (int node = 0; node < rows.length; node++) {
+            nodeOfRow[rows[node]] = node;
+        }
+
+        int[] offsets = new int[rows.length + 1];
+        int[] neighborRows = new int[Math.max(16, rows.length * 4)];
+        int edges = 0;
+        int dropped = 0;
+        int isolated = 0;
+        for (int node = 0; node < rows.length; node++) {
+            List<String> neighbors = lexicon.get(vocabulary.word(rows[node]));
+            int before = edges;
+            if (neighbors != null) {
+                for (String neighbor : neighbors) {
+                    int neighborRow = vocabulary.indexOf(neighbor);
+                    if (neighborRow < 0) {
+                        dropped++;
+                        continue;
+                    }
+                    if (edges == neighborRows.length) {
+                        neighborRows = Arrays.copyOf(neighborRows, edges * 2);
+                    }
+                    neighborRows[edges++] = neighborRow;
+                }
+            }
+            if (edges == before) {
+                isolated++;
+            }
+            offsets[node + 1] = edges;
+        }
+
+        NeighborGraph graph = new NeighborGraph(vocabulary, rows, nodeOfRow, offsets,
+                Arrays.copyOf(neighborRows, edges), dropped, isolated);
+        LoggerUtil.log(String.format("Neighbor graph built: %d nodes, %d edges, %d unknown neighbors dropped, "
+                + "%d words without known neighbors.", rows.length, edges, dropped, isolated));
+        return graph;
+    }
+
+    /**
+     * Nodes whose retrofitted vector depends on any of {@code seedRows} within {@code hops} edges: the
+     * seed rows that are nodes themselves plus every node that reaches a seed by following neighbor
+     * edges. A negative {@code hops} follows edges without limit, giving every node that can be
+     * affected at all.
+     *
+     * @return Affected nodes in ascending order.
+     */
+    public int[] affectedNodes(int[] seedRows, int hops) {
+        // Incoming edges by row: the nodes that list each row as a neighbor.
+        int[] inOffsets = new int[nodeOfRow.length + 1];
+        for (int neighborRow : neighborRows) {
+            inOffsets[neighborRow + 1]++;
+        }
+        for (int row = 0; row < nodeOfRow.length; row++) {
+            inOffsets[row + 1] += inOffsets[row];
+        }
+        int[] inNodes = new int[neighborRows.length];
+        int[] fill = Arrays.copyOf(inOffsets, nodeOfRow.length);
+        for (int node = 0; node < rows.length; node++) {
+            for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+                inNodes[fill[neighborRows[edge]]++] = node;
+            }
+        }
+
+        boolean[] affected = new boolean[rows.length];
+        int[] frontier = new int[rows.length];
+        int frontierSize = 0;
+        for (int row : seedRows) {
+            int node = nodeOf(row);
+            if (node >= 0 && !affected[node]) {
+                affected[node] = true;
+                frontier[frontierSize++] = node;
+            }
+        }
+        // Seeds that are no longer nodes (words removed from the lexicon) still affect the nodes citing them.
+        int[] next = new int[rows.length];
+        int nextSize = 0;
+        if (hops != 0) {
+            for (int row : seedRows) {
+                if (row >= 0 && row < nodeOfRow.length && nodeOfRow[row] < 0) {
+                    for (int i = inOffsets[row]; i < inOffsets[row + 1]; i++) {
+                        if (!affected[inNodes[i]]) {
+                            affected[inNodes[i]] = true;
+                            next[nextSize++] = inNodes[i];
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int hop = 1; hop != hops + 1 && frontierSize + nextSize > 0; hop++) {
+            for (int f = 0; f < frontierSize; f++) {
+                int row = rows[frontier[f]];
+                for (int i = inOffsets[row]; i < inOffsets[row + 1]; i++) {
+                    if (!affected[inNodes[i]]) {
+                        affected[inNodes[i]] = true;
+                        next[nextSize++] = inNodes[i];
+                    }
+                }
+            }
+            int[] swap = frontier;
+            frontier = next;
+            next = swap;
+            frontierSize = nextSize;
+            nextSize = 0;
+        }
+
+        int count = 0;
+        int[] result = new int[rows.length];
+        for (int node = 0; node < rows.length; node++) {
+            if (affected[node]) {
+                result[count++] = node;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Graph of the given nodes only, each with all of its neighbors. Neighbors that are left out
+     * become fixed rows, like neighbors outside the lexicon.
+     *
+     * @param nodes Nodes to keep, in ascending order.
+     */
+    NeighborGraph subgraph(int[] nodes) {
+        int[] subRows = new int[nodes.length];
+        int[] subNodeOfRow = new int[nodeOfRow.length];
+        Arrays.fill(subNodeOfRow, -1);
+        int[] subOffsets = new int[nodes.length + 1];
+        int edges = 0;
+        int isolated = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            subRows[i] = rows[nodes[i]];
+            subNodeOfRow[subRows[i]] = i;
+            edges += degree(nodes[i]);
+            subOffsets[i + 1] = edges;
+            if (degree(nodes[i]) == 0) {
+                isolated++;
+            }
+        }
+        int[] subNeighborRows = new int[edges];
+        for (int i = 0; i < nodes.length; i++) {
+            System.arraycopy(neighborRows, offsets[nodes[i]], subNeighborRows, subOffsets[i], degree(nodes[i]));
+        }
+        return new NeighborGraph(vocabulary, subRows, subNodeOfRow, subOffsets, subNeighborRows, 0, isolated);
+    }
+
+    public Vocabulary vocabulary() {
+        return vocabulary;
+    }
+
+    public int nodeCount() {
+        return rows.length;
+    }
+
+    public int edgeCount() {
+        return neighborRows.length;
+    }
+
+    /** Vector row of a node. */
+    public int row(int node) {
+        return rows[node];
+    }
+
+    /** Node of a vector row, or -1 if the word is not in the lexicon. */
+    public int nodeOf(int row) {
+        return row < nodeOfRow.length ? nodeOfRow[row] : -1;
+    }
+
+    public int degree(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
+
+    /** Index of the node's first edge in {@link #neighborRow(int)}. */
+    public int firstEdge(int node) {
+        return offsets[node];
+    }
+
+    public int neighborRow(int edge) {
+        return neighborRows[edge];
+    }
+
+    /** Node an edge starts from. */
+    public int nodeOfEdge(int edge) {
+        // Nodes without edges share their offset with the next node; the last one of a run owns the edge.
+        int low = 0;
+        int high = rows.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= edge) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public int droppedNeighbors() {
+        return droppedNeighbors;
+    }
+
+    public int isolatedNodes() {
+        return isolatedNodes;
+    }
+
+    int[] rows() {
+        return rows;
+    }
+
+    int[] offsets() {
+        return offsets;
+    }
+
+    int[] neighborRows() {
+        return neighborRows;
+    }
+}
@@ -0,0 +1,170 @@
+package com.wordVectorRetrofit.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Matrix that replaces a few rows of a read-only base matrix. The replaced rows live in a small
+ * heap matrix; every other row is read straight from the base, which is usually memory-mapped,
+ * so a store with millions of rows costs memory only for the rows that changed.
+ */
+class OverlayMatrix implements VectorMatrix {
+
+    private final VectorMatrix base;
+    private final int rows;
+    /** Per row: its row in {@link #overlay}, or -1 to read it from the base. */
+    private final int[] slots;
+    /** The replaced rows in ascending order. */
+    private final int[] overlayRows;
+    private final HeapMatrix overlay;
+
+    /**
+     * @param base        Matrix holding every row that is not replaced.
+     * @param rows        Number of rows, at most what the base holds.
+     * @param replaced    Rows to replace, in any order; they start out with the base values.
+     * @param precision   Storage precision of the replaced rows.
+     */
+    OverlayMatrix(VectorMatrix base, int rows, int[] replaced, Precision precision) {
+        if (base instanceof OverlayMatrix) {
+            throw new IllegalArgumentException("Use extend() to overlay an overlay");
+        }
+        this.base = base;
+        this.rows = rows;
+        this.overlayRows = Arrays.stream(replaced).sorted().distinct().toArray();
+        this.slots = new int[rows];
+        Arrays.fill(slots, -1);
+        this.overlay = new HeapMatrix(precision, base.dimension(), overlayRows.length);
+        overlay.ensureRows(overlayRows.length);
+        double[] buffer = new double[base.dimension()];
+        for (int slot = 0; slot < overlayRows.length; slot++) {
+            slots[overlayRows[slot]] = slot;
+            base.read(overlayRows[slot], buffer);
+            overlay.write(slot, buffer, 0);
+        }
+    }
+
+    /**
+     * Returns an overlay on the same base that also replaces {@code replaced}. Rows already replaced
+     * here keep their current values.
+     */
+    OverlayMatrix extend(int[] replaced, Precision precision) {
+        int[] union = Arrays.copyOf(overlayRows, overlayRows.length + replaced.length);
+        System.arraycopy(replaced, 0, union, overlayRows.length, replaced.length);
+        OverlayMatrix extended = new OverlayMatrix(base, rows, union, precision);
+        double[] buffer = new double[base.dimension()];
+        for (int slot = 0; slot < overlayRows.length; slot++) {
+            overlay.read(slot, buffer);
+            extended.write(overlayRows[slot], buffer, 0);
+        }
+        return extended;
+    }
+
+    /** Number of rows held on the heap. */
+    int overlayRowCount() {
+        return overlayRows.length;
+    }
+
+    /** The replaced rows in ascending order; callers must not modify the array. */
+    int[] overlayRows() {
+        return overlayRows;
+    }
+
+    VectorMatrix base() {
+        return base;
+    }
+
+    @Override
+    public int dimension() {
+        return base.dimension();
+    }
+
+    @Override
+    public Precision precision() {
+        return overlay.precision();
+    }
+
+    @Override
+    public void read(int row, double[] target) {
+        int slot = slots[row];
+        if (slot >= 0) {
+            overlay.read(slot, target);
+        } else {
+            base.read(row, target);
+        }
+    }
+
+    @Override
+    public void readRows(int firstRow, int count, double[] target, int targetOffset) {
+        base.readRows(firstRow, count, target, targetOffset);
+        int dimension = base.dimension();
+        double[] buffer = null;
+        int end = firstRow + count;
+        for (int i = firstOverlayAtOrAfter(firstRow); i < overlayRows.length && overlayRows[i] < end; i++) {
+            if (buffer == null) {
+                buffer = new double[dimension];
+            }
+            overlay.read(i, buffer);
+            System.arraycopy(buffer, 0, target, targetOffset + (overlayRows[i] - firstRow) * dimension, dimension);
+        }
+    }
+
+    @Override
+    public boolean copyEncoded(int firstRow, int count, ByteBuffer target) {
+        if (base.precision() != overlay.precision()) {
+            return false;
+        }
+        int row = firstRow;
+        int end = firstRow + count;
+        for (int i = firstOverlayAtOrAfter(firstRow); row < end; i++) {
+            int next = i < overlayRows.length ? Math.min(overlayRows[i], end) : end;
+            if (next > row && !base.copyEncoded(row, next - row, target)) {
+                return false;
+            }
+            if (next < end) {
+                overlay.copyEncoded(i, 1, target);
+                next++;
+            }
+            row = next;
+        }
+        return true;
+    }
+
+    private int firstOverlayAtOrAfter(int row) {
+        int i = Arrays.binarySearch(overlayRows, row);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    @Override
+    public void write(int row, double[] source, int offset) {
+        int slot = slots[row];
+        if (slot < 0) {
+            throw new UnsupportedOperationException("Row " + row + " is not part of the overlay and is read-only");
+        }
+        overlay.write(slot, source, offset);
+    }
+
+    @Override
+    public double get(int row, int column) {
+        int slot = slots[row];
+        return slot >= 0 ? overlay.get(slot, column) : base.get(row, column);
+    }
+
+    @Override
+    public void ensureRows(int rows) {
+        if (rows > this.rows) {
+            throw new UnsupportedOperationException("Overlay vectors cannot grow");
+        }
+    }
+
+    @Override
+    public VectorMatrix copy(int rows, Precision precision) {
+        HeapMatrix copy = new HeapMatrix(precision, base.dimension(), rows);
+        copy.ensureRows(rows);
+        double[] buffer = new double[base.dimension()];
+        for (int row = 0; row < rows; row++) {
+            read(row, buffer);
+            copy.write(row, buffer, 0);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,225 @@
+package com.wordVectorRetrofit.util;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Linear projection onto the first principal components of one or more stores.
+ *
+ * The basis is fitted once on a pooled sample of all the stores, so points projected from each
+ * of them share the same axes and can be compared. Samples of up to {@link #EXACT_ROWS} rows get
+ * an exact SVD; larger ones a randomized SVD (Halko, Martinsson and Tropp): the sample is
+ * multiplied by a random Gaussian matrix, sharpened with a few power iterations and reduced to a
+ * small matrix whose SVD gives the leading axes. Each axis is signed so that its largest entry is
+ * positive, which keeps plots from flipping between fits.
+ */
+public class PcaProjection {
+
+    public static final int DEFAULT_SAMPLE_ROWS = 20000;
+    static final int EXACT_ROWS = 2000;
+    private static final int OVERSAMPLING = 10;
+    private static final int POWER_ITERATIONS = 2;
+    private static final int BLOCK_ROWS = 256;
+
+    private final double[] mean;
+    /** components x dimension, orthonormal rows. */
+    private final double[][] axes;
+    private final double[] explainedVariance;
+
+    private PcaProjection(double[] mean, double[][] axes, double[] explainedVariance) {
+        this.mean = mean;
+        this.axes = axes;
+        this.explainedVariance = explainedVariance;
+    }
+
+    /**
+     * Fits the first {@code components} principal axes on up to {@code sampleRows} rows drawn
+     * uniformly from all the stores together, which must have the same dimension.
+     */
+    public static PcaProjection fit(int components, int sampleRows, long seed, VectorStore... stores) {
+        int dimension = stores[0].dimension();
+        long totalRows = 0;
+        for (VectorStore store : stores) {
+            if (store.dimension() != dimension) {
+                throw new IllegalArgumentException("Stores have different dimensions: " + dimension + " and " + store.dimension());
+            }
+            totalRows += store.size();
+        }
+        if (components < 1 || components > dimension) {
+            throw new IllegalArgumentException("Components must be between 1 and " + dimension + ": " + components);
+        }
+
+        Random random = new Random(seed);
+        double[][] sample = sample(stores, (int) Math.min(sampleRows, totalRows), totalRows, random);
+        int n = sample.length;
+        if (n < 2) {
+            throw new IllegalArgumentException("At least two vectors are needed to fit a projection");
+        }
+
+        double[] mean = new double[dimension];
+        for (double[] row : sample) {
+            for (int d = 0; d < dimension; d++) {
+                mean[d] += row[d];
+            }
+        }
+        double totalVariance = 0;
+        for (int d = 0; d < dimension; d++) {
+            mean[d] /= n;
+        }
+        for (double[] row : sample) {
+            for (int d = 0; d < dimension; d++) {
+                row[d] -= mean[d];
+                totalVariance += row[d] * row[d];
+            }
+        }
+
+        RealMatrix x = new Array2DRowRealMatrix(sample, false);
+        RealMatrix v;
+        double[] singularValues;
+        if (n <= EXACT_ROWS) {
+            SingularValueDecomposition svd = new SingularValueDecomposition(x);
+            v = svd.getV();
+            singularValues = svd.getSingularValues();
+        } else {
+            int width = Math.min(dimension, components + OVERSAMPLING);
+            double[][] omega = new double[dimension][width];
+            for (double[] row : omega) {
+                for (int j = 0; j < width; j++) {
+                    row[j] = random.nextGaussian();
+                }
+            }
+            RealMatrix q = orthonormalize(x.multiply(new Array2DRowRealMatrix(omega, false)));
+            for (int i = 0; i < POWER_ITERATIONS; i++) {
+                RealMatrix z = orthonormalize(x.transpose().multiply(q));
+                q = orthonormalize(x.multiply(z));
+            }
+            SingularValueDecomposition svd = new SingularValueDecomposition(q.transpose().multiply(x));
+            v = svd.getV();
+            singularValues = svd.getSingularValues();
+        }
+
+        int fitted = Math.min(components, singularValues.length);
+        double[][] axes = new double[fitted][];
+        double[] explained = new double[fitted];
+        for (int c = 0; c < fitted; c++) {
+            double[] axis = v.getColumn(c);
+            int largest = 0;
+            for (int d = 1; d < dimension; d++) {
+                if (Math.abs(axis[d]) > Math.abs(axis[largest])) {
+                    largest = d;
+                }
+            }
+            if (axis[largest] < 0) {
+                for (int d = 0; d < dimension; d++) {
+                    axis[d] = -axis[d];
+                }
+            }
+            axes[c] = axis;
+            explained[c] = totalVariance > 0 ? singularValues[c] * singularValues[c] / totalVariance : 0;
+        }
+        return new PcaProjection(mean, axes, explained);
+    }
+
+    /**
+     * Draws {@code count} distinct rows uniformly from the concatenation of the stores.
+     */
+    private static double[][] sample(VectorStore[] stores, int count, long totalRows, Random random) {
+        BitSet chosen = new BitSet();
+        if (count == totalRows) {
+            chosen.set(0, (int) totalRows);
+        } else {
+            // Floyd's algorithm: exactly count distinct indices without materializing a permutation.
+            for (long j = totalRows - count; j < totalRows; j++) {
+                int index = (int) (random.nextDouble() * (j + 1));
+                chosen.set(chosen.get(index) ? (int) j : index);
+            }
+        }
+        double[][] sample = new double[count][];
+        int next = 0;
+        long offset = 0;
+        for (VectorStore store : stores) {
+            for (int i = chosen.nextSetBit((int) offset); i >= 0 && i < offset + store.size(); i = chosen.nextSetBit(i + 1)) {
+                sample[next] = new double[store.dimension()];
+                store.readRow((int) (i - offset), sample[next++]);
+            }
+            offset += store.size();
+        }
+        return sample;
+    }
+
+    /** Modified Gram-Schmidt on the columns; returns a matrix with orthonormal columns. */
+    private static RealMatrix orthonormalize(RealMatrix m) {
+        int rows = m.getRowDimension();
+        int columns = m.getColumnDimension();
+        double[][] q = new double[columns][];
+        for (int j = 0; j < columns; j++) {
+            double[] column = m.getColumn(j);
+            for (int i = 0; i < j; i++) {
+                double dot = VectorKernels.dot(q[i], column);
+                for (int r = 0; r < rows; r++) {
+                    column[r] -= dot * q[i][r];
+                }
+            }
+            double norm = Math.sqrt(VectorKernels.dot(column, column));
+            for (int r = 0; r < rows; r++) {
+                column[r] = norm > 1e-12 ? column[r] / norm : 0;
+            }
+            q[j] = column;
+        }
+        return new Array2DRowRealMatrix(q, false).transpose();
+    }
+
+    public int components() {
+        return axes.length;
+    }
+
+    /** Fraction of the sample's variance along each axis. */
+    public double[] explainedVariance() {
+        return explainedVariance.clone();
+    }
+
+    public double[] project(double[] vector) {
+        double[] point = new double[axes.length];
+        for (int c = 0; c < axes.length; c++) {
+            double sum = 0;
+            for (int d = 0; d < mean.length; d++) {
+                sum += (vector[d] - mean[d]) * axes[c][d];
+            }
+            point[c] = sum;
+        }
+        return point;
+    }
+
+    /**
+     * Projects every row of the store in parallel. Returns row-major coordinates:
+     * {@code components()} values per row.
+     */
+    public double[] project(VectorStore vectors) {
+        int size = vectors.size();
+        int dimension = vectors.dimension();
+        int components = axes.length;
+        double[] points = new double[size * components];
+        int blocks = (size + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+            int first = block * BLOCK_ROWS;
+            int count = Math.min(BLOCK_ROWS, size - first);
+            double[] rows = new double[count * dimension];
+            vectors.readRows(first, count, rows, 0);
+            for (int i = 0; i < count; i++) {
+                int base = i * dimension;
+                for (int d = 0; d < dimension; d++) {
+                    rows[base + d] -= mean[d];
+                }
+                for (int c = 0; c < components; c++) {
+                    points[(first + i) * components + c] = VectorKernels.dot(rows, base, axes[c], 0, dimension);
+                }
+            }
+        });
+        return points;
+    }
+}
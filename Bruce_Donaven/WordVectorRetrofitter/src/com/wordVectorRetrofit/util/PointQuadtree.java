@@ -0,0 +1,295 @@
+package com.wordVectorRetrofit.util;
+
+import java.util.Arrays;
+
+/**
+ * Static quadtree over two-dimensional points, stored in flat arrays.
+ *
+ * Every node keeps the tight bounds, count and centroid of its points, so a view can be drawn at
+ * a level of detail: subtrees smaller than a screen cell are reported as one weighted cluster
+ * instead of point by point, which bounds the work per frame by the number of cells rather than
+ * the number of points. Leaves hold up to {@link #LEAF_SIZE} points; the point indices are
+ * permuted so each node's points are a contiguous range.
+ */
+public class PointQuadtree {
+
+    static final int LEAF_SIZE = 32;
+    private static final int MAX_DEPTH = 24;
+
+    private final double[] points;
+    /** Point indices, grouped by node. */
+    private final int[] order;
+    private int nodes = 0;
+    private double[] minX = new double[64];
+    private double[] minY = new double[64];
+    private double[] maxX = new double[64];
+    private double[] maxY = new double[64];
+    private double[] centroidX = new double[64];
+    private double[] centroidY = new double[64];
+    /** Range of {@link #order} covered by each node. */
+    private int[] start = new int[64];
+    private int[] end = new int[64];
+    /** Index of the first of four consecutive children, or -1 for a leaf. */
+    private int[] firstChild = new int[64];
+
+    /**
+     * @param points Row-major coordinates: x and y of point {@code i} at {@code 2i} and {@code 2i + 1}.
+     */
+    public PointQuadtree(double[] points) {
+        this.points = points;
+        int count = points.length / 2;
+        this.order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        int root = allocate();
+        build(root, 0, count, 0);
+    }
+
+    public int size() {
+        return order.length;
+    }
+
+    public double x(int point) {
+        return points[2 * point];
+    }
+
+    public double y(int point) {
+        return points[2 * point + 1];
+    }
+
+    /** Bounds of all points as {minX, minY, maxX, maxY}, or null if there are none. */
+    public double[] bounds() {
+        return order.length == 0 ? null : new double[]{minX[0], minY[0], maxX[0], maxY[0]};
+    }
+
+    private int allocate() {
+        if (nodes == start.length) {
+            int capacity = nodes * 2;
+            minX = Arrays.copyOf(minX, capacity);
+            minY = Arrays.copyOf(minY, capacity);
+            maxX = Arrays.copyOf(maxX, capacity);
+            maxY = Arrays.copyOf(maxY, capacity);
+            centroidX = Arrays.copyOf(centroidX, capacity);
+            centroidY = Arrays.copyOf(centroidY, capacity);
+            start = Arrays.copyOf(start, capacity);
+            end = Arrays.copyOf(end, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+        }
+        return nodes++;
+    }
+
+    private void build(int node, int from, int to, int depth) {
+        start[node] = from;
+        end[node] = to;
+        firstChild[node] = -1;
+        double x0 = Double.POSITIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY;
+        double y1 = Double.NEGATIVE_INFINITY;
+        double sumX = 0;
+        double sumY = 0;
+        for (int i = from; i < to; i++) {
+            double x = x(order[i]);
+            double y = y(order[i]);
+            x0 = Math.min(x0, x);
+            y0 = Math.min(y0, y);
+            x1 = Math.max(x1, x);
+            y1 = Math.max(y1, y);
+            sumX += x;
+            sumY += y;
+        }
+        minX[node] = x0;
+        minY[node] = y0;
+        maxX[node] = x1;
+        maxY[node] = y1;
+        centroidX[node] = to > from ? sumX / (to - from) : 0;
+        centroidY[node] = to > from ? sumY / (to - from) : 0;
+        if (to - from <= LEAF_SIZE || depth >= MAX_DEPTH || (x0 == x1 && y0 == y1)) {
+            return;
+        }
+
+        // Split at the middle of the bounds: first on y, then each half on x.
+        double midX = (x0 + x1) / 2;
+        double midY = (y0 + y1) / 2;
+        int splitY = partition(from, to, midY, false);
+        int splitLow = partition(from, splitY, midX, true);
+        int splitHigh = partition(splitY, to, midX, true);
+        int first = nodes;
+        for (int c = 0; c < 4; c++) {
+            allocate();
+        }
+        firstChild[node] = first;
+        build(first, from, splitLow, depth + 1);
+        build(first + 1, splitLow, splitY, depth + 1);
+        build(first + 2, splitY, splitHigh, depth + 1);
+        build(first + 3, splitHigh, to, depth + 1);
+    }
+
+    /** Moves the points below {@code split} on the axis to the front of the range; returns where the rest start. */
+    private int partition(int from, int to, double split, boolean onX) {
+        int i = from;
+        int j = to - 1;
+        while (i <= j) {
+            double value = onX ? x(order[i]) : y(order[i]);
+            if (value < split) {
+                i++;
+            } else {
+                int swap = order[i];
+                order[i] = order[j];
+                order[j--] = swap;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Returns the point closest to {@code (x, y)} within {@code maxDistance}, or -1 if there is none.
+     */
+    public int nearest(double x, double y, double maxDistance) {
+        if (order.length == 0) {
+            return -1;
+        }
+        double[] best = {maxDistance * maxDistance};
+        int[] bestPoint = {-1};
+        nearest(0, x, y, best, bestPoint);
+        return bestPoint[0];
+    }
+
+    private void nearest(int node, double x, double y, double[] best, int[] bestPoint) {
+        if (end[node] == start[node] || distanceSquared(node, x, y) > best[0]) {
+            return;
+        }
+        int child = firstChild[node];
+        if (child < 0) {
+            for (int i = start[node]; i < end[node]; i++) {
+                double dx = x(order[i]) - x;
+                double dy = y(order[i]) - y;
+                double d = dx * dx + dy * dy;
+                if (d <= best[0]) {
+                    best[0] = d;
+                    bestPoint[0] = order[i];
+                }
+            }
+            return;
+        }
+        for (int c = 0; c < 4; c++) {
+            nearest(child + c, x, y, best, bestPoint);
+        }
+    }
+
+    private double distanceSquared(int node, double x, double y) {
+        double dx = Math.max(0, Math.max(minX[node] - x, x - maxX[node]));
+        double dy = Math.max(0, Math.max(minY[node] - y, y - maxY[node]));
+        return dx * dx + dy * dy;
+    }
+
+    /** Number of points inside the rectangle, counting whole subtrees where possible. */
+    public int count(double x0, double y0, double x1, double y1) {
+        return order.length == 0 ? 0 : count(0, x0, y0, x1, y1);
+    }
+
+    private int count(int node, double x0, double y0, double x1, double y1) {
+        if (end[node] == start[node] || maxX[node] < x0 || minX[node] > x1 || maxY[node] < y0 || minY[node] > y1) {
+            return 0;
+        }
+        if (minX[node] >= x0 && maxX[node] <= x1 && minY[node] >= y0 && maxY[node] <= y1) {
+            return end[node] - start[node];
+        }
+        int child = firstChild[node];
+        if (child < 0) {
+            int count = 0;
+            for (int i = start[node]; i < end[node]; i++) {
+                double x = x(order[i]);
+                double y = y(order[i]);
+                if (x >= x0 && x <= x1 && y >= y0 && y <= y1) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        int count = 0;
+        for (int c = 0; c < 4; c++) {
+            count += count(child + c, x0, y0, x1, y1);
+        }
+        return count;
+    }
+
+    /**
+     * Visits the points in the rectangle. Subtrees whose extent is below {@code cellSize} in both
+     * directions are reported once, at their centroid, as a cluster of all their points; use 0 to
+     * get every point.
+     */
+    public void visit(double x0, double y0, double x1, double y1, double cellSize, Visitor visitor) {
+        if (order.length > 0) {
+            visit(0, x0, y0, x1, y1, cellSize, visitor);
+        }
+    }
+
+    private void visit(int node, double x0, double y0, double x1, double y1, double cellSize, Visitor visitor) {
+        if (end[node] == start[node] || maxX[node] < x0 || minX[node] > x1 || maxY[node] < y0 || minY[node] > y1) {
+            return;
+        }
+        int count = end[node] - start[node];
+        if (count > 1 && maxX[node] - minX[node] < cellSize && maxY[node] - minY[node] < cellSize) {
+            visitor.cluster(count, centroidX[node], centroidY[node]);
+            return;
+        }
+        int child = firstChild[node];
+        if (child < 0) {
+            for (int i = start[node]; i < end[node]; i++) {
+                double x = x(order[i]);
+                double y = y(order[i]);
+                if (x >= x0 && x <= x1 && y >= y0 && y <= y1) {
+                    visitor.point(order[i], x, y);
+                }
+            }
+            return;
+        }
+        for (int c = 0; c < 4; c++) {
+            visit(child + c, x0, y0, x1, y1, cellSize, visitor);
+        }
+    }
+
+    /**
+     * Barnes-Hut traversal around {@code (x, y)}: subtrees whose larger side is below
+     * {@code theta} times their centroid's distance from {@code (x, y)} are reported as clusters,
+     * everything closer point by point, including any point at {@code (x, y)} itself.
+     */
+    public void visitFar(double x, double y, double theta, Visitor visitor) {
+        if (order.length > 0) {
+            visitFar(0, x, y, theta * theta, visitor);
+        }
+    }
+
+    private void visitFar(int node, double x, double y, double thetaSquared, Visitor visitor) {
+        int count = end[node] - start[node];
+        if (count == 0) {
+            return;
+        }
+        double side = Math.max(maxX[node] - minX[node], maxY[node] - minY[node]);
+        double dx = centroidX[node] - x;
+        double dy = centroidY[node] - y;
+        if (count > 1 && side * side < thetaSquared * (dx * dx + dy * dy)) {
+            visitor.cluster(count, centroidX[node], centroidY[node]);
+            return;
+        }
+        int child = firstChild[node];
+        if (child < 0) {
+            for (int i = start[node]; i < end[node]; i++) {
+                visitor.point(order[i], x(order[i]), y(order[i]));
+            }
+            return;
+        }
+        for (int c = 0; c < 4; c++) {
+            visitFar(child + c, x, y, thetaSquared, visitor);
+        }
+    }
+
+    public interface Visitor {
+        void point(int index, double x, double y);
+
+        /** {@code count} points around {@code (x, y)}, closer together than the cell size. */
+        void cluster(int count, double x, double y);
+    }
+}
@@ -0,0 +1,232 @@
+package com.wordVectorRetrofit.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Storage precision of vector components. Rows are always encoded from and decoded to doubles,
+ * so arithmetic stays in double precision whatever the storage type.
+ *
+ * INT8 rows are prefixed with a float scale (max |value| / 127) and hold one signed byte per
+ * component. Buffers passed to the codec methods must be little-endian.
+ */
+public enum Precision {
+    FLOAT64(1, Double.BYTES),
+    FLOAT32(2, Float.BYTES),
+    FLOAT16(3, Short.BYTES),
+    INT8(4, Byte.BYTES);
+
+    public static final Precision DEFAULT = FLOAT32;
+
+    private final int code;
+    private final int bytesPerValue;
+
+    Precision(int code, int bytesPerValue) {
+        this.code = code;
+        this.bytesPerValue = bytesPerValue;
+    }
+
+    /** Identifier used in the binary vector format header. */
+    public int code() {
+        return code;
+    }
+
+    public static Precision fromCode(int code) {
+        for (Precision precision : values()) {
+            if (precision.code == code) {
+                return precision;
+            }
+        }
+        throw new IllegalArgumentException("Unknown precision code: " + code);
+    }
+
+    public int rowBytes(int dimension) {
+        return this == INT8 ? Float.BYTES + dimension : dimension * bytesPerValue;
+    }
+
+    public boolean isLossy() {
+        return this != FLOAT64;
+    }
+
+    /**
+     * Worst-case absolute error of a stored component against its double value, for rows whose
+     * largest absolute component is {@code maxAbs}.
+     */
+    public double errorBound(double maxAbs) {
+        switch (this) {
+            case FLOAT32:
+                return maxAbs * 0x1p-24;
+            case FLOAT16:
+                // Rounded to float first, then to half; the last term covers half-precision subnormals.
+                return maxAbs * (0x1p-11 + 0x1p-24) + 0x1p-25;
+            case INT8:
+                return maxAbs / 254 + maxAbs * 0x1p-22;
+            default:
+                return 0.0;
+        }
+    }
+
+    public void encode(double[] source, int sourceOffset, int dimension, ByteBuffer target, int targetOffset) {
+        switch (this) {
+            case FLOAT64:
+                for (int i = 0; i < dimension; i++) {
+                    target.putDouble(targetOffset + i * Double.BYTES, source[sourceOffset + i]);
+                }
+                break;
+            case FLOAT32:
+                for (int i = 0; i < dimension; i++) {
+                    target.putFloat(targetOffset + i * Float.BYTES, (float) source[sourceOffset + i]);
+                }
+                break;
+            case FLOAT16:
+                for (int i = 0; i < dimension; i++) {
+                    target.putShort(targetOffset + i * Short.BYTES, floatToHalf((float) source[sourceOffset + i]));
+                }
+                break;
+            case INT8:
+                double maxAbs = 0.0;
+                for (int i = 0; i < dimension; i++) {
+                    maxAbs = Math.max(maxAbs, Math.abs(source[sourceOffset + i]));
+                }
+                float scale = (float) (maxAbs / 127.0);
+                target.putFloat(targetOffset, scale);
+                for (int i = 0; i < dimension; i++) {
+                    long q = scale == 0f ? 0 : Math.round(source[sourceOffset + i] / scale);
+                    target.put(targetOffset + Float.BYTES + i, (byte) Math.max(-127, Math.min(127, q)));
+                }
+                break;
+        }
+    }
+
+    public void decode(ByteBuffer source, int sourceOffset, int dimension, double[] target) {
+        decode(source, sourceOffset, dimension, target, 0);
+    }
+
+    public void decode(ByteBuffer source, int sourceOffset, int dimension, double[] target, int targetOffset) {
+        switch (this) {
+            case FLOAT64:
+                for (int i = 0; i < dimension; i++) {
+                    target[targetOffset + i] = source.getDouble(sourceOffset + i * Double.BYTES);
+                }
+                break;
+            case FLOAT32:
+                for (int i = 0; i < dimension; i++) {
+                    target[targetOffset + i] = source.getFloat(sourceOffset + i * Float.BYTES);
+                }
+                break;
+            case FLOAT16:
+                for (int i = 0; i < dimension; i++) {
+                    target[targetOffset + i] = halfToFloat(source.getShort(sourceOffset + i * Short.BYTES));
+                }
+                break;
+            case INT8:
+                double scale = source.getFloat(sourceOffset);
+                for (int i = 0; i < dimension; i++) {
+                    target[targetOffset + i] = source.get(sourceOffset + Float.BYTES + i) * scale;
+                }
+                break;
+        }
+    }
+
+    /**
+     * Decodes {@code rows} consecutive rows. Float rows have no per-row header, so they are copied
+     * out with bulk gets, which are much faster than reading value by value.
+     */
+    public void decodeRows(ByteBuffer source, int sourceOffset, int rows, int dimension, double[] target, int targetOffset) {
+        int values = rows * dimension;
+        switch (this) {
+            case FLOAT64:
+                source.duplicate().order(ByteOrder.LITTLE_ENDIAN).clear().asDoubleBuffer()
+                        .get(sourceOffset / Double.BYTES, target, targetOffset, values);
+                break;
+            case FLOAT32:
+                FloatBuffer floats = source.duplicate().order(ByteOrder.LITTLE_ENDIAN).clear().asFloatBuffer();
+                float[] chunk = new float[Math.min(values, 4096)];
+                for (int done = 0; done < values; done += chunk.length) {
+                    int length = Math.min(chunk.length, values - done);
+                    floats.get(sourceOffset / Float.BYTES + done, chunk, 0, length);
+                    for (int i = 0; i < length; i++) {
+                        target[targetOffset + done + i] = chunk[i];
+                    }
+                }
+                break;
+            case FLOAT16:
+                for (int i = 0; i < values; i++) {
+                    target[targetOffset + i] = halfToFloat(source.getShort(sourceOffset + i * Short.BYTES));
+                }
+                break;
+            case INT8:
+                int rowBytes = rowBytes(dimension);
+                for (int row = 0; row < rows; row++) {
+                    decode(source, sourceOffset + row * rowBytes, dimension, target, targetOffset + row * dimension);
+                }
+                break;
+        }
+    }
+
+    public double decodeValue(ByteBuffer source, int rowOffset, int column) {
+        switch (this) {
+            case FLOAT64:
+                return source.getDouble(rowOffset + column * Double.BYTES);
+            case FLOAT32:
+                return source.getFloat(rowOffset + column * Float.BYTES);
+            case FLOAT16:
+                return halfToFloat(source.getShort(rowOffset + column * Short.BYTES));
+            default:
+                return source.get(rowOffset + Float.BYTES + column) * (double) source.getFloat(rowOffset);
+        }
+    }
+
+    /** IEEE 754 binary16 encoding with round-to-nearest-even. */
+    static short floatToHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+
+        if (exponent == 0xff) {
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1f) {
+            return (short) (sign | 0x7c00);
+        }
+        if (halfExponent <= 0) {
+            if (halfExponent < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - halfExponent;
+            int half = mantissa >> shift;
+            int remainder = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = (halfExponent << 10) | (mantissa >> 13);
+        int remainder = mantissa & 0x1fff;
+        if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+            half++; // may carry into the exponent, which rounds up to infinity correctly
+        }
+        return (short) (sign | half);
+    }
+
+    static float halfToFloat(short value) {
+        int bits = value & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+
+        if (exponent == 0) {
+            float magnitude = mantissa * 0x1p-24f;
+            return sign != 0 ? -magnitude : magnitude;
+        }
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+}
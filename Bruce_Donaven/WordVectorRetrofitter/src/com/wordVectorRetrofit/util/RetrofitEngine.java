@@ -0,0 +1,234 @@
+package com.wordVectorRetrofit.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Retrofitting over a {@link NeighborGraph} on dense double buffers of the lexicon rows. Neighbors
+ * outside the lexicon never change, so their weighted sum is computed once up front.
+ *
+ * In {@link RetrofitOptions.Mode#JACOBI} mode every iteration reads one buffer, writes the other and
+ * then swaps them. Rows are updated in fixed blocks with a fixed summation order, so the result is
+ * bit-for-bit the same for any number of threads. {@link RetrofitOptions.Mode#GAUSS_SEIDEL} updates
+ * the rows in place, sequentially, in row order.
+ *
+ * Each iteration measures the L2 change of every row. The run stops early once the largest change
+ * is within {@link RetrofitOptions#getTolerance()}, with the iteration count as the ceiling.
+ *
+ * The run polls {@link RetrofitProgress#isCancelled()} before every block of rows and stops with a
+ * {@link CancellationException} once it is set, leaving the input untouched.
+ *
+ * Only the lexicon rows and the rows they cite are ever read, so with memory-mapped vectors and
+ * {@link RetrofitOptions#isOutOfCore()} the rest of the vocabulary is never paged in.
+ */
+class RetrofitEngine {
+
+    private static final int BLOCK_ROWS = 256;
+
+    private final VectorStore originalVectors;
+    private final VectorStore initialVectors;
+    private final NeighborGraph graph;
+    private final RetrofitOptions options;
+    private final int dimension;
+    private final int nodes;
+
+    /** Per edge: the neighbor's node, or -1 for a neighbor outside the lexicon. */
+    private final int[] edgeNodes;
+    /** Per node: alpha * original row plus beta * the sum of neighbors outside the lexicon. */
+    private final double[] fixed;
+    private final double[] totalWeight;
+    /** Per node: squared L2 change of the row in the last iteration. */
+    private final double[] residuals;
+
+    private double[] current;
+    private double[] next;
+    private RetrofitProgress progress;
+
+    RetrofitEngine(VectorStore originalVectors, NeighborGraph graph, RetrofitOptions options) {
+        this(originalVectors, originalVectors, graph, options);
+    }
+
+    /**
+     * @param initialVectors Starting values of the nodes and the fixed values of every row outside
+     *                       the graph, in the same row order as {@code originalVectors}. The result
+     *                       is a copy of this store with the node rows replaced, or in out-of-core
+     *                       mode an overlay of the node rows on it.
+     */
+    RetrofitEngine(VectorStore originalVectors, VectorStore initialVectors, NeighborGraph graph, RetrofitOptions options) {
+        this.originalVectors = originalVectors;
+        this.initialVectors = initialVectors;
+        this.graph = graph;
+        this.options = options;
+        this.dimension = originalVectors.dimension();
+        this.nodes = graph.nodeCount();
+        this.edgeNodes = new int[graph.edgeCount()];
+        this.fixed = new double[nodes * dimension];
+        this.totalWeight = new double[nodes];
+        this.residuals = new double[nodes];
+        this.current = new double[nodes * dimension];
+        this.next = options.getMode() == RetrofitOptions.Mode.JACOBI ? new double[nodes * dimension] : null;
+        prepare();
+    }
+
+    private void prepare() {
+        double alpha = options.getAlpha();
+        double beta = options.getBeta();
+        int[] offsets = graph.offsets();
+        int[] neighborRows = graph.neighborRows();
+        double[] buffer = new double[dimension];
+
+        for (int node = 0; node < nodes; node++) {
+            int base = node * dimension;
+            originalVectors.readRow(graph.row(node), buffer);
+            for (int d = 0; d < dimension; d++) {
+                fixed[base + d] = alpha * buffer[d];
+            }
+            if (initialVectors != originalVectors) {
+                initialVectors.readRow(graph.row(node), buffer);
+            }
+            System.arraycopy(buffer, 0, current, base, dimension);
+            totalWeight[node] = alpha + beta * (offsets[node + 1] - offsets[node]);
+
+            for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+                int neighborNode = graph.nodeOf(neighborRows[edge]);
+                edgeNodes[edge] = neighborNode;
+                if (neighborNode < 0) {
+                    initialVectors.readRow(neighborRows[edge], buffer);
+                    VectorKernels.axpy(beta, buffer, 0, fixed, base, dimension);
+                }
+            }
+        }
+    }
+
+    VectorStore run(RetrofitProgress progress) {
+        this.progress = progress;
+        LoggerUtil.log("Retrofitting vocabulary size after intersection: " + nodes);
+        int numIterations = options.getNumIterations();
+        int blocks = (nodes + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        int updatedWords = nodes - graph.isolatedNodes();
+        double tolerance = options.getTolerance();
+
+        ForkJoinPool pool = new ForkJoinPool(options.getThreads());
+        try {
+            for (int iteration = 1; iteration <= numIterations; iteration++) {
+                LoggerUtil.log("Starting iteration " + iteration + " of retrofitting.");
+                if (options.getMode() == RetrofitOptions.Mode.JACOBI) {
+                    pool.submit(() -> IntStream.range(0, blocks).parallel().forEach(this::updateBlock)).get();
+                    double[] swap = current;
+                    current = next;
+                    next = swap;
+                } else {
+                    updateInPlace();
+                }
+                if (progress.isCancelled()) {
+                    LoggerUtil.log("Retrofitting cancelled during iteration " + iteration + ".");
+                    throw new CancellationException("Retrofitting was cancelled");
+                }
+
+                double maxSquared = 0.0;
+                double sum = 0.0;
+                for (int node = 0; node < nodes; node++) {
+                    maxSquared = Math.max(maxSquared, residuals[node]);
+                    sum += Math.sqrt(residuals[node]);
+                }
+                double maxResidual = Math.sqrt(maxSquared);
+                double meanResidual = updatedWords == 0 ? 0.0 : sum / updatedWords;
+
+                LoggerUtil.log(String.format("Iteration %d completed: Words updated: %d, max residual: %.3e, mean residual: %.3e",
+                        iteration, updatedWords, maxResidual, meanResidual));
+                progress.iterationCompleted(iteration, numIterations, maxResidual, meanResidual);
+                if (maxResidual <= tolerance) {
+                    LoggerUtil.log(String.format("Retrofitting converged after %d of %d iterations (tolerance %.1e).",
+                            iteration, numIterations, tolerance));
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Retrofitting was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Retrofitting failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        Precision precision = options.getPrecision() != null ? options.getPrecision() : initialVectors.precision();
+        VectorStore retrofittedVectors = output(initialVectors, graph.rows(), precision, options);
+        retrofittedVectors.setNormalized(false);
+        double[] buffer = new double[dimension];
+        for (int node = 0; node < nodes; node++) {
+            System.arraycopy(current, node * dimension, buffer, 0, dimension);
+            retrofittedVectors.writeRow(graph.row(node), buffer);
+        }
+        LoggerUtil.log("Retrofitting process completed.");
+        return retrofittedVectors;
+    }
+
+    /**
+     * Writable store with the values of {@code vectors} in which at least {@code rows} can be
+     * rewritten: an overlay on the mapped file in out-of-core mode, a full heap copy otherwise.
+     */
+    static VectorStore output(VectorStore vectors, int[] rows, Precision precision, RetrofitOptions options) {
+        if (options.isOutOfCore() && vectors.isMemoryMapped()) {
+            return vectors.overlay(rows, precision);
+        }
+        return vectors.copy(precision);
+    }
+
+    private void updateInPlace() {
+        double beta = options.getBeta();
+        int[] offsets = graph.offsets();
+        double[] row = new double[dimension];
+
+        for (int node = 0; node < nodes; node++) {
+            if (node % BLOCK_ROWS == 0 && progress.isCancelled()) {
+                return;
+            }
+            if (offsets[node] == offsets[node + 1]) {
+                continue;
+            }
+            int base = node * dimension;
+            System.arraycopy(fixed, base, row, 0, dimension);
+            for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+                int neighborNode = edgeNodes[edge];
+                if (neighborNode >= 0) {
+                    VectorKernels.axpy(beta, current, neighborNode * dimension, row, 0, dimension);
+                }
+            }
+            VectorKernels.scale(1.0 / totalWeight[node], row, 0, dimension);
+            residuals[node] = VectorKernels.distanceSquared(row, 0, current, base, dimension);
+            System.arraycopy(row, 0, current, base, dimension);
+        }
+    }
+
+    private void updateBlock(int block) {
+        if (progress.isCancelled()) {
+            return;
+        }
+        double beta = options.getBeta();
+        double[] source = current;
+        double[] target = next;
+        int[] offsets = graph.offsets();
+
+        int end = Math.min(nodes, (block + 1) * BLOCK_ROWS);
+        for (int node = block * BLOCK_ROWS; node < end; node++) {
+            int base = node * dimension;
+            if (offsets[node] == offsets[node + 1]) {
+                System.arraycopy(source, base, target, base, dimension);
+                continue;
+            }
+
+            System.arraycopy(fixed, base, target, base, dimension);
+            for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+                int neighborNode = edgeNodes[edge];
+                if (neighborNode >= 0) {
+                    VectorKernels.axpy(beta, source, neighborNode * dimension, target, base, dimension);
+                }
+            }
+            VectorKernels.scale(1.0 / totalWeight[node], target, base, dimension);
+            residuals[node] = VectorKernels.distanceSquared(target, base, source, base, dimension);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.wordVectorRetrofit.util;
+
+/**
+ * Settings for {@link VectorProcessor#retrofit(VectorStore, java.util.Map, RetrofitOptions, java.util.function.BiConsumer)}.
+ * Setters return {@code this} so options can be chained.
+ */
+public class RetrofitOptions {
+
+    public enum Mode {
+        /** Sequential in-place updates; each word sees neighbors already updated in the same iteration. */
+        GAUSS_SEIDEL,
+        /** Parallel double-buffered updates; each iteration reads only the previous one. */
+        JACOBI
+    }
+
+    private int numIterations = 10;
+    private double tolerance = 0.0;
+    private double alpha = 1.0;
+    private double beta = 1.0;
+    private Precision precision;
+    private Mode mode = Mode.JACOBI;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean outOfCore = false;
+
+    public int getNumIterations() {
+        return numIterations;
+    }
+
+    public RetrofitOptions setNumIterations(int numIterations) {
+        this.numIterations = numIterations;
+        return this;
+    }
+
+    /**
+     * Retrofitting stops before {@link #getNumIterations()} once no row moves by more than this L2
+     * distance in an iteration. Zero, the default, always runs every iteration.
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public RetrofitOptions setTolerance(double tolerance) {
+        this.tolerance = Math.max(0.0, tolerance);
+        return this;
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public RetrofitOptions setAlpha(double alpha) {
+        this.alpha = alpha;
+        return this;
+    }
+
+    public double getBeta() {
+        return beta;
+    }
+
+    public RetrofitOptions setBeta(double beta) {
+        this.beta = beta;
+        return this;
+    }
+
+    /**
+     * Storage precision of the result, or null to keep the precision of the original vectors.
+     */
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public RetrofitOptions setPrecision(Precision precision) {
+        this.precision = precision;
+        return this;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public RetrofitOptions setMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public RetrofitOptions setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * When the original vectors are memory-mapped, keep only the retrofitted lexicon rows on the heap
+     * and read every other row of the result from the mapped file, instead of copying the whole
+     * vocabulary. Ignored for vectors already on the heap.
+     */
+    public boolean isOutOfCore() {
+        return outOfCore;
+    }
+
+    public RetrofitOptions setOutOfCore(boolean outOfCore) {
+        this.outOfCore = outOfCore;
+        return this;
+    }
+
+    /** Independent copy, so that changing it leaves these options as they are. */
+    public RetrofitOptions copy() {
+        return new RetrofitOptions()
+                .setNumIterations(numIterations)
+                .setTolerance(tolerance)
+                .setAlpha(alpha)
+                .setBeta(beta)
+                .setPrecision(precision)
+                .setMode(mode)
+                .setThreads(threads)
+                .setOutOfCore(outOfCore);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("mode=%s, iterations=%d, tolerance=%.1e, alpha=%.3f, beta=%.3f, threads=%d, precision=%s, outOfCore=%s",
+                mode, numIterations, tolerance, alpha, beta, threads, precision == null ? "unchanged" : precision, outOfCore);
+    }
+}
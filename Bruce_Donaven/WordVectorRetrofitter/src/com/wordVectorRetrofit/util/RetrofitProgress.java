@@ -0,0 +1,46 @@
+package com.wordVectorRetrofit.util;
+
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Receives the residual of every retrofitting iteration: the L2 change of the row that moved most
+ * and the mean L2 change over the words that have neighbors.
+ */
+@FunctionalInterface
+public interface RetrofitProgress {
+
+    void iterationCompleted(int iteration, int maxIterations, double maxResidual, double meanResidual);
+
+    /**
+     * Polled between iterations and blocks of rows; once true, retrofitting stops with a
+     * {@link java.util.concurrent.CancellationException}.
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+
+    /**
+     * Wraps {@code progress} so that retrofitting also stops once {@code cancelled} returns true.
+     */
+    static RetrofitProgress cancellable(RetrofitProgress progress, BooleanSupplier cancelled) {
+        return new RetrofitProgress() {
+            @Override
+            public void iterationCompleted(int iteration, int maxIterations, double maxResidual, double meanResidual) {
+                progress.iterationCompleted(iteration, maxIterations, maxResidual, meanResidual);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return cancelled.getAsBoolean() || progress.isCancelled();
+            }
+        };
+    }
+
+    /**
+     * Adapts an {@code (iteration, maxIterations)} callback, which ignores the residuals.
+     */
+    static RetrofitProgress of(BiConsumer<Integer, Integer> callback) {
+        return (iteration, maxIterations, maxResidual, meanResidual) -> callback.accept(iteration, maxIterations);
+    }
+}
@@ -0,0 +1,68 @@
+package com.wordVectorRetrofit.util;
+
+/**
+ * Plain loop kernels, used when the Vector API is not available.
+ */
+class ScalarKernels implements Kernels {
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double cosine(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double dotProduct = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < length; i++) {
+            double x = a[aOffset + i];
+            double y = b[bOffset + i];
+            dotProduct += x * y;
+            normA += x * x;
+            normB += y * y;
+        }
+        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB) + 1e-10);
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void scale(double alpha, double[] x, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            x[offset + i] *= alpha;
+        }
+    }
+
+    @Override
+    public double distanceSquared(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double difference = a[aOffset + i] - b[bOffset + i];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    @Override
+    public void dotBatch(double[] query, double[] matrix, int matrixOffset, int rows, int dimension,
+                         double[] out, int outOffset) {
+        for (int row = 0; row < rows; row++) {
+            out[outOffset + row] = dot(query, 0, matrix, matrixOffset + row * dimension, dimension);
+        }
+    }
+}
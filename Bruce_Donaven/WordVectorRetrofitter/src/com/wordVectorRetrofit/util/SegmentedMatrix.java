@@ -0,0 +1,94 @@
+package com.wordVectorRetrofit.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Matrix stored as encoded rows in a list of little-endian byte buffers. Each segment holds whole
+ * rows, which keeps single buffers under the 2 GB limit of {@link ByteBuffer}.
+ */
+abstract class SegmentedMatrix implements VectorMatrix {
+
+    static final long SEGMENT_BYTES = 1L << 28;
+
+    final Precision precision;
+    final int dimension;
+    final int rowBytes;
+    final int rowsPerSegment;
+    ByteBuffer[] segments;
+
+    SegmentedMatrix(Precision precision, int dimension) {
+        this.precision = precision;
+        this.dimension = dimension;
+        this.rowBytes = precision.rowBytes(dimension);
+        this.rowsPerSegment = (int) Math.max(1, SEGMENT_BYTES / rowBytes);
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public Precision precision() {
+        return precision;
+    }
+
+    @Override
+    public void read(int row, double[] target) {
+        precision.decode(segments[row / rowsPerSegment], (row % rowsPerSegment) * rowBytes, dimension, target);
+    }
+
+    @Override
+    public void readRows(int firstRow, int count, double[] target, int targetOffset) {
+        int row = firstRow;
+        int end = firstRow + count;
+        while (row < end) {
+            int segmentRow = row % rowsPerSegment;
+            int rows = Math.min(end - row, rowsPerSegment - segmentRow);
+            precision.decodeRows(segments[row / rowsPerSegment], segmentRow * rowBytes, rows, dimension,
+                    target, targetOffset + (row - firstRow) * dimension);
+            row += rows;
+        }
+    }
+
+    @Override
+    public boolean copyEncoded(int firstRow, int count, ByteBuffer target) {
+        int row = firstRow;
+        int end = firstRow + count;
+        while (row < end) {
+            int segmentRow = row % rowsPerSegment;
+            int rows = Math.min(end - row, rowsPerSegment - segmentRow);
+            ByteBuffer source = segments[row / rowsPerSegment].duplicate();
+            source.limit(segmentRow * rowBytes + rows * rowBytes).position(segmentRow * rowBytes);
+            target.put(source);
+            row += rows;
+        }
+        return true;
+    }
+
+    @Override
+    public double get(int row, int column) {
+        return precision.decodeValue(segments[row / rowsPerSegment], (row % rowsPerSegment) * rowBytes, column);
+    }
+
+    @Override
+    public VectorMatrix copy(int rows, Precision target) {
+        HeapMatrix copy = new HeapMatrix(target, dimension, rows);
+        copy.ensureRows(rows);
+        if (target == precision) {
+            for (int row = 0; row < rows; row += rowsPerSegment) {
+                int count = Math.min(rowsPerSegment, rows - row);
+                ByteBuffer source = segments[row / rowsPerSegment].duplicate();
+                source.position(0).limit(count * rowBytes);
+                copy.segments[row / rowsPerSegment].duplicate().put(source);
+            }
+            return copy;
+        }
+        double[] buffer = new double[dimension];
+        for (int row = 0; row < rows; row++) {
+            read(row, buffer);
+            copy.write(row, buffer, 0);
+        }
+        return copy;
+    }
+}
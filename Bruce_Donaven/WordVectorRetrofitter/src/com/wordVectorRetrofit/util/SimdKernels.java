@@ -0,0 +1,155 @@
+package com.wordVectorRetrofit.util;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels on {@code jdk.incubator.vector} with the platform's preferred vector width. Only loaded
+ * through reflection by {@link VectorKernels} once the module is known to be present.
+ *
+ * Reductions keep one accumulator per lane and add the lanes at the end, so sums are taken in a
+ * different order than {@link ScalarKernels}. The elementwise kernels ({@code axpy}, {@code scale})
+ * multiply and add separately, without fusing, and give the same results as the scalar loops.
+ */
+class SimdKernels implements Kernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    @Override
+    public String name() {
+        return "SIMD (" + SPECIES.vectorBitSize() + "-bit, " + LANES + " doubles)";
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += LANES) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector y = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            sum = x.fma(y, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    @Override
+    public double cosine(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector dotSum = DoubleVector.zero(SPECIES);
+        DoubleVector normASum = DoubleVector.zero(SPECIES);
+        DoubleVector normBSum = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += LANES) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector y = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            dotSum = x.fma(y, dotSum);
+            normASum = x.fma(x, normASum);
+            normBSum = y.fma(y, normBSum);
+        }
+        double dotProduct = dotSum.reduceLanes(VectorOperators.ADD);
+        double normA = normASum.reduceLanes(VectorOperators.ADD);
+        double normB = normBSum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double x = a[aOffset + i];
+            double y = b[bOffset + i];
+            dotProduct += x * y;
+            normA += x * x;
+            normB += y * y;
+        }
+        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB) + 1e-10);
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        DoubleVector factor = DoubleVector.broadcast(SPECIES, alpha);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += LANES) {
+            DoubleVector product = DoubleVector.fromArray(SPECIES, x, xOffset + i).mul(factor);
+            DoubleVector.fromArray(SPECIES, y, yOffset + i).add(product).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void scale(double alpha, double[] x, int offset, int length) {
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += LANES) {
+            DoubleVector.fromArray(SPECIES, x, offset + i).mul(alpha).intoArray(x, offset + i);
+        }
+        for (; i < length; i++) {
+            x[offset + i] *= alpha;
+        }
+    }
+
+    @Override
+    public double distanceSquared(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += LANES) {
+            DoubleVector difference = DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .sub(DoubleVector.fromArray(SPECIES, b, bOffset + i));
+            sum = difference.fma(difference, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double difference = a[aOffset + i] - b[bOffset + i];
+            result += difference * difference;
+        }
+        return result;
+    }
+
+    @Override
+    public void dotBatch(double[] query, double[] matrix, int matrixOffset, int rows, int dimension,
+                         double[] out, int outOffset) {
+        // Four rows at a time, so each query vector load feeds four accumulators.
+        int upper = SPECIES.loopBound(dimension);
+        int row = 0;
+        for (; row + 4 <= rows; row += 4) {
+            int base0 = matrixOffset + row * dimension;
+            int base1 = base0 + dimension;
+            int base2 = base1 + dimension;
+            int base3 = base2 + dimension;
+            DoubleVector sum0 = DoubleVector.zero(SPECIES);
+            DoubleVector sum1 = DoubleVector.zero(SPECIES);
+            DoubleVector sum2 = DoubleVector.zero(SPECIES);
+            DoubleVector sum3 = DoubleVector.zero(SPECIES);
+            int i = 0;
+            for (; i < upper; i += LANES) {
+                DoubleVector q = DoubleVector.fromArray(SPECIES, query, i);
+                sum0 = q.fma(DoubleVector.fromArray(SPECIES, matrix, base0 + i), sum0);
+                sum1 = q.fma(DoubleVector.fromArray(SPECIES, matrix, base1 + i), sum1);
+                sum2 = q.fma(DoubleVector.fromArray(SPECIES, matrix, base2 + i), sum2);
+                sum3 = q.fma(DoubleVector.fromArray(SPECIES, matrix, base3 + i), sum3);
+            }
+            double dot0 = sum0.reduceLanes(VectorOperators.ADD);
+            double dot1 = sum1.reduceLanes(VectorOperators.ADD);
+            double dot2 = sum2.reduceLanes(VectorOperators.ADD);
+            double dot3 = sum3.reduceLanes(VectorOperators.ADD);
+            for (; i < dimension; i++) {
+                dot0 += query[i] * matrix[base0 + i];
+                dot1 += query[i] * matrix[base1 + i];
+                dot2 += query[i] * matrix[base2 + i];
+                dot3 += query[i] * matrix[base3 + i];
+            }
+            out[outOffset + row] = dot0;
+            out[outOffset + row + 1] = dot1;
+            out[outOffset + row + 2] = dot2;
+            out[outOffset + row + 3] = dot3;
+        }
+        for (; row < rows; row++) {
+            out[outOffset + row] = dot(query, 0, matrix, matrixOffset + row * dimension, dimension);
+        }
+    }
+}
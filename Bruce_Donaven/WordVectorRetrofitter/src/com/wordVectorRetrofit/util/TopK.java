@@ -0,0 +1,106 @@
+package com.wordVectorRetrofit.util;
+
+/**
+ * Bounded min-heap keeping the {@code k} best (score, row) pairs seen. Equal scores are ordered by
+ * row, lower first, so the kept set does not depend on the order rows are offered in.
+ */
+class TopK {
+
+    private final int k;
+    private final double[] scores;
+    private final int[] rows;
+    private int size;
+
+    TopK(int k) {
+        this.k = k;
+        this.scores = new double[k];
+        this.rows = new int[k];
+    }
+
+    /** Lowest kept score once the heap is full, so callers can skip rows that cannot enter. */
+    double threshold() {
+        if (size < k) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return k == 0 ? Double.POSITIVE_INFINITY : scores[0];
+    }
+
+    void offer(int row, double score) {
+        if (size < k) {
+            scores[size] = score;
+            rows[size] = row;
+            siftUp(size++);
+        } else if (k > 0 && better(score, row, scores[0], rows[0])) {
+            scores[0] = score;
+            rows[0] = row;
+            siftDown(0);
+        }
+    }
+
+    void addAll(TopK other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.rows[i], other.scores[i]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Empties the heap into {@code rowsOut} and {@code scoresOut}, best first.
+     */
+    void drainSorted(int[] rowsOut, double[] scoresOut) {
+        for (int i = size - 1; i >= 0; i--) {
+            rowsOut[i] = rows[0];
+            scoresOut[i] = scores[0];
+            size--;
+            scores[0] = scores[size];
+            rows[0] = rows[size];
+            siftDown(0);
+        }
+    }
+
+    private static boolean better(double score, int row, double otherScore, int otherRow) {
+        return score > otherScore || (score == otherScore && row < otherRow);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!better(scores[parent], rows[parent], scores[index], rows[index])) {
+                break;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= size) {
+                break;
+            }
+            int worst = left;
+            int right = left + 1;
+            if (right < size && better(scores[worst], rows[worst], scores[right], rows[right])) {
+                worst = right;
+            }
+            if (!better(scores[index], rows[index], scores[worst], rows[worst])) {
+                break;
+            }
+            swap(index, worst);
+            index = worst;
+        }
+    }
+
+    private void swap(int i, int j) {
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+        int row = rows[i];
+        rows[i] = rows[j];
+        rows[j] = row;
+    }
+}
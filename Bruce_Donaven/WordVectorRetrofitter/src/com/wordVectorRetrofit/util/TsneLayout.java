@@ -0,0 +1,357 @@
+package com.wordVectorRetrofit.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Two-dimensional t-SNE layout of a store, approximated as in Barnes-Hut-SNE (van der Maaten).
+ *
+ * Input affinities are only computed between each word and its {@code 3 * perplexity} nearest
+ * neighbors, found with an {@link HnswIndex}, using the squared distance between unit vectors
+ * ({@code 2 - 2 cos}). Each iteration puts the current layout into a {@link PointQuadtree}: the
+ * attraction runs over the sparse affinities and the repulsion treats subtrees that look small from
+ * a point as one body, which is O(n log n) per iteration. Both run in parallel blocks on the common
+ * pool.
+ *
+ * A run reports intermediate layouts to a {@link Listener} and stops early once cancelled.
+ */
+public class TsneLayout {
+
+    private static final Logger LOGGER = Logger.getLogger(TsneLayout.class.getName());
+
+    public static final double DEFAULT_PERPLEXITY = 30;
+    public static final int DEFAULT_ITERATIONS = 1000;
+    /** Fewest rows a layout can be computed for. */
+    public static final int MIN_VECTORS = 4;
+    private static final double THETA = 0.5;
+    private static final int EXAGGERATION_ITERATIONS = 250;
+    private static final double EXAGGERATION = 12;
+    private static final double INITIAL_MOMENTUM = 0.5;
+    private static final double FINAL_MOMENTUM = 0.8;
+    private static final double MIN_GAIN = 0.01;
+    /** Standard deviation of the first axis of the rescaled initial layout. */
+    private static final double INITIAL_SCALE = 1e-4;
+    private static final int BLOCK_ROWS = 256;
+
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called from the layout thread with a copy of the layout, row-major.
+         */
+        void layoutUpdated(int iteration, int iterations, double[] points);
+    }
+
+    private final VectorStore vectors;
+    private final int size;
+    private final double perplexity;
+    /** Symmetric affinities in compressed rows; a pair may appear twice in a row, the values add up. */
+    private int[] rowStart;
+    private int[] columns;
+    private float[] affinities;
+    private volatile boolean cancelled;
+
+    /**
+     * Lays out every row of the store.
+     *
+     * @param perplexity Effective number of neighbors; lowered if the store is too small for it.
+     */
+    public TsneLayout(VectorStore vectors, double perplexity) {
+        this.vectors = vectors;
+        this.size = vectors.size();
+        if (size < MIN_VECTORS) {
+            throw new IllegalArgumentException("At least " + MIN_VECTORS + " vectors are needed for a t-SNE layout: " + size);
+        }
+        this.perplexity = Math.min(perplexity, (size - 1) / 3.0);
+    }
+
+    private void computeAffinities() {
+        int k = Math.min(size - 1, (int) (3 * perplexity));
+        long start = System.nanoTime();
+
+        HnswIndex index;
+        try {
+            index = HnswIndex.build(vectors, () -> cancelled);
+        } catch (CancellationException e) {
+            return;
+        }
+        index.setEfSearch(Math.max(index.getEfSearch(), k + 1));
+        int[] neighbors = new int[size * k];
+        float[] conditional = new float[size * k];
+        int[] found = new int[size];
+        double targetEntropy = Math.log(perplexity);
+        int dimension = vectors.dimension();
+        int blocks = (size + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+            if (cancelled) {
+                return;
+            }
+            double[] vector = new double[dimension];
+            double[] distances = new double[k];
+            int end = Math.min(size, (block + 1) * BLOCK_ROWS);
+            for (int row = block * BLOCK_ROWS; row < end; row++) {
+                vectors.readRow(row, vector);
+                List<Neighbor> nearest = index.nearest(vector, k, row);
+                int count = nearest.size();
+                for (int j = 0; j < count; j++) {
+                    neighbors[row * k + j] = nearest.get(j).getRow();
+                    distances[j] = Math.max(0, 2 - 2 * nearest.get(j).getSimilarity());
+                }
+                found[row] = count;
+                calibrate(distances, count, targetEntropy, conditional, row * k);
+            }
+        });
+        if (cancelled) {
+            return;
+        }
+
+        // P = (P_j|i + P_i|j) / 2n: every neighbor pair goes into both rows at half weight.
+        int[] rowCounts = new int[size + 1];
+        for (int row = 0; row < size; row++) {
+            rowCounts[row] += found[row];
+            for (int j = 0; j < found[row]; j++) {
+                rowCounts[neighbors[row * k + j]]++;
+            }
+        }
+        rowStart = new int[size + 1];
+        for (int row = 0; row < size; row++) {
+            rowStart[row + 1] = rowStart[row] + rowCounts[row];
+        }
+        int[] next = rowStart.clone();
+        columns = new int[rowStart[size]];
+        affinities = new float[rowStart[size]];
+        float scale = (float) (1.0 / (2.0 * size));
+        for (int row = 0; row < size; row++) {
+            for (int j = 0; j < found[row]; j++) {
+                int neighbor = neighbors[row * k + j];
+                float p = conditional[row * k + j] * scale;
+                columns[next[row]] = neighbor;
+                affinities[next[row]++] = p;
+                columns[next[neighbor]] = row;
+                affinities[next[neighbor]++] = p;
+            }
+        }
+        LOGGER.info(String.format("Computed t-SNE affinities for %d vectors (perplexity %.1f, %d neighbors) in %.2f s",
+                size, perplexity, k, (System.nanoTime() - start) / 1e9));
+    }
+
+    /**
+     * Binary search for the Gaussian precision whose conditional distribution over the neighbors
+     * has the target entropy; writes the normalized probabilities to {@code out}.
+     */
+    private static void calibrate(double[] distances, int count, double targetEntropy, float[] out, int offset) {
+        if (count == 0) {
+            return;
+        }
+        double min = Double.POSITIVE_INFINITY;
+        for (int j = 0; j < count; j++) {
+            min = Math.min(min, distances[j]);
+        }
+        double beta = 1;
+        double low = 0;
+        double high = Double.POSITIVE_INFINITY;
+        double[] p = new double[count];
+        double sum = 0;
+        for (int step = 0; step < 200; step++) {
+            sum = 0;
+            double weighted = 0;
+            for (int j = 0; j < count; j++) {
+                // Shifted by the smallest distance, which cancels out in the normalization.
+                p[j] = Math.exp(-beta * (distances[j] - min));
+                sum += p[j];
+                weighted += (distances[j] - min) * p[j];
+            }
+            double entropy = Math.log(sum) + beta * weighted / sum;
+            if (Math.abs(entropy - targetEntropy) < 1e-5) {
+                break;
+            }
+            if (entropy > targetEntropy) {
+                low = beta;
+                beta = high == Double.POSITIVE_INFINITY ? beta * 2 : (beta + high) / 2;
+            } else {
+                high = beta;
+                beta = (beta + low) / 2;
+            }
+        }
+        for (int j = 0; j < count; j++) {
+            out[offset + j] = (float) (p[j] / sum);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Stops a running layout after its current iteration. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Computes the input affinities, unless a previous run did, then optimizes the layout from
+     * {@code initial}, which is rescaled to a small spread first.
+     *
+     * @param initial     Row-major starting coordinates, two per row, such as a PCA projection.
+     * @param iterations  Number of gradient steps.
+     * @param reportEvery Iterations between updates sent to the listener; the final layout is always sent.
+     * @return The layout, row-major, as far as it got if cancelled.
+     */
+    public double[] run(double[] initial, int iterations, int reportEvery, Listener listener) {
+        if (initial.length != 2 * size) {
+            throw new IllegalArgumentException("Expected " + 2 * size + " coordinates, got " + initial.length);
+        }
+        if (affinities == null) {
+            computeAffinities();
+        }
+        long start = System.nanoTime();
+        double[] y = initial.clone();
+        center(y);
+        double spread = 0;
+        for (int i = 0; i < size; i++) {
+            spread += y[2 * i] * y[2 * i];
+        }
+        spread = Math.sqrt(spread / size);
+        Random random = new Random(42);
+        for (int i = 0; i < y.length; i++) {
+            // A degenerate start (all points on one spot) gets random coordinates instead.
+            y[i] = spread > 0 ? y[i] * INITIAL_SCALE / spread : INITIAL_SCALE * random.nextGaussian();
+        }
+
+        double[] gradient = new double[2 * size];
+        double[] update = new double[2 * size];
+        double[] repulsion = new double[2 * size];
+        double[] gains = new double[2 * size];
+        Arrays.fill(gains, 1);
+        double learningRate = Math.max(200, size / EXAGGERATION);
+        int iteration = 0;
+        while (iteration < iterations && !cancelled) {
+            boolean early = iteration < EXAGGERATION_ITERATIONS;
+            computeGradient(y, early ? EXAGGERATION : 1, gradient, repulsion);
+            double momentum = early ? INITIAL_MOMENTUM : FINAL_MOMENTUM;
+            for (int i = 0; i < y.length; i++) {
+                gains[i] = (gradient[i] > 0) != (update[i] > 0) ? gains[i] + 0.2 : Math.max(MIN_GAIN, gains[i] * 0.8);
+                update[i] = momentum * update[i] - learningRate * gains[i] * gradient[i];
+                y[i] += update[i];
+            }
+            center(y);
+            iteration++;
+            if (listener != null && iteration % reportEvery == 0 && iteration < iterations) {
+                listener.layoutUpdated(iteration, iterations, y.clone());
+            }
+        }
+        if (listener != null) {
+            listener.layoutUpdated(iteration, iterations, y.clone());
+        }
+        LOGGER.info(String.format("t-SNE layout of %d vectors %s after %d of %d iterations in %.2f s",
+                size, cancelled ? "cancelled" : "finished", iteration, iterations, (System.nanoTime() - start) / 1e9));
+        return y;
+    }
+
+    /**
+     * Gradient of the KL divergence: {@code 4 (exaggeration * attraction - repulsion / Z)}.
+     */
+    private void computeGradient(double[] y, double exaggeration, double[] gradient, double[] repulsion) {
+        PointQuadtree tree = new PointQuadtree(y);
+        int blocks = (size + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        double[] blockSums = new double[blocks];
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+            Repulsion body = new Repulsion();
+            int end = Math.min(size, (block + 1) * BLOCK_ROWS);
+            double sumQ = 0;
+            for (int i = block * BLOCK_ROWS; i < end; i++) {
+                double xi = y[2 * i];
+                double yi = y[2 * i + 1];
+                double attractX = 0;
+                double attractY = 0;
+                for (int e = rowStart[i]; e < rowStart[i + 1]; e++) {
+                    int j = columns[e];
+                    double dx = xi - y[2 * j];
+                    double dy = yi - y[2 * j + 1];
+                    double pq = affinities[e] / (1 + dx * dx + dy * dy);
+                    attractX += pq * dx;
+                    attractY += pq * dy;
+                }
+                body.reset(i, xi, yi);
+                tree.visitFar(xi, yi, THETA, body);
+                sumQ += body.sumQ;
+                gradient[2 * i] = exaggeration * attractX;
+                gradient[2 * i + 1] = exaggeration * attractY;
+                // Normalized by Z, the sum over all points, once every block is done.
+                repulsion[2 * i] = body.forceX;
+                repulsion[2 * i + 1] = body.forceY;
+            }
+            blockSums[block] = sumQ;
+        });
+        double z = 0;
+        for (double sum : blockSums) {
+            z += sum;
+        }
+        double inverseZ = z > 0 ? 1 / z : 0;
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+            int end = Math.min(2 * size, (block + 1) * BLOCK_ROWS * 2);
+            for (int i = block * BLOCK_ROWS * 2; i < end; i++) {
+                gradient[i] = 4 * (gradient[i] - repulsion[i] * inverseZ);
+            }
+        });
+    }
+
+    /** Sums the unnormalized repulsion on one point: {@code q^2 (y_i - y_j)} and {@code q = 1 / (1 + d^2)}. */
+    private static final class Repulsion implements PointQuadtree.Visitor {
+        private int self;
+        private double x;
+        private double y;
+        double forceX;
+        double forceY;
+        double sumQ;
+
+        void reset(int self, double x, double y) {
+            this.self = self;
+            this.x = x;
+            this.y = y;
+            forceX = 0;
+            forceY = 0;
+            sumQ = 0;
+        }
+
+        @Override
+        public void point(int index, double px, double py) {
+            if (index != self) {
+                cluster(1, px, py);
+            }
+        }
+
+        @Override
+        public void cluster(int count, double cx, double cy) {
+            double dx = x - cx;
+            double dy = y - cy;
+            double q = 1 / (1 + dx * dx + dy * dy);
+            sumQ += count * q;
+            double qq = count * q * q;
+            forceX += qq * dx;
+            forceY += qq * dy;
+        }
+    }
+
+    private static void center(double[] y) {
+        int n = y.length / 2;
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < n; i++) {
+            meanX += y[2 * i];
+            meanY += y[2 * i + 1];
+        }
+        meanX /= n;
+        meanY /= n;
+        for (int i = 0; i < n; i++) {
+            y[2 * i] -= meanX;
+            y[2 * i + 1] -= meanY;
+        }
+    }
+}
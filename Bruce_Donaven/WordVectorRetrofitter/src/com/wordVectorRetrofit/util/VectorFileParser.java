@@ -0,0 +1,595 @@
+package com.wordVectorRetrofit.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Parallel loader for whitespace separated word vector files (plain text or .gz).
+ *
+ * The input is cut into newline-aligned chunks (memory-mapped for plain text) which are tokenized
+ * at the byte level on all cores. Chunks are merged back in file order, so duplicate words, line
+ * numbers and warnings come out exactly as with a sequential read.
+ *
+ * A first line of two integers, the "count dimension" header of word2vec and fastText .vec files,
+ * is skipped and fixes the dimension; otherwise the first row does.
+ *
+ * With a {@link WordFilter} only the rows of the filter's words are kept. Other rows are dropped
+ * as soon as their first token is read, so their values are never tokenized or parsed.
+ *
+ * {@link #read()} collects the rows in a {@link VectorStore}; {@link #readInto(RowSink)} hands them
+ * on as they are merged, so a file larger than the heap can be converted without holding it.
+ */
+class VectorFileParser {
+    private static final Logger LOGGER = Logger.getLogger(VectorFileParser.class.getName());
+
+    static final int CHUNK_SIZE = 8 << 20;
+    private static final int BOUNDARY_SCAN = 64 << 10;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final String filename;
+    private final int threads;
+    private final Precision precision;
+    private final WordFilter filter;
+    private RowSink sink;
+    private int dimension;
+    private long linesMerged = 0;
+    private long linesKept = 0;
+    private long linesSkipped = 0;
+    private long bytesRead = 0;
+    private long estimatedBytes = 0;
+
+    VectorFileParser(String filename, Precision precision) {
+        this(filename, precision, Runtime.getRuntime().availableProcessors());
+    }
+
+    VectorFileParser(String filename, Precision precision, int threads) {
+        this(filename, precision, threads, null);
+    }
+
+    /**
+     * @param filter Words to keep, or null to keep every row. Other rows are skipped after reading
+     *               their first token, before their values are parsed.
+     */
+    VectorFileParser(String filename, Precision precision, int threads, WordFilter filter) {
+        this.filename = filename;
+        this.precision = precision;
+        this.threads = Math.max(1, threads);
+        this.filter = filter;
+    }
+
+    /** Destination of the parsed rows, in file order. */
+    interface RowSink {
+        /** Called once, before the first row, with the dimension every row has. */
+        void begin(int dimension, int expectedRows) throws IOException;
+
+        /** Adds a row, or replaces the vector of a word seen before. */
+        void put(String word, double[] source, int offset) throws IOException;
+    }
+
+    VectorStore read() throws IOException {
+        StoreSink sink = new StoreSink(precision);
+        readInto(sink);
+        VectorStore wordVectors = sink.vectors != null ? sink.vectors : VectorStore.empty();
+        wordVectors.setNormalized(true);
+        return wordVectors;
+    }
+
+    /**
+     * Parses the file and passes every valid row to {@code sink}, L2-normalized. The sink is not
+     * begun if the file has no valid row.
+     */
+    void readInto(RowSink sink) throws IOException {
+        this.sink = sink;
+        long startTime = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "vector-parser");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            if (filename.endsWith(".gz")) {
+                readCompressed(pool);
+            } else {
+                readMapped(pool);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        double seconds = Math.max((System.nanoTime() - startTime) / 1e9, 1e-9);
+        LOGGER.info(String.format("Parsed %d lines (%.1f MB) on %d threads in %.2f s: %.1f MB/s, %.0f lines/s",
+                linesMerged, bytesRead / 1e6, threads, seconds, bytesRead / 1e6 / seconds, linesMerged / seconds));
+        if (filter != null) {
+            LOGGER.info(String.format("Kept %d of %d lines; skipped %d rows outside the %d filter words",
+                    linesKept, linesMerged, linesSkipped, filter.size()));
+        }
+    }
+
+    private void readMapped(ExecutorService pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            estimatedBytes = size;
+            ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+            long start = 0;
+            while (start < size) {
+                long end = Math.min(start + CHUNK_SIZE, size);
+                if (end < size) {
+                    end = nextLineStart(channel, end, size);
+                }
+                ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                pending.add(pool.submit(() -> parseChunk(region, filter)));
+                if (pending.size() >= threads * 2) {
+                    merge(pending.poll());
+                }
+                start = end;
+            }
+            while (!pending.isEmpty()) {
+                merge(pending.poll());
+            }
+        }
+    }
+
+    private void readCompressed(ExecutorService pool) throws IOException {
+        estimatedBytes = new File(filename).length() * 3; // typical compression ratio for numeric text
+        try (InputStream in = new GZIPInputStream(new FileInputStream(filename), 1 << 16)) {
+            ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+            byte[] carry = new byte[0];
+            boolean eof = false;
+            while (!eof) {
+                byte[] block = new byte[carry.length + CHUNK_SIZE];
+                System.arraycopy(carry, 0, block, 0, carry.length);
+                int filled = carry.length;
+                while (filled < block.length) {
+                    int n = in.read(block, filled, block.length - filled);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    filled += n;
+                }
+
+                int cut = filled;
+                if (!eof) {
+                    // Cut after a \n, or after a \r whose next byte is known not to be \n.
+                    while (cut > 0 && block[cut - 1] != '\n'
+                            && !(block[cut - 1] == '\r' && cut < filled && block[cut] != '\n')) {
+                        cut--;
+                    }
+                    if (cut == 0) {
+                        // A single line longer than a chunk; keep reading until its newline shows up.
+                        carry = Arrays.copyOf(block, filled);
+                        continue;
+                    }
+                }
+                carry = Arrays.copyOfRange(block, cut, filled);
+                ByteBuffer region = ByteBuffer.wrap(block, 0, cut).slice();
+                pending.add(pool.submit(() -> parseChunk(region, filter)));
+                if (pending.size() >= threads * 2) {
+                    merge(pending.poll());
+                }
+            }
+            while (!pending.isEmpty()) {
+                merge(pending.poll());
+            }
+        }
+    }
+
+    /**
+     * Returns the offset just past the first line terminator at or after {@code from}: a
+     * {@code \n}, or a {@code \r} that is not followed by one.
+     */
+    private static long nextLineStart(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer scan = ByteBuffer.allocate(BOUNDARY_SCAN);
+        long pos = from;
+        while (pos < size) {
+            scan.clear();
+            int n = channel.read(scan, pos);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                byte b = scan.get(i);
+                if (b == '\n') {
+                    return pos + i + 1;
+                }
+                if (b == '\r') {
+                    long next = pos + i + 1;
+                    if (next >= size) {
+                        return size;
+                    }
+                    byte following = i + 1 < n ? scan.get(i + 1) : readByte(channel, next);
+                    return following == '\n' ? next + 1 : next;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private static byte readByte(FileChannel channel, long position) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        return channel.read(one, position) == 1 ? one.get(0) : 0;
+    }
+
+    private void merge(Future<Chunk> future) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading word vectors", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to parse word vectors: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        for (Warning warning : chunk.warnings) {
+            LOGGER.warning(warning.prefix + (linesMerged + warning.line) + ": " + warning.detail);
+        }
+        int offset = 0;
+        for (int i = 0; i < chunk.words.size(); i++) {
+            int width = chunk.widths[i];
+            if (dimension == 0 && linesMerged == 0 && i == 0 && chunk.headerDimension > 0) {
+                // word2vec and fastText .vec files start with "count dimension"; the rows must match it.
+                dimension = chunk.headerDimension;
+                long rows = Long.parseLong(chunk.words.get(i));
+                LOGGER.info("Skipping header line: " + rows + " words of dimension " + dimension);
+                sink.begin(dimension, (int) Math.max(16, Math.min(rows, Integer.MAX_VALUE / dimension / 2)));
+                offset += width;
+                continue;
+            }
+            if (dimension == 0) {
+                long estimatedRows = Math.max(16, chunk.words.size() * (estimatedBytes / Math.max(chunk.bytes, 1)));
+                dimension = width;
+                sink.begin(dimension, (int) Math.min(estimatedRows, Integer.MAX_VALUE / width / 2));
+            }
+            if (width == dimension) {
+                sink.put(chunk.words.get(i), chunk.values, offset);
+                linesKept++;
+            } else {
+                LOGGER.warning("Skipping line " + (linesMerged + chunk.lineNumbers[i]) + ": expected "
+                        + dimension + " values but found " + width + " for '" + chunk.words.get(i) + "'");
+            }
+            offset += width;
+        }
+
+        long before = linesMerged;
+        linesMerged += chunk.lines;
+        linesSkipped += chunk.skipped;
+        bytesRead += chunk.bytes;
+        if (linesMerged / 100000 != before / 100000) {
+            LOGGER.info("Processed " + linesMerged + " lines.");
+        }
+    }
+
+    /** Whether a first line of one token and one value reads as a "count dimension" header. */
+    static boolean isHeader(String word, int width, double value) {
+        if (width != 1 || word.isEmpty() || word.length() > 18 || value < 1 || value > 1 << 20 || value != Math.rint(value)) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) < '0' || word.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Chunk parseChunk(ByteBuffer buf) {
+        return parseChunk(buf, null);
+    }
+
+    static Chunk parseChunk(ByteBuffer buf, WordFilter filter) {
+        return new ChunkParser(buf, filter).parse();
+    }
+
+    /** Collects the rows in a heap store of the given precision. */
+    private static final class StoreSink implements RowSink {
+        private final Precision precision;
+        private VectorStore vectors;
+
+        StoreSink(Precision precision) {
+            this.precision = precision;
+        }
+
+        @Override
+        public void begin(int dimension, int expectedRows) {
+            vectors = new VectorStore(dimension, expectedRows, precision);
+        }
+
+        @Override
+        public void put(String word, double[] source, int offset) {
+            vectors.put(word, source, offset);
+        }
+    }
+
+    /** Parsed contents of one chunk, kept in file order. */
+    static final class Chunk {
+        final List<String> words = new ArrayList<>();
+        double[] values = new double[1 << 12];
+        int valueCount;
+        int[] widths = new int[64];
+        int[] lineNumbers = new int[64];
+        final List<Warning> warnings = new ArrayList<>();
+        int lines;
+        /** Lines dropped by the word filter. */
+        int skipped;
+        /**
+         * Dimension stated by the chunk's first line if it reads as a "count dimension" header, else
+         * 0. The line is also kept as a row; only the file's first chunk treats it as a header.
+         */
+        int headerDimension;
+        int bytes;
+    }
+
+    /** A warning whose line number is relative to its chunk until the chunk is merged. */
+    static final class Warning {
+        final int line;
+        final String prefix;
+        final String detail;
+
+        Warning(int line, String prefix, String detail) {
+            this.line = line;
+            this.prefix = prefix;
+            this.detail = detail;
+        }
+    }
+
+    /** Single-threaded tokenizer for one chunk. Reuses its scratch arrays across lines. */
+    static final class ChunkParser {
+        private final ByteBuffer buf;
+        private final WordFilter filter;
+        private final Chunk chunk = new Chunk();
+        private int[] tokenStart = new int[512];
+        private int[] tokenEnd = new int[512];
+        private byte[] scratch = new byte[256];
+        private double value;
+
+        ChunkParser(ByteBuffer buf) {
+            this(buf, null);
+        }
+
+        ChunkParser(ByteBuffer buf, WordFilter filter) {
+            this.buf = buf;
+            this.filter = filter;
+        }
+
+        Chunk parse() {
+            int limit = buf.limit();
+            int pos = 0;
+            while (pos < limit) {
+                int lineEnd = pos;
+                byte b = 0;
+                while (lineEnd < limit && (b = buf.get(lineEnd)) != '\n' && b != '\r') {
+                    lineEnd++;
+                }
+                chunk.lines++;
+                parseLine(pos, lineEnd);
+                // Lines end with \n, \r\n or a lone \r, as for BufferedReader.readLine.
+                pos = lineEnd + (b == '\r' && lineEnd + 1 < limit && buf.get(lineEnd + 1) == '\n' ? 2 : 1);
+            }
+            chunk.bytes = limit;
+            return chunk;
+        }
+
+        private void parseLine(int start, int end) {
+            int tokens = 0;
+            int i = start;
+            while (i < end) {
+                while (i < end && isWhitespace(buf.get(i))) {
+                    i++;
+                }
+                if (i >= end) {
+                    break;
+                }
+                int tokenBegin = i;
+                while (i < end && !isWhitespace(buf.get(i))) {
+                    i++;
+                }
+                if (tokens == tokenStart.length) {
+                    tokenStart = Arrays.copyOf(tokenStart, tokens * 2);
+                    tokenEnd = Arrays.copyOf(tokenEnd, tokens * 2);
+                }
+                tokenStart[tokens] = tokenBegin;
+                tokenEnd[tokens] = i;
+                tokens++;
+                if (tokens == 1 && filter != null && !filter.mayContain(buf, tokenBegin, i)) {
+                    chunk.skipped++; // rejected on the raw word; the rest of the line is never tokenized
+                    return;
+                }
+            }
+
+            if (tokens < 2) {
+                chunk.warnings.add(new Warning(chunk.lines, "Skipping invalid line ", lineText(start, end)));
+                return;
+            }
+
+            String word = decode(tokenStart[0], tokenEnd[0]);
+            if (filter != null && (word = filter.canonical(word)) == null) {
+                chunk.skipped++;
+                return;
+            }
+            int width = tokens - 1;
+            int base = chunk.valueCount;
+            if (chunk.values.length < base + width) {
+                chunk.values = Arrays.copyOf(chunk.values, Math.max(base + width, chunk.values.length * 2));
+            }
+            double[] values = chunk.values;
+            double sumSquares = 0;
+            for (int t = 1; t < tokens; t++) {
+                if (!parseNumber(tokenStart[t], tokenEnd[t])) {
+                    chunk.warnings.add(new Warning(chunk.lines, "Invalid number format at line ",
+                            decode(tokenStart[t], tokenEnd[t])));
+                    values[base + t - 1] = 0.0;
+                } else if (!Double.isFinite(value)) {
+                    // NaN and infinities would poison every norm and similarity computed from the row.
+                    chunk.warnings.add(new Warning(chunk.lines, "Non-finite value replaced by 0 at line ",
+                            decode(tokenStart[t], tokenEnd[t])));
+                    values[base + t - 1] = 0.0;
+                } else {
+                    values[base + t - 1] = value;
+                    sumSquares += value * value;
+                }
+            }
+
+            if (chunk.lines == 1 && isHeader(word, width, values[base])) {
+                chunk.headerDimension = (int) values[base];
+            }
+            double norm = Math.sqrt(sumSquares + 1e-6);
+            for (int d = 0; d < width; d++) {
+                values[base + d] /= norm;
+            }
+
+            int row = chunk.words.size();
+            if (row == chunk.widths.length) {
+                chunk.widths = Arrays.copyOf(chunk.widths, row * 2);
+                chunk.lineNumbers = Arrays.copyOf(chunk.lineNumbers, row * 2);
+            }
+            chunk.words.add(word);
+            chunk.widths[row] = width;
+            chunk.lineNumbers[row] = chunk.lines;
+            chunk.valueCount = base + width;
+        }
+
+        /**
+         * Parses a decimal number in place. Values with at most 18 significant digits and a small
+         * exponent are computed exactly with a single correctly rounded multiply or divide; anything
+         * else falls back to {@link Double#parseDouble}, so results always match it bit for bit.
+         */
+        private boolean parseNumber(int start, int end) {
+            int i = start;
+            boolean negative = false;
+            byte c = buf.get(i);
+            if (c == '-' || c == '+') {
+                negative = c == '-';
+                i++;
+            }
+
+            long mantissa = 0;
+            int significant = 0;
+            int exponent = 0;
+            boolean anyDigit = false;
+            boolean fast = true;
+
+            while (i < end && (c = buf.get(i)) >= '0' && c <= '9') {
+                anyDigit = true;
+                if (mantissa != 0 || c != '0') {
+                    mantissa = mantissa * 10 + (c - '0');
+                    significant++;
+                }
+                i++;
+            }
+            if (i < end && buf.get(i) == '.') {
+                i++;
+                while (i < end && (c = buf.get(i)) >= '0' && c <= '9') {
+                    anyDigit = true;
+                    if (mantissa != 0 || c != '0') {
+                        mantissa = mantissa * 10 + (c - '0');
+                        significant++;
+                    }
+                    exponent--;
+                    i++;
+                }
+            }
+            if (i < end && anyDigit && ((c = buf.get(i)) == 'e' || c == 'E')) {
+                i++;
+                boolean negativeExp = false;
+                if (i < end && ((c = buf.get(i)) == '-' || c == '+')) {
+                    negativeExp = c == '-';
+                    i++;
+                }
+                int expDigits = 0;
+                int exp = 0;
+                while (i < end && (c = buf.get(i)) >= '0' && c <= '9') {
+                    if (exp < 100000) {
+                        exp = exp * 10 + (c - '0');
+                    }
+                    expDigits++;
+                    i++;
+                }
+                if (expDigits == 0) {
+                    fast = false;
+                }
+                exponent += negativeExp ? -exp : exp;
+            }
+
+            if (!anyDigit || i != end || significant > 18) {
+                fast = false;
+            }
+
+            if (fast) {
+                if (mantissa == 0) {
+                    value = negative ? -0.0 : 0.0;
+                    return true;
+                }
+                if (mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+                    double v = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+                    value = negative ? -v : v;
+                    return true;
+                }
+            }
+
+            try {
+                value = Double.parseDouble(decode(start, end));
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        private String decode(int start, int end) {
+            int len = end - start;
+            if (scratch.length < len) {
+                scratch = new byte[Math.max(len, scratch.length * 2)];
+            }
+            boolean plainLower = true;
+            for (int i = 0; i < len; i++) {
+                byte b = buf.get(start + i);
+                scratch[i] = b;
+                if (b < 0 || (b >= 'A' && b <= 'Z')) {
+                    plainLower = false;
+                }
+            }
+            if (plainLower) {
+                return new String(scratch, 0, len, StandardCharsets.ISO_8859_1);
+            }
+            return new String(scratch, 0, len, Charset.defaultCharset()).toLowerCase();
+        }
+
+        private String lineText(int start, int end) {
+            while (start < end && (buf.get(start) & 0xff) <= ' ') {
+                start++;
+            }
+            while (end > start && (buf.get(end - 1) & 0xff) <= ' ') {
+                end--;
+            }
+            return decode(start, end);
+        }
+
+        private static boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == 0x0B || b == '\f';
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.wordVectorRetrofit.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Parallel writer for whitespace separated word vector files (plain text or .gz).
+ *
+ * Rows are cut into chunks of about {@link #CHUNK_SIZE} bytes of text which are encoded on all
+ * cores with a fixed-precision decimal encoder. Chunks are written back in row order through a
+ * direct buffer, so the output is the same whatever the number of threads. For .gz output every
+ * chunk is compressed by its worker as a separate gzip member; concatenated members form a valid
+ * gzip file that {@link java.util.zip.GZIPInputStream}, and so {@link VectorFileParser}, reads as one.
+ * Words are encoded in the platform charset, as the parser decodes them.
+ */
+class VectorFileWriter {
+    private static final Logger LOGGER = Logger.getLogger(VectorFileWriter.class.getName());
+
+    static final int DEFAULT_DECIMALS = 4;
+    static final int CHUNK_SIZE = 8 << 20;
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int GZIP_LEVEL = Deflater.BEST_SPEED;
+
+    private final VectorStore vectors;
+    private final int decimals;
+    private final int threads;
+    private final int rowsPerChunk;
+    private long rowsDrained = 0;
+    private long bytesWritten = 0;
+
+    VectorFileWriter(VectorStore vectors, int decimals) {
+        this(vectors, decimals, Runtime.getRuntime().availableProcessors());
+    }
+
+    VectorFileWriter(VectorStore vectors, int decimals, int threads) {
+        if (decimals < 0 || decimals > 15) {
+            throw new IllegalArgumentException("Decimals must be between 0 and 15: " + decimals);
+        }
+        this.vectors = vectors;
+        this.decimals = decimals;
+        this.threads = Math.max(1, threads);
+        this.rowsPerChunk = Math.max(1, CHUNK_SIZE / (16 + vectors.dimension() * (decimals + 4)));
+    }
+
+    void write(String filename) throws IOException {
+        long startTime = System.nanoTime();
+        boolean compress = filename.endsWith(".gz");
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "vector-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+            int size = vectors.size();
+            // An empty store still gets one (empty) gzip member, so the file stays readable.
+            int chunks = Math.max(compress ? 1 : 0, (int) (((long) size + rowsPerChunk - 1) / rowsPerChunk));
+            for (int c = 0; c < chunks; c++) {
+                int first = c * rowsPerChunk;
+                int count = Math.min(rowsPerChunk, size - first);
+                pending.add(pool.submit(() -> encodeChunk(first, count, compress)));
+                if (pending.size() >= threads * 2) {
+                    drain(pending.poll(), channel, buffer);
+                }
+            }
+            while (!pending.isEmpty()) {
+                drain(pending.poll(), channel, buffer);
+            }
+            flush(channel, buffer);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        double seconds = Math.max((System.nanoTime() - startTime) / 1e9, 1e-9);
+        LOGGER.info(String.format("Wrote %d word vectors (%.1f MB%s) on %d threads in %.2f s: %.1f MB/s, %.0f lines/s",
+                vectors.size(), bytesWritten / 1e6, compress ? " compressed" : "", threads, seconds,
+                bytesWritten / 1e6 / seconds, vectors.size() / seconds));
+    }
+
+    private Chunk encodeChunk(int firstRow, int rows, boolean compress) throws IOException {
+        Chunk chunk = new ChunkEncoder(decimals, vectors.dimension()).encode(vectors, firstRow, rows);
+        if (!compress) {
+            return chunk;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(chunk.length / 3 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, 1 << 16) {
+            {
+                def.setLevel(GZIP_LEVEL);
+            }
+        }) {
+            gzip.write(chunk.bytes, 0, chunk.length);
+        }
+        return new Chunk(compressed.toByteArray(), compressed.size(), chunk.rows);
+    }
+
+    private void drain(Future<Chunk> future, FileChannel channel, ByteBuffer buffer) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing word vectors", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to encode word vectors: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        int offset = 0;
+        while (offset < chunk.length) {
+            int n = Math.min(buffer.remaining(), chunk.length - offset);
+            buffer.put(chunk.bytes, offset, n);
+            offset += n;
+            if (!buffer.hasRemaining()) {
+                flush(channel, buffer);
+            }
+        }
+
+        long before = rowsDrained;
+        rowsDrained += chunk.rows;
+        bytesWritten += chunk.length;
+        if (rowsDrained / 100000 != before / 100000) {
+            LOGGER.info("Written " + rowsDrained + " word vectors.");
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /** Encoded (and possibly compressed) bytes of one chunk of rows. */
+    static final class Chunk {
+        final byte[] bytes;
+        final int length;
+        final int rows;
+
+        Chunk(byte[] bytes, int length, int rows) {
+            this.bytes = bytes;
+            this.length = length;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Single-threaded encoder for one chunk. Formats values exactly like
+     * {@code String.format(Locale.ROOT, "%.<decimals>f", value)}, but without going through strings.
+     */
+    static final class ChunkEncoder {
+        private static final int BLOCK_ROWS = 256;
+        /** Largest scaled magnitude encoded directly; its ulp is far below {@link #TIE_MARGIN}. */
+        private static final double MAX_SCALED = 1e9;
+        private static final double TIE_MARGIN = 1e-6;
+
+        private final int decimals;
+        private final int dimension;
+        private final long unit;
+        private final double scale;
+        private final String format;
+        private final byte[] digits = new byte[20];
+        private final Charset charset = Charset.defaultCharset();
+        private byte[] out = new byte[1 << 16];
+        private int length;
+
+        ChunkEncoder(int decimals, int dimension) {
+            this.decimals = decimals;
+            this.dimension = dimension;
+            long unit = 1;
+            for (int i = 0; i < decimals; i++) {
+                unit *= 10;
+            }
+            this.unit = unit;
+            this.scale = unit;
+            this.format = "%." + decimals + "f";
+        }
+
+        Chunk encode(VectorStore vectors, int firstRow, int rows) {
+            double[] block = new double[Math.min(BLOCK_ROWS, Math.max(rows, 1)) * dimension];
+            for (int first = firstRow; first < firstRow + rows; first += BLOCK_ROWS) {
+                int count = Math.min(BLOCK_ROWS, firstRow + rows - first);
+                vectors.readRows(first, count, block, 0);
+                for (int i = 0; i < count; i++) {
+                    byte[] word = vectors.word(first + i).getBytes(charset);
+                    ensure(word.length + 1 + dimension * (decimals + 22));
+                    System.arraycopy(word, 0, out, length, word.length);
+                    length += word.length;
+                    int base = i * dimension;
+                    for (int d = 0; d < dimension; d++) {
+                        out[length++] = ' ';
+                        appendFixed(block[base + d]);
+                    }
+                    out[length++] = '\n';
+                }
+            }
+            return new Chunk(out, length, rows);
+        }
+
+        /**
+         * Appends {@code value} rounded half-up to {@code decimals} places. Java rounds the shortest
+         * decimal representation of the double, not its exact binary value, so values whose scaled
+         * fraction is too close to one half to tell the two apart, and NaN, infinities and very
+         * large values, go through {@link String#format} instead.
+         */
+        void appendFixed(double value) {
+            double scaled = Math.abs(value) * scale;
+            if (scaled < MAX_SCALED) {
+                double floor = Math.floor(scaled);
+                double fraction = scaled - floor;
+                if (Math.abs(fraction - 0.5) > TIE_MARGIN) {
+                    long units = (long) floor + (fraction > 0.5 ? 1 : 0);
+                    if (Double.doubleToRawLongBits(value) < 0) {
+                        out[length++] = '-';
+                    }
+                    appendDigits(units / unit, 1);
+                    if (decimals > 0) {
+                        out[length++] = '.';
+                        appendDigits(units % unit, decimals);
+                    }
+                    return;
+                }
+            }
+            byte[] text = String.format(Locale.ROOT, format, value).getBytes(StandardCharsets.US_ASCII);
+            ensure(text.length);
+            System.arraycopy(text, 0, out, length, text.length);
+            length += text.length;
+        }
+
+        /** Appends a non-negative number, zero-padded to at least {@code minDigits} digits. */
+        private void appendDigits(long number, int minDigits) {
+            int count = 0;
+            do {
+                digits[count++] = (byte) ('0' + number % 10);
+                number /= 10;
+            } while (number != 0);
+            while (count < minDigits) {
+                digits[count++] = '0';
+            }
+            while (count > 0) {
+                out[length++] = digits[--count];
+            }
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > out.length) {
+                out = Arrays.copyOf(out, Math.max(length + extra, out.length * 2));
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.wordVectorRetrofit.util;
+
+/**
+ * Dense vector kernels used by the similarity and retrofitting loops.
+ *
+ * When the {@code jdk.incubator.vector} module is present (run with
+ * {@code --add-modules jdk.incubator.vector}) the kernels use SIMD instructions; otherwise, or when
+ * the system property {@code wordvectors.kernels} is {@code scalar}, plain loops are used.
+ *
+ * Tolerance: {@link #axpy} and {@link #scale} give identical results with either implementation.
+ * {@link #dot}, {@link #cosine}, {@link #distanceSquared} and {@link #dotBatch} sum in a different
+ * order, so they may differ by up to {@code length * 2^-53 * sum(|a[i] * b[i]|)}. For unit vectors
+ * of a few hundred dimensions that is below 1e-13, well under the 1e-10 epsilon of {@link #cosine}.
+ */
+public final class VectorKernels {
+
+    private static final Kernels KERNELS = select();
+
+    private VectorKernels() {
+    }
+
+    private static Kernels select() {
+        if (!"scalar".equalsIgnoreCase(System.getProperty("wordvectors.kernels"))
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (Kernels) Class.forName("com.wordVectorRetrofit.util.SimdKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                LoggerUtil.warning("Vector API unavailable, using scalar kernels: " + e);
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    /**
+     * Name of the implementation in use, for logs and benchmarks.
+     */
+    public static String implementation() {
+        return KERNELS.name();
+    }
+
+    public static double dot(double[] a, double[] b) {
+        return KERNELS.dot(a, 0, b, 0, a.length);
+    }
+
+    public static double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        return KERNELS.dot(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * Cosine similarity with the dot product and both norms taken in a single pass.
+     */
+    public static double cosine(double[] a, double[] b) {
+        return KERNELS.cosine(a, 0, b, 0, a.length);
+    }
+
+    public static double cosine(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        return KERNELS.cosine(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * Adds {@code alpha * x} to {@code y}.
+     */
+    public static void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        KERNELS.axpy(alpha, x, xOffset, y, yOffset, length);
+    }
+
+    /**
+     * Multiplies {@code x} by {@code alpha} in place.
+     */
+    public static void scale(double alpha, double[] x, int offset, int length) {
+        KERNELS.scale(alpha, x, offset, length);
+    }
+
+    public static double distanceSquared(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        return KERNELS.distanceSquared(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * Dot products of {@code query} with {@code rows} consecutive rows of the row-major
+     * {@code matrix}, starting at value {@code matrixOffset}. Results go to {@code out[outOffset ..]}.
+     */
+    public static void dotBatch(double[] query, double[] matrix, int matrixOffset, int rows, int dimension,
+                                double[] out, int outOffset) {
+        KERNELS.dotBatch(query, matrix, matrixOffset, rows, dimension, out, outOffset);
+    }
+}
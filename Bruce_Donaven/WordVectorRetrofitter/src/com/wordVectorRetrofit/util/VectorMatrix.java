@@ -0,0 +1,38 @@
+package com.wordVectorRetrofit.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Row-major storage behind a {@link VectorStore}. Rows are always exchanged as doubles, whatever
+ * the underlying {@link Precision}.
+ */
+interface VectorMatrix {
+
+    int dimension();
+
+    Precision precision();
+
+    void read(int row, double[] target);
+
+    /** Reads {@code count} consecutive rows, row-major, into {@code target} from {@code targetOffset}. */
+    void readRows(int firstRow, int count, double[] target, int targetOffset);
+
+    /**
+     * Puts the encoded bytes of {@code count} consecutive rows, as {@link Precision#encode} lays them
+     * out in {@link #precision()}, into {@code target}, which must have room for them. Returns false,
+     * without writing anything, if the matrix cannot do this cheaply; callers then encode the rows.
+     */
+    default boolean copyEncoded(int firstRow, int count, ByteBuffer target) {
+        return false;
+    }
+
+    void write(int row, double[] source, int offset);
+
+    double get(int row, int column);
+
+    /** Makes room for at least {@code rows} rows. */
+    void ensureRows(int rows);
+
+    /** Returns a writable heap copy of the first {@code rows} rows in the given precision. */
+    VectorMatrix copy(int rows, Precision precision);
+}
@@ -5,104 +5,140 @@ import java.util.function.BiConsumer;
 
 public class VectorProcessor {
 
-    public static Map<String, double[]> retrofit(
-            Map<String, double[]> originalVectors,
+    public static VectorStore retrofit(
+            VectorStore originalVectors,
             Map<String, List<String>> lexicon,
             int numIterations,
             double alpha,
             double beta,
             BiConsumer<Integer, Integer> callback) {
+        return retrofit(originalVectors, lexicon, numIterations, alpha, beta, originalVectors.precision(), callback);
+    }
 
-        Map<String, double[]> retrofittedVectors = new HashMap<>(originalVectors);
-        Set<String> lexiconVocabulary = new HashSet<>(lexicon.keySet());
-        lexiconVocabulary.retainAll(retrofittedVectors.keySet()); // Common words
-
-        LoggerUtil.log("Retrofitting vocabulary size after intersection: " + lexiconVocabulary.size());
-
-        for (int iteration = 1; iteration <= numIterations; iteration++) {
-            LoggerUtil.log("Starting iteration " + iteration + " of retrofitting.");
-            int updatedWords = 0;
-            int totalMissingNeighbors = 0;
-
-            for (String word : lexiconVocabulary) {
-                List<String> neighbors = lexicon.get(word);
-                if (neighbors == null || neighbors.isEmpty()) {
-                    LoggerUtil.log("Skipping word with no neighbors: " + word);
-                    continue; 
-                }
+    /**
+     * Retrofits the vectors to the lexicon with sequential Gauss-Seidel updates. Updates are
+     * accumulated in double precision and the result is stored in {@code precision}.
+     */
+    public static VectorStore retrofit(
+            VectorStore originalVectors,
+            Map<String, List<String>> lexicon,
+            int numIterations,
+            double alpha,
+            double beta,
+            Precision precision,
+            BiConsumer<Integer, Integer> callback) {
+        RetrofitOptions options = new RetrofitOptions()
+                .setNumIterations(numIterations)
+                .setAlpha(alpha)
+                .setBeta(beta)
+                .setPrecision(precision)
+                .setMode(RetrofitOptions.Mode.GAUSS_SEIDEL);
+        return retrofit(originalVectors, lexicon, options, callback);
+    }
 
-                double[] originalVec = originalVectors.get(word);
-                double[] newVec = new double[originalVec.length];
-                double totalWeight = alpha; 
+    /**
+     * Retrofits the vectors to the lexicon. The lexicon is first resolved into a {@link NeighborGraph}.
+     */
+    public static VectorStore retrofit(
+            VectorStore originalVectors,
+            Map<String, List<String>> lexicon,
+            RetrofitOptions options,
+            BiConsumer<Integer, Integer> callback) {
+        return retrofit(originalVectors, NeighborGraph.build(lexicon, originalVectors), options, callback);
+    }
 
-                int validNeighbors = 0;
-                for (String neighbor : neighbors) {
-                    if (retrofittedVectors.containsKey(neighbor)) {
-                        double[] neighborVec = retrofittedVectors.get(neighbor);
-                        for (int i = 0; i < newVec.length; i++) {
-                            newVec[i] += beta * neighborVec[i]; 
-                        }
-                        totalWeight += beta; 
-                        validNeighbors++;
-                    }
-                }
+    public static VectorStore retrofit(
+            VectorStore originalVectors,
+            NeighborGraph graph,
+            RetrofitOptions options,
+            BiConsumer<Integer, Integer> callback) {
+        return retrofit(originalVectors, graph, options, RetrofitProgress.of(callback));
+    }
 
-                if (validNeighbors == 0) {
-                    totalMissingNeighbors++;
-                    continue; 
-                }
+    /**
+     * Retrofits the vectors to a resolved neighbor graph. {@link RetrofitOptions.Mode#JACOBI} runs on
+     * {@link RetrofitOptions#getThreads()} threads and gives the same result for any thread count;
+     * {@link RetrofitOptions.Mode#GAUSS_SEIDEL} is the sequential in-place update. {@code progress}
+     * receives the residual after each iteration.
+     */
+    public static VectorStore retrofit(
+            VectorStore originalVectors,
+            NeighborGraph graph,
+            RetrofitOptions options,
+            RetrofitProgress progress) {
+        LoggerUtil.log("Retrofitting with " + options + ", " + VectorKernels.implementation() + " kernels");
+        return new RetrofitEngine(originalVectors, graph, options).run(progress);
+    }
 
-                
-                for (int i = 0; i < newVec.length; i++) {
-                    newVec[i] += alpha * originalVec[i];
-                    newVec[i] /= totalWeight; 
-                }
+    /**
+     * Updates a previous retrofitting result after lexicon or vocabulary edits by re-solving only
+     * the affected part of the graph, starting from the previous vectors.
+     *
+     * @param originalVectors Current original vectors. They may add words to the previous ones.
+     * @param graph           Current lexicon resolved against {@code originalVectors}.
+     * @param previousVectors Result of the previous run.
+     * @param previousGraph   Graph the previous run was solved on.
+     * @param changedWords    Words whose original vectors changed since the previous run.
+     * @param hops            How far to follow neighbor edges from the changed words, or -1 for
+     *                        every word they can affect, which matches a full rerun.
+     */
+    public static VectorStore retrofitIncremental(
+            VectorStore originalVectors,
+            NeighborGraph graph,
+            VectorStore previousVectors,
+            NeighborGraph previousGraph,
+            Collection<String> changedWords,
+            int hops,
+            RetrofitOptions options,
+            RetrofitProgress progress) {
+        LoggerUtil.log("Incrementally retrofitting with " + options);
+        return new IncrementalRetrofit(originalVectors, graph, previousVectors, previousGraph)
+                .run(changedWords, hops, options, progress);
+    }
 
-                retrofittedVectors.put(word, newVec);
-                updatedWords++;
-            }
+    /**
+     * Compatibility overload for callers that still hold vectors in a {@code Map}.
+     */
+    public static Map<String, double[]> retrofit(
+            Map<String, double[]> originalVectors,
+            Map<String, List<String>> lexicon,
+            int numIterations,
+            double alpha,
+            double beta,
+            BiConsumer<Integer, Integer> callback) {
+        return retrofit(VectorStore.fromMap(originalVectors), lexicon, numIterations, alpha, beta, callback).asMap();
+    }
 
-            LoggerUtil.log("Iteration " + iteration + " completed: Words updated: " + updatedWords);
-            if (totalMissingNeighbors > 0) {
-                LoggerUtil.warning("Total missing neighbors during this iteration: " + totalMissingNeighbors);
+    static int[] lexiconRows(VectorStore vectors, Map<String, List<String>> lexicon) {
+        int[] rows = new int[lexicon.size()];
+        int count = 0;
+        for (String word : lexicon.keySet()) {
+            int row = vectors.indexOf(word);
+            if (row >= 0) {
+                rows[count++] = row;
             }
-            callback.accept(iteration, numIterations);
         }
-
-        LoggerUtil.log("Retrofitting process completed.");
-        return retrofittedVectors;
+        rows = Arrays.copyOf(rows, count);
+        Arrays.sort(rows);
+        return rows;
     }
 
     public static double cosineSimilarity(double[] vec1, double[] vec2) {
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
-        for (int i = 0; i < vec1.length; i++) {
-            dotProduct += vec1[i] * vec2[i];
-            normA += vec1[i] * vec1[i];
-            normB += vec2[i] * vec2[i];
-        }
-        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB) + 1e-10);
+        return VectorKernels.cosine(vec1, vec2);
     }
 
     public static double[] normalize(double[] vector) {
-        double norm = 0.0;
-        for (double v : vector) {
-            norm += v * v;
-        }
-        norm = Math.sqrt(norm);
+        double norm = Math.sqrt(VectorKernels.dot(vector, vector));
 
-        double[] normalized = new double[vector.length];
-        for (int i = 0; i < vector.length; i++) {
-            normalized[i] = vector[i] / (norm + 1e-10);
-        }
+        double[] normalized = vector.clone();
+        VectorKernels.scale(1.0 / (norm + 1e-10), normalized, 0, normalized.length);
         return normalized;
     }
 
-    public static int countMissingNeighbors(String word, List<String> neighbors, Map<String, double[]> vectors) {
+    public static int countMissingNeighbors(String word, List<String> neighbors, VectorStore vectors) {
         int missing = 0;
         for (String neighbor : neighbors) {
-            if (!vectors.containsKey(neighbor)) {
+            if (!vectors.contains(neighbor)) {
                 missing++;
                 LoggerUtil.warning("Neighbor '" + neighbor + "' for word '" + word + "' not found in vectors.");
             }
@@ -0,0 +1,394 @@
+package com.wordVectorRetrofit.util;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Word vectors held as one row-major primitive matrix plus a {@link Vocabulary} mapping each word
+ * to its row. Rows are read into caller-supplied buffers, so hot loops do not allocate per word.
+ * The matrix lives on the heap, or in a memory-mapped file when loaded from the binary format.
+ */
+public class VectorStore {
+
+    private final Vocabulary vocabulary;
+    private final int dimension;
+    private final VectorMatrix matrix;
+    private boolean normalized;
+
+    private double[] roundTrip;
+    private double maxAbsValue;
+    private double maxAbsError;
+
+    public VectorStore(int dimension) {
+        this(dimension, 16);
+    }
+
+    public VectorStore(int dimension, int expectedSize) {
+        this(dimension, expectedSize, Precision.DEFAULT);
+    }
+
+    public VectorStore(int dimension, int expectedSize, Precision precision) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("Vector dimension must be positive: " + dimension);
+        }
+        this.dimension = dimension;
+        this.vocabulary = new Vocabulary(expectedSize);
+        this.matrix = new HeapMatrix(precision, dimension, expectedSize);
+    }
+
+    VectorStore(Vocabulary vocabulary, VectorMatrix matrix, boolean normalized) {
+        this.vocabulary = vocabulary;
+        this.dimension = matrix.dimension();
+        this.matrix = matrix;
+        this.normalized = normalized;
+    }
+
+    /**
+     * Returns an empty store, used as a placeholder before any vectors are loaded.
+     */
+    public static VectorStore empty() {
+        return new VectorStore(1, 0);
+    }
+
+    /**
+     * Builds a double precision store from a word to vector map. All vectors must have the same length.
+     */
+    public static VectorStore fromMap(Map<String, double[]> vectors) {
+        if (vectors.isEmpty()) {
+            return empty();
+        }
+        int dimension = vectors.values().iterator().next().length;
+        VectorStore store = new VectorStore(dimension, vectors.size(), Precision.FLOAT64);
+        vectors.forEach(store::put);
+        return store;
+    }
+
+    /**
+     * Adds a word or overwrites its vector if the word is already present.
+     *
+     * @return The row index of the word.
+     */
+    public int put(String word, double[] vector) {
+        return put(word, vector, 0);
+    }
+
+    public int put(String word, double[] source, int offset) {
+        if (source.length - offset < dimension) {
+            throw new IllegalArgumentException("Vector for '" + word + "' has " + (source.length - offset)
+                    + " values, expected " + dimension);
+        }
+        int row = vocabulary.indexOf(word);
+        if (row < 0) {
+            // Grow the matrix first, so a store that cannot grow rejects the word before it is interned.
+            matrix.ensureRows(size() + 1);
+            row = vocabulary.intern(word);
+        }
+        matrix.write(row, source, offset);
+        if (matrix.precision().isLossy()) {
+            trackError(row, source, offset);
+        }
+        return row;
+    }
+
+    private void trackError(int row, double[] source, int offset) {
+        if (roundTrip == null) {
+            roundTrip = new double[dimension];
+        }
+        matrix.read(row, roundTrip);
+        for (int i = 0; i < dimension; i++) {
+            double value = source[offset + i];
+            maxAbsValue = Math.max(maxAbsValue, Math.abs(value));
+            maxAbsError = Math.max(maxAbsError, Math.abs(value - roundTrip[i]));
+        }
+    }
+
+    public int indexOf(String word) {
+        return vocabulary.indexOf(word);
+    }
+
+    public boolean contains(String word) {
+        return vocabulary.contains(word);
+    }
+
+    public String word(int row) {
+        return vocabulary.word(row);
+    }
+
+    public int size() {
+        return vocabulary.size();
+    }
+
+    public boolean isEmpty() {
+        return vocabulary.size() == 0;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public Precision precision() {
+        return matrix.precision();
+    }
+
+    /**
+     * Approximate size of the matrix in bytes.
+     */
+    public long matrixBytes() {
+        return (long) size() * matrix.precision().rowBytes(dimension);
+    }
+
+    /**
+     * Largest absolute difference seen between a value passed to {@link #put} or
+     * {@link #writeRow} and what was stored, including what was lost by the store this one was
+     * copied from.
+     */
+    public double maxAbsError() {
+        return maxAbsError;
+    }
+
+    /**
+     * Worst-case absolute error of the storage precision for the values put so far.
+     */
+    public double errorBound() {
+        return matrix.precision().errorBound(maxAbsValue);
+    }
+
+    /**
+     * One line summary of the storage precision, its memory use and its error against doubles.
+     */
+    public String precisionReport() {
+        Precision precision = matrix.precision();
+        String report = String.format("%d x %d vectors stored as %s: %.1f MB (%.1fx smaller than %s)",
+                size(), dimension, precision, matrixBytes() / 1e6,
+                (double) Precision.FLOAT64.rowBytes(dimension) / precision.rowBytes(dimension), Precision.FLOAT64);
+        if (precision.isLossy() && maxAbsValue > 0) {
+            report += String.format("; max abs error vs double %.3g (bound %.3g)", maxAbsError, errorBound());
+        }
+        if (matrix instanceof OverlayMatrix) {
+            report += String.format("; %d rows on the heap, the rest memory-mapped",
+                    ((OverlayMatrix) matrix).overlayRowCount());
+        }
+        return report;
+    }
+
+    public Vocabulary vocabulary() {
+        return vocabulary;
+    }
+
+    /**
+     * Whether every row is known to have unit L2 norm.
+     */
+    public boolean isNormalized() {
+        return normalized;
+    }
+
+    public void setNormalized(boolean normalized) {
+        this.normalized = normalized;
+    }
+
+    public double get(int row, int column) {
+        return matrix.get(row, column);
+    }
+
+    /**
+     * Copies a row into {@code target}, which must hold at least {@link #dimension()} values.
+     */
+    public void readRow(int row, double[] target) {
+        checkRow(row);
+        matrix.read(row, target);
+    }
+
+    /**
+     * Copies {@code count} consecutive rows into {@code target}, one after another from {@code targetOffset}.
+     */
+    public void readRows(int firstRow, int count, double[] target, int targetOffset) {
+        if (count > 0) {
+            checkRow(firstRow);
+            checkRow(firstRow + count - 1);
+            matrix.readRows(firstRow, count, target, targetOffset);
+        }
+    }
+
+    public void writeRow(int row, double[] source) {
+        checkRow(row);
+        matrix.write(row, source, 0);
+        if (matrix.precision().isLossy()) {
+            trackError(row, source, 0);
+        }
+    }
+
+    /**
+     * Returns a copy of the row.
+     */
+    public double[] getRow(int row) {
+        double[] copy = new double[dimension];
+        readRow(row, copy);
+        return copy;
+    }
+
+    /**
+     * Returns a copy of the word's vector, or null if the word is not in the store.
+     */
+    public double[] get(String word) {
+        int row = vocabulary.indexOf(word);
+        return row < 0 ? null : getRow(row);
+    }
+
+    /**
+     * Visits every row in index order. The buffer passed to the visitor is reused between rows.
+     */
+    public void forEach(RowVisitor visitor) {
+        double[] buffer = new double[dimension];
+        int size = size();
+        for (int row = 0; row < size; row++) {
+            readRow(row, buffer);
+            visitor.visit(row, vocabulary.word(row), buffer);
+        }
+    }
+
+    /**
+     * Returns an independent, writable heap copy with the same words in the same row order.
+     */
+    public VectorStore copy() {
+        return copy(matrix.precision());
+    }
+
+    /**
+     * Returns an independent, writable heap copy stored in the given precision.
+     */
+    public VectorStore copy(Precision precision) {
+        VectorStore copy = new VectorStore(vocabulary.copy(), matrix.copy(size(), precision), normalized);
+        copy.maxAbsValue = maxAbsValue;
+        copy.maxAbsError = maxAbsError;
+        if (precision.isLossy() && precision != matrix.precision()) {
+            // Re-encoding adds its own error on top of whatever this store already lost.
+            double[] source = new double[dimension];
+            double inherited = maxAbsError;
+            copy.maxAbsError = 0;
+            for (int row = 0; row < size(); row++) {
+                matrix.read(row, source);
+                copy.trackError(row, source, 0);
+            }
+            copy.maxAbsError += inherited;
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a store with the same words whose {@code rows} can be rewritten, stored on the heap in
+     * the given precision, while every other row is read from this store's matrix without being
+     * copied. The two stores share the vocabulary, so the new one cannot grow.
+     */
+    VectorStore overlay(int[] rows, Precision precision) {
+        VectorMatrix overlay = matrix instanceof OverlayMatrix
+                ? ((OverlayMatrix) matrix).extend(rows, precision)
+                : new OverlayMatrix(matrix, size(), rows, precision);
+        VectorStore store = new VectorStore(vocabulary, overlay, normalized);
+        store.maxAbsValue = maxAbsValue;
+        store.maxAbsError = maxAbsError;
+        return store;
+    }
+
+    /**
+     * Rows that may differ from {@code base}, in ascending order, if this store is an overlay sharing
+     * the words and the underlying matrix of {@code base}; every other row then holds exactly the
+     * values of {@code base}. Returns null if any row may differ.
+     */
+    int[] rowsReplacedOver(VectorStore base) {
+        if (matrix instanceof OverlayMatrix && vocabulary == base.vocabulary
+                && ((OverlayMatrix) matrix).base() == base.matrix) {
+            return ((OverlayMatrix) matrix).overlayRows();
+        }
+        return null;
+    }
+
+    /**
+     * True if only some rows are on the heap and the rest stay in a memory-mapped file.
+     */
+    public boolean isMemoryMapped() {
+        return matrix instanceof MappedMatrix || matrix instanceof OverlayMatrix;
+    }
+
+    /**
+     * Puts the encoded bytes of {@code count} rows into {@code target} if the matrix holds them in
+     * that form; see {@link VectorMatrix#copyEncoded}.
+     */
+    boolean copyEncodedRows(int firstRow, int count, ByteBuffer target) {
+        if (count <= 0) {
+            return true;
+        }
+        checkRow(firstRow);
+        checkRow(firstRow + count - 1);
+        return matrix.copyEncoded(firstRow, count, target);
+    }
+
+    /**
+     * Read-only {@code Map} view for code that still expects {@code Map<String, double[]>}.
+     * Every lookup returns a fresh copy of the row.
+     */
+    public Map<String, double[]> asMap() {
+        return new AbstractMap<>() {
+            @Override
+            public double[] get(Object key) {
+                return key instanceof String ? VectorStore.this.get((String) key) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof String && contains((String) key);
+            }
+
+            @Override
+            public int size() {
+                return VectorStore.this.size();
+            }
+
+            @Override
+            public Set<Entry<String, double[]>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<String, double[]>> iterator() {
+                        return new Iterator<>() {
+                            private int row = 0;
+
+                            @Override
+                            public boolean hasNext() {
+                                return row < VectorStore.this.size();
+                            }
+
+                            @Override
+                            public Entry<String, double[]> next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                int current = row++;
+                                return new SimpleImmutableEntry<>(word(current), getRow(current));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return VectorStore.this.size();
+                    }
+                };
+            }
+        };
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size()) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of range for store of size " + size());
+        }
+    }
+
+    @FunctionalInterface
+    public interface RowVisitor {
+        void visit(int row, String word, double[] vector);
+    }
+}
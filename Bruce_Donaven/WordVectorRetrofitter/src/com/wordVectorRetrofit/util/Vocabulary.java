@@ -0,0 +1,122 @@
+package com.wordVectorRetrofit.util;
+
+import java.util.Arrays;
+
+/**
+ * Word to row index table. Words are stored once, in insertion order, and looked up through an
+ * open-addressing (linear probing) table of ints, so there are no boxed entries per word.
+ */
+public class Vocabulary {
+
+    private static final int EMPTY = -1;
+
+    private String[] words;
+    private int[] hashes;
+    private int[] table;
+    private int mask;
+    private int size;
+
+    public Vocabulary() {
+        this(16);
+    }
+
+    public Vocabulary(int expectedSize) {
+        int capacity = tableCapacity(Math.max(expectedSize, 4));
+        table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        mask = capacity - 1;
+        words = new String[Math.max(expectedSize, 4)];
+        hashes = new int[words.length];
+    }
+
+    /**
+     * Returns the index of the word, adding it if it is not present yet.
+     */
+    public int intern(String word) {
+        int hash = mix(word.hashCode());
+        int slot = hash & mask;
+        int id;
+        while ((id = table[slot]) != EMPTY) {
+            if (hashes[id] == hash && words[id].equals(word)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == words.length) {
+            int newLength = words.length + (words.length >> 1) + 1;
+            words = Arrays.copyOf(words, newLength);
+            hashes = Arrays.copyOf(hashes, newLength);
+        }
+        id = size++;
+        words[id] = word;
+        hashes[id] = hash;
+        table[slot] = id;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the index of the word, or -1 if it is not in the vocabulary.
+     */
+    public int indexOf(String word) {
+        int hash = mix(word.hashCode());
+        int slot = hash & mask;
+        int id;
+        while ((id = table[slot]) != EMPTY) {
+            if (hashes[id] == hash && words[id].equals(word)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    public boolean contains(String word) {
+        return indexOf(word) != EMPTY;
+    }
+
+    public String word(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Word index " + index + " out of range for vocabulary of size " + size);
+        }
+        return words[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Vocabulary copy() {
+        Vocabulary copy = new Vocabulary(size);
+        for (int i = 0; i < size; i++) {
+            copy.intern(words[i]);
+        }
+        return copy;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+        }
+    }
+
+    private static int tableCapacity(int expectedSize) {
+        int capacity = Integer.highestOneBit(expectedSize * 2 - 1) << 1;
+        return Math.max(capacity, 8);
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
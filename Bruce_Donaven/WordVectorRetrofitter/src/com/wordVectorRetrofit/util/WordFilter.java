@@ -0,0 +1,129 @@
+package com.wordVectorRetrofit.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Set of words to keep when loading vectors selectively, usually the lexicon plus a few pinned words.
+ *
+ * Besides the exact set it keeps a table of 64-bit hashes of the encoded words, so the parser can
+ * reject most rows from the raw bytes of their first token, without decoding it into a string and
+ * before any of the numbers are parsed. Only tokens that pass the hash check are decoded and looked
+ * up exactly. Tokens with non-ASCII bytes skip the hash check, since their lowercase form can only
+ * be computed after decoding.
+ *
+ * Kept words are stored through {@link #canonical}, so a store loaded with a filter built from a
+ * lexicon shares the lexicon's strings instead of holding copies.
+ */
+public class WordFilter {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Vocabulary words;
+    private final long[] hashes;
+    private final int mask;
+
+    private WordFilter(Vocabulary words) {
+        this.words = words;
+        int capacity = Integer.highestOneBit(Math.max(4, words.size() * 2 - 1)) << 1;
+        this.hashes = new long[capacity];
+        this.mask = capacity - 1;
+        Charset charset = Charset.defaultCharset();
+        for (int i = 0; i < words.size(); i++) {
+            byte[] bytes = words.word(i).getBytes(charset);
+            add(hash(ByteBuffer.wrap(bytes), 0, bytes.length));
+        }
+    }
+
+    /**
+     * Filter keeping exactly the given words, lowercased.
+     */
+    public static WordFilter of(Collection<String> words) {
+        Vocabulary lowercase = new Vocabulary(words.size());
+        for (String word : words) {
+            lowercase.intern(word.toLowerCase());
+        }
+        return new WordFilter(lowercase);
+    }
+
+    /**
+     * Filter keeping every word of the lexicon, as a headword or as a neighbor, and the pinned words.
+     */
+    public static WordFilter fromLexicon(Map<String, List<String>> lexicon, Collection<String> pinnedWords) {
+        Vocabulary words = new Vocabulary(lexicon.size() * 4);
+        for (Map.Entry<String, List<String>> entry : lexicon.entrySet()) {
+            words.intern(entry.getKey().toLowerCase());
+            for (String neighbor : entry.getValue()) {
+                words.intern(neighbor.toLowerCase());
+            }
+        }
+        for (String word : pinnedWords) {
+            words.intern(word.toLowerCase());
+        }
+        return new WordFilter(words);
+    }
+
+    public int size() {
+        return words.size();
+    }
+
+    public boolean contains(String word) {
+        return words.contains(word);
+    }
+
+    /**
+     * Returns the filter's own instance of the word, or null if the word is not kept.
+     */
+    public String canonical(String word) {
+        int index = words.indexOf(word);
+        return index < 0 ? null : words.word(index);
+    }
+
+    /**
+     * Returns false if the token {@code buf[start, end)} certainly is not one of the words once
+     * lowercased. True means it may be, and the decoded word must be checked with {@link #contains}.
+     */
+    boolean mayContain(ByteBuffer buf, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buf.get(i) < 0) {
+                return true;
+            }
+        }
+        long hash = hash(buf, start, end);
+        for (int slot = (int) mix(hash) & mask; hashes[slot] != 0; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void add(long hash) {
+        int slot = (int) mix(hash) & mask;
+        while (hashes[slot] != 0 && hashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+    }
+
+    /** FNV-1a over the bytes with ASCII letters lowercased; never 0, which marks an empty slot. */
+    private static long hash(ByteBuffer buf, int start, int end) {
+        long hash = FNV_OFFSET;
+        for (int i = start; i < end; i++) {
+            byte b = buf.get(i);
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static long mix(long hash) {
+        return hash ^ (hash >>> 32);
+    }
+}
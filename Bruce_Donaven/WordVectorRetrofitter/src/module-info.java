@@ -2,6 +2,8 @@ module WordVectorRetrofitter {
     requires javafx.graphics;
     requires javafx.controls;
     requires java.logging;
+    requires jdk.httpserver; // EmbeddingServer
+    requires static jdk.incubator.vector; // optional SIMD kernels, see VectorKernels
 	requires commons.math3;
 
     exports com.wordVectorRetrofit; // Allow JavaFX to access the classes in this package
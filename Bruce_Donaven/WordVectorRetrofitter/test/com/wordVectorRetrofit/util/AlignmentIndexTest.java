@@ -0,0 +1,215 @@
+package com.wordVectorRetrofit.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AlignmentIndexTest {
+
+    private static final int SIZE = 3000;
+    private static final int DIMENSION = 16;
+
+    @Test
+    void ordersAndCountsLikeABruteForceSort() {
+        Random random = new Random(7);
+        VectorStore original = new VectorStore(DIMENSION, SIZE);
+        List<Integer> retrofittedRows = new ArrayList<>();
+        List<double[]> retrofittedVectors = new ArrayList<>();
+        for (int row = 0; row < SIZE; row++) {
+            double[] vector = gaussian(random, DIMENSION, 1.0);
+            original.put("w" + row, vector);
+            if (row % 10 == 0) {
+                continue; // Not retrofitted.
+            }
+            // Most words barely move, so that many similarities fall within one float of 1.
+            double noise = row % 3 == 0 ? 0.5 : row % 3 == 1 ? 1e-6 : 0;
+            double[] moved = vector.clone();
+            double[] offset = gaussian(random, DIMENSION, noise);
+            for (int i = 0; i < DIMENSION; i++) {
+                moved[i] += offset[i];
+            }
+            retrofittedRows.add(row);
+            retrofittedVectors.add(moved);
+        }
+        // A different row order, so that words are looked up rather than matched by row.
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < retrofittedRows.size(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, random);
+        VectorStore retrofitted = new VectorStore(DIMENSION, SIZE);
+        for (int i : order) {
+            retrofitted.put("w" + retrofittedRows.get(i), retrofittedVectors.get(i));
+        }
+
+        AlignmentIndex index = AlignmentIndex.build(original, retrofitted);
+
+        List<Neighbor> expected = new ArrayList<>();
+        double[] a = new double[DIMENSION];
+        double[] b = new double[DIMENSION];
+        for (int row : retrofittedRows) {
+            original.readRow(row, a);
+            retrofitted.readRow(retrofitted.indexOf("w" + row), b);
+            expected.add(new Neighbor("w" + row, row, VectorKernels.cosine(a, 0, b, 0, DIMENSION)));
+        }
+        expected.sort(Comparator.comparingDouble(Neighbor::getSimilarity).reversed()
+                .thenComparingInt(Neighbor::getRow));
+
+        assertEquals(expected.size(), index.size());
+        List<Neighbor> actual = index.top(SIZE);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getRow(), actual.get(i).getRow(), "row at position " + i);
+            assertEquals(expected.get(i).getSimilarity(), actual.get(i).getSimilarity(), 0.0, "similarity at position " + i);
+        }
+
+        double[] thresholds = {-2, -0.5, 0, 0.5, 0.9, 0.999, 1, 2,
+                expected.get(0).getSimilarity(), expected.get(100).getSimilarity(), expected.get(expected.size() - 1).getSimilarity()};
+        for (double threshold : thresholds) {
+            List<String> passing = new ArrayList<>();
+            List<Integer> passingRows = new ArrayList<>();
+            double sum = 0;
+            for (Neighbor neighbor : expected) {
+                if (neighbor.getSimilarity() >= threshold) {
+                    passingRows.add(neighbor.getRow());
+                    sum += neighbor.getSimilarity();
+                }
+            }
+            Collections.sort(passingRows);
+            for (int row : passingRows) {
+                passing.add("w" + row);
+            }
+
+            assertEquals(passing.size(), index.countAtLeast(threshold), "count at " + threshold);
+            assertEquals(passing, index.wordsAtLeast(threshold), "words at " + threshold);
+            if (passing.isEmpty()) {
+                assertTrue(Double.isNaN(index.averageAtLeast(threshold)));
+            } else {
+                assertEquals(sum / passing.size(), index.averageAtLeast(threshold), 1e-12, "average at " + threshold);
+            }
+        }
+    }
+
+    @Test
+    void sortsALargeBucketOfEqualSimilaritiesQuickly() {
+        // Rows retrofitting did not touch all have the same similarity; sorting them must not be quadratic.
+        int size = 300_000;
+        VectorStore original = new VectorStore(2, size);
+        VectorStore retrofitted = new VectorStore(2, size);
+        for (int row = 0; row < size; row++) {
+            double[] vector = {1 + row % 5, 2};
+            original.put("w" + row, vector);
+            retrofitted.put("w" + row, row % 100 == 0 ? new double[]{2, -1 - row % 3} : vector);
+        }
+
+        AlignmentIndex index = assertTimeout(Duration.ofSeconds(10), () -> AlignmentIndex.build(original, retrofitted));
+
+        List<Neighbor> top = index.top(size);
+        assertEquals(size, top.size());
+        for (int i = 1; i < size; i++) {
+            Neighbor previous = top.get(i - 1);
+            Neighbor current = top.get(i);
+            assertTrue(previous.getSimilarity() > current.getSimilarity()
+                    || (previous.getSimilarity() == current.getSimilarity() && previous.getRow() < current.getRow()),
+                    "out of order at position " + i);
+        }
+    }
+
+    @Test
+    void overlayReadsOnlyTheReplacedRows() {
+        int size = 2000;
+        Random random = new Random(9);
+        VectorStore original = new VectorStore(DIMENSION, size);
+        for (int row = 0; row < size; row++) {
+            original.put("w" + row, gaussian(random, DIMENSION, 1.0));
+        }
+        int[] replaced = random.ints(300, 0, size).toArray();
+        VectorStore retrofitted = original.overlay(replaced, original.precision());
+        for (int i = 0; i < replaced.length; i += 2) {
+            // Every other replaced row keeps its value.
+            retrofitted.writeRow(replaced[i], gaussian(random, DIMENSION, 1.0));
+        }
+        int[] overlayRows = retrofitted.rowsReplacedOver(original);
+        assertTrue(overlayRows != null);
+
+        // Untouched rows are exactly the original ones, at similarity 1; ties go by row.
+        double[] similarity = new double[size];
+        Arrays.fill(similarity, 1.0);
+        double[] a = new double[DIMENSION];
+        double[] b = new double[DIMENSION];
+        for (int row : overlayRows) {
+            original.readRow(row, a);
+            retrofitted.readRow(row, b);
+            similarity[row] = VectorKernels.cosine(a, b);
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int row = 0; row < size; row++) {
+            expected.add(row);
+        }
+        expected.sort(Comparator.comparingDouble((Integer row) -> -similarity[row]).thenComparingInt(row -> row));
+
+        List<Neighbor> actual = AlignmentIndex.build(original, retrofitted).top(size);
+        List<Neighbor> full = AlignmentIndex.build(original, retrofitted.copy()).top(size);
+        assertEquals(size, actual.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals(expected.get(i), actual.get(i).getRow(), "row at position " + i);
+            assertEquals(similarity[expected.get(i)], actual.get(i).getSimilarity(), "similarity at position " + i);
+            assertEquals(full.get(i).getSimilarity(), actual.get(i).getSimilarity(), 1e-9);
+        }
+    }
+
+    @Test
+    void sortByKeyIsStable() {
+        long[] keys = {3, 1, 3, 1, 2, 3};
+        int[] rows = {0, 1, 2, 3, 4, 5};
+        AlignmentIndex.sortByKey(keys, rows);
+
+        assertArrayEquals(new long[]{1, 1, 2, 3, 3, 3}, keys);
+        assertArrayEquals(new int[]{1, 3, 4, 0, 2, 5}, rows);
+        assertTrue(AlignmentIndex.descendingKey(0.9) < AlignmentIndex.descendingKey(0.5));
+        assertTrue(AlignmentIndex.descendingKey(-0.5) < AlignmentIndex.descendingKey(-0.9));
+        assertEquals(AlignmentIndex.descendingKey(0.0), AlignmentIndex.descendingKey(-0.0));
+    }
+
+    @Test
+    void topIsClampedToTheIndexSize() {
+        VectorStore vectors = new VectorStore(2, 3);
+        vectors.put("a", new double[]{1, 0});
+        vectors.put("b", new double[]{0, 1});
+        AlignmentIndex index = AlignmentIndex.build(vectors, vectors);
+
+        assertEquals(2, index.top(10).size());
+        assertEquals(0, index.top(-1).size());
+        assertEquals(Arrays.asList("a", "b"), index.wordsAtLeast(0.5));
+    }
+
+    @Test
+    void buildStopsOnceCancelled() {
+        VectorStore vectors = new VectorStore(DIMENSION, SIZE);
+        Random random = new Random(8);
+        for (int row = 0; row < SIZE; row++) {
+            vectors.put("w" + row, gaussian(random, DIMENSION, 1.0));
+        }
+        assertThrows(CancellationException.class, () -> AlignmentIndex.build(vectors, vectors, () -> true));
+    }
+
+    private static double[] gaussian(Random random, int dimension, double scale) {
+        double[] vector = new double[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = scale * random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,90 @@
+package com.wordVectorRetrofit.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChunkEncoderTest {
+
+    private static final double[] SPECIAL = {
+            0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+            Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE,
+            1e-12, -1e-12, 1e9, -1e9, 123456789.987654321, 1e300, -1e300,
+            // Halves that are exact in binary, at several decimals.
+            0.5, 1.5, 2.5, -0.5, -2.5, 0.25, 0.125, -0.375, 0.0625, 0.03125,
+            // Decimal halves that are not exact in binary, just above or below the tie.
+            0.15, 0.25, 0.35, 1.005, 2.675, 0.045, -0.045, 0.00005, -0.00005, 0.000015, 1.00005, 9.99995,
+            0.99995, -0.99995, 0.5000000001, 0.4999999999,
+    };
+
+    @Test
+    void encodesSpecialValuesLikeStringFormat() {
+        for (int decimals = 0; decimals <= 10; decimals++) {
+            assertEncodesLikeFormat(SPECIAL, decimals);
+        }
+    }
+
+    @Test
+    void encodesRandomValuesLikeStringFormat() {
+        Random random = new Random(12);
+        double[] values = new double[10000];
+        for (int i = 0; i < values.length; i++) {
+            // Magnitudes from 1e-6 to 1e6, both signs.
+            values[i] = (random.nextBoolean() ? 1 : -1) * Math.pow(10, -6 + 12 * random.nextDouble());
+        }
+        for (int decimals = 0; decimals <= 8; decimals++) {
+            assertEncodesLikeFormat(values, decimals);
+        }
+    }
+
+    @Test
+    void encodesTiesOfEveryPrecisionLikeStringFormat() {
+        List<Double> ties = new ArrayList<>();
+        for (int decimals = 1; decimals <= 8; decimals++) {
+            double half = 0.5 / Math.pow(10, decimals);
+            for (int units = 0; units < 200; units++) {
+                double tie = units / Math.pow(10, decimals) + half;
+                ties.add(tie);
+                ties.add(-tie);
+                ties.add(Math.nextUp(tie));
+                ties.add(Math.nextDown(tie));
+            }
+        }
+        double[] values = ties.stream().mapToDouble(Double::doubleValue).toArray();
+        for (int decimals = 0; decimals <= 9; decimals++) {
+            assertEncodesLikeFormat(values, decimals);
+        }
+    }
+
+    @Test
+    void encodesRowsAsWordAndValues() {
+        VectorStore vectors = new VectorStore(3, 2, Precision.FLOAT64);
+        vectors.put("alpha", new double[]{0.5, -0.25, 1});
+        vectors.put("beta", new double[]{-0.0, 2.00004, Double.NaN});
+        VectorFileWriter.Chunk chunk = new VectorFileWriter.ChunkEncoder(4, 3).encode(vectors, 0, 2);
+
+        assertEquals(2, chunk.rows);
+        assertEquals("alpha 0.5000 -0.2500 1.0000\nbeta -0.0000 2.0000 NaN\n",
+                new String(chunk.bytes, 0, chunk.length, Charset.defaultCharset()));
+    }
+
+    /** Encodes the values as one row of a FLOAT64 store, so they reach the encoder unchanged. */
+    private static void assertEncodesLikeFormat(double[] values, int decimals) {
+        VectorStore vectors = new VectorStore(values.length, 1, Precision.FLOAT64);
+        vectors.put("w", values);
+        VectorFileWriter.Chunk chunk = new VectorFileWriter.ChunkEncoder(decimals, values.length).encode(vectors, 0, 1);
+        String[] fields = new String(chunk.bytes, 0, chunk.length, Charset.defaultCharset()).trim().split(" ");
+
+        assertEquals(values.length + 1, fields.length);
+        for (int i = 0; i < values.length; i++) {
+            String expected = String.format(Locale.ROOT, "%." + decimals + "f", values[i]);
+            assertEquals(expected, fields[i + 1], "value " + values[i] + " with " + decimals + " decimals");
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.wordVectorRetrofit.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswIndexTest {
+
+    private static final int SIZE = 2000;
+    private static final int DIMENSION = 32;
+    private static final int K = 10;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void mappedIndexFindsTheSameNeighborsAsTheBuiltOne() throws IOException {
+        VectorStore vectors = clusteredVectors(SIZE, DIMENSION, 1.0, 1);
+        HnswIndex built = HnswIndex.build(vectors, 8, 100, 2);
+        String file = directory.resolve("vectors.hnsw").toString();
+        built.save(file);
+        HnswIndex mapped = HnswIndex.map(file, vectors);
+
+        assertEquals(built.size(), mapped.size());
+        for (int row = 0; row < SIZE; row += 37) {
+            List<Neighbor> expected = built.nearest(vectors.word(row), K);
+            List<Neighbor> actual = mapped.nearest(vectors.word(row), K);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getRow(), actual.get(i).getRow());
+                assertEquals(expected.get(i).getSimilarity(), actual.get(i).getSimilarity(), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void mappedIndexScoresWithTheNormsOfTheVectorsItIsMappedFor() throws IOException {
+        VectorStore original = clusteredVectors(SIZE, DIMENSION, 1.0, 2);
+        String file = directory.resolve("original.hnsw").toString();
+        HnswIndex.build(original, 8, 100, 2).save(file);
+
+        // Same words, rows scaled by different factors: the stored norms no longer apply.
+        VectorStore rescaled = clusteredVectors(SIZE, DIMENSION, 3.0, 2);
+        HnswIndex mapped = HnswIndex.map(file, rescaled);
+        for (int row = 0; row < SIZE; row += 101) {
+            for (Neighbor neighbor : mapped.nearest(rescaled.word(row), K)) {
+                double cosine = VectorProcessor.cosineSimilarity(rescaled.getRow(row), rescaled.getRow(neighbor.getRow()));
+                assertEquals(cosine, neighbor.getSimilarity(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void mapRejectsAnIndexBuiltForOtherWords() throws IOException {
+        String file = directory.resolve("a.hnsw").toString();
+        HnswIndex.build(clusteredVectors(500, DIMENSION, 1.0, 3)).save(file);
+
+        VectorStore other = new VectorStore(DIMENSION, 500);
+        Random random = new Random(4);
+        for (int row = 0; row < 500; row++) {
+            other.put("other" + row, randomVector(random, DIMENSION));
+        }
+        assertThrows(IOException.class, () -> HnswIndex.map(file, other));
+    }
+
+    @Test
+    void recallAgainstExactSearchIsHigh() {
+        VectorStore vectors = clusteredVectors(SIZE, DIMENSION, 1.0, 5);
+        HnswIndex index = HnswIndex.build(vectors);
+        ExactNearestNeighbors exact = new ExactNearestNeighbors(vectors);
+
+        int found = 0;
+        int queries = 0;
+        for (int row = 0; row < SIZE; row += 13) {
+            Set<Integer> expected = new HashSet<>();
+            for (Neighbor neighbor : exact.nearest(vectors.word(row), K)) {
+                expected.add(neighbor.getRow());
+            }
+            for (Neighbor neighbor : index.nearest(vectors.word(row), K)) {
+                if (expected.contains(neighbor.getRow())) {
+                    found++;
+                }
+            }
+            queries++;
+        }
+        double recall = (double) found / (queries * K);
+        assertTrue(recall >= 0.9, "recall@" + K + " was " + recall);
+    }
+
+    /**
+     * Rows grouped around 16 random directions, as trained embeddings are; row {@code r} is scaled
+     * by {@code 1 + scale * (r % 7)} so that the rows are not unit length.
+     */
+    static VectorStore clusteredVectors(int size, int dimension, double scale, long seed) {
+        Random random = new Random(seed);
+        double[][] centers = new double[16][];
+        for (int c = 0; c < centers.length; c++) {
+            centers[c] = randomVector(random, dimension);
+        }
+        VectorStore vectors = new VectorStore(dimension, size);
+        for (int row = 0; row < size; row++) {
+            double[] center = centers[random.nextInt(centers.length)];
+            double[] vector = new double[dimension];
+            double factor = 1 + scale * (row % 7);
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = factor * (center[i] + 0.5 * random.nextGaussian());
+            }
+            vectors.put("w" + row, vector);
+        }
+        return vectors;
+    }
+
+    private static double[] randomVector(Random random, int dimension) {
+        double[] vector = new double[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = random.nextGaussian();
+        }
+        return vector;
+    }
+}
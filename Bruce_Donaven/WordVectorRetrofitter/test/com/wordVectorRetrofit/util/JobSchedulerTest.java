@@ -0,0 +1,152 @@
+package com.wordVectorRetrofit.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobSchedulerTest {
+
+    private final JobScheduler scheduler = new JobScheduler("test", 1, 1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void shutDown() {
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void rejectRefusesASecondJobWithTheSameKey() throws Exception {
+        JobScheduler.Job running = scheduler.submit("a", "first", JobScheduler.Policy.REJECT, job -> awaitRelease());
+        JobScheduler.Job refused = scheduler.submit("a", "second", JobScheduler.Policy.REJECT, job -> { });
+
+        assertEquals(JobScheduler.State.REJECTED, refused.state());
+        assertInstanceOf(RejectedExecutionException.class, refused.error());
+        assertTrue(refused.completion().isDone());
+        assertEquals(running, scheduler.active("a"));
+
+        release.countDown();
+        assertEquals(JobScheduler.State.SUCCEEDED, finished(running));
+        assertNull(scheduler.active("a"));
+    }
+
+    @Test
+    void rejectsOnceTheQueueIsFull() throws Exception {
+        JobScheduler.Job running = scheduler.submit("a", "running", JobScheduler.Policy.REJECT, job -> awaitRelease());
+        awaitRunning(running);
+        JobScheduler.Job queued = scheduler.submit("b", "queued", JobScheduler.Policy.REJECT, job -> { });
+        JobScheduler.Job refused = scheduler.submit("c", "overflow", JobScheduler.Policy.REJECT, job -> { });
+
+        assertEquals(JobScheduler.State.REJECTED, refused.state());
+        assertInstanceOf(RejectedExecutionException.class, refused.error());
+        release.countDown();
+        assertEquals(JobScheduler.State.SUCCEEDED, finished(running));
+        assertEquals(JobScheduler.State.SUCCEEDED, finished(queued));
+    }
+
+    @Test
+    void coalesceSupersedesTheRunningJob() throws Exception {
+        JobScheduler.Job old = scheduler.submit("a", "old", JobScheduler.Policy.COALESCE, job -> {
+            while (true) {
+                job.checkCancelled();
+                Thread.sleep(1);
+            }
+        });
+        awaitRunning(old);
+        JobScheduler.Job replacement = scheduler.submit("a", "new", JobScheduler.Policy.COALESCE, job -> { });
+
+        assertEquals(JobScheduler.State.SUPERSEDED, finished(old));
+        assertNull(old.error());
+        assertEquals(JobScheduler.State.SUCCEEDED, finished(replacement));
+    }
+
+    @Test
+    void aSupersededQueuedJobNeverRuns() throws Exception {
+        JobScheduler scheduler = new JobScheduler("test", 1, 4);
+        try {
+            JobScheduler.Job blocker = scheduler.submit("a", "blocker", JobScheduler.Policy.REJECT, job -> awaitRelease());
+            AtomicBoolean ran = new AtomicBoolean();
+            JobScheduler.Job old = scheduler.submit("b", "old", JobScheduler.Policy.COALESCE, job -> ran.set(true));
+            JobScheduler.Job replacement = scheduler.submit("b", "new", JobScheduler.Policy.COALESCE, job -> { });
+            release.countDown();
+
+            assertEquals(JobScheduler.State.SUCCEEDED, finished(blocker));
+            assertEquals(JobScheduler.State.SUPERSEDED, finished(old));
+            assertFalse(ran.get());
+            assertEquals(JobScheduler.State.SUCCEEDED, finished(replacement));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void cancelAllCancelsRunningAndQueuedJobs() throws Exception {
+        AtomicBoolean queuedRan = new AtomicBoolean();
+        JobScheduler.Job running = scheduler.submit("a", "running", JobScheduler.Policy.REJECT, job -> {
+            while (true) {
+                job.checkCancelled();
+                Thread.sleep(1);
+            }
+        });
+        awaitRunning(running);
+        JobScheduler.Job queued = scheduler.submit("b", "queued", JobScheduler.Policy.REJECT, job -> queuedRan.set(true));
+
+        List<JobScheduler.Snapshot> cancelled = scheduler.cancelAll();
+
+        assertEquals(2, cancelled.size());
+        assertEquals(JobScheduler.State.CANCELLED, finished(running));
+        assertEquals(JobScheduler.State.CANCELLED, finished(queued));
+        assertFalse(queuedRan.get());
+    }
+
+    @Test
+    void aThrowingJobFailsWithItsException() throws Exception {
+        IllegalStateException failure = new IllegalStateException("broken");
+        JobScheduler.Job job = scheduler.submit("a", "failing", JobScheduler.Policy.REJECT, j -> {
+            throw failure;
+        });
+
+        assertEquals(JobScheduler.State.FAILED, finished(job));
+        assertEquals(failure, job.error());
+    }
+
+    @Test
+    void snapshotsCarryTheLastProgress() throws Exception {
+        JobScheduler.Job job = scheduler.submit("a", "progress", JobScheduler.Policy.REJECT, j -> j.setProgress(3, 10, "step"));
+        finished(job);
+
+        JobScheduler.Snapshot snapshot = job.snapshot();
+        assertEquals(3, snapshot.done());
+        assertEquals(10, snapshot.total());
+        assertEquals("step", snapshot.message());
+        assertEquals(JobScheduler.State.SUCCEEDED, snapshot.state());
+        assertTrue(scheduler.jobs().stream().anyMatch(s -> s.id() == job.id()));
+    }
+
+    private void awaitRelease() throws InterruptedException {
+        assertTrue(release.await(10, TimeUnit.SECONDS), "test never released the job");
+    }
+
+    private static void awaitRunning(JobScheduler.Job job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (job.state() == JobScheduler.State.QUEUED && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(JobScheduler.State.RUNNING, job.state());
+    }
+
+    private static JobScheduler.State finished(JobScheduler.Job job) throws Exception {
+        return job.completion().get(10, TimeUnit.SECONDS).state();
+    }
+}
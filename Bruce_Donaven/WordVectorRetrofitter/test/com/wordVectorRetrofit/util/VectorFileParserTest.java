@@ -0,0 +1,132 @@
+package com.wordVectorRetrofit.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VectorFileParserTest {
+
+    private static final String ROWS = "cat 1 2 3\ndog 2 0 1\ncar -1 0.5 4\n";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsFilesWithoutAHeader() throws IOException {
+        VectorStore vectors = read(write("plain.txt", ROWS));
+
+        assertEquals(3, vectors.size());
+        assertEquals(3, vectors.dimension());
+        assertRow(vectors, "car", -1, 0.5, 4);
+    }
+
+    @Test
+    void skipsTheCountAndDimensionHeaderOfVecFiles() throws IOException {
+        VectorStore vectors = read(write("fasttext.vec", "3 3\n" + ROWS));
+
+        assertEquals(3, vectors.size());
+        assertEquals(3, vectors.dimension());
+        assertFalse(vectors.contains("3"));
+        assertRow(vectors, "cat", 1, 2, 3);
+    }
+
+    @Test
+    void takesTheDimensionFromTheHeader() throws IOException {
+        // The first row is short; the header says which width is right.
+        VectorStore vectors = read(write("short.vec", "3 3\nbad 1 2\n" + ROWS));
+
+        assertEquals(3, vectors.size());
+        assertEquals(3, vectors.dimension());
+        assertFalse(vectors.contains("bad"));
+    }
+
+    @Test
+    void skipsTheHeaderOfCompressedFilesWithWindowsLineEnds() throws IOException {
+        Path file = directory.resolve("fasttext.vec.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(("3 3\r\n" + ROWS.replace("\n", "\r\n")).getBytes(StandardCharsets.UTF_8));
+        }
+        VectorStore vectors = read(file.toString());
+
+        assertEquals(3, vectors.size());
+        assertEquals(3, vectors.dimension());
+        assertRow(vectors, "dog", 2, 0, 1);
+    }
+
+    @Test
+    void keepsAOneValueRowAfterTheFirstLine() throws IOException {
+        VectorStore vectors = read(write("one.txt", "a 1\n7 2\n"));
+
+        assertEquals(2, vectors.size());
+        assertEquals(1, vectors.dimension());
+    }
+
+    @Test
+    void recognizesOnlyIntegerPairsAsHeaders() {
+        assertEquals(true, VectorFileParser.isHeader("400000", 1, 300));
+        assertEquals(false, VectorFileParser.isHeader("word", 1, 300));
+        assertEquals(false, VectorFileParser.isHeader("3", 1, 0.5));
+        assertEquals(false, VectorFileParser.isHeader("3", 2, 300));
+    }
+
+    @Test
+    void convertsToBinaryAsItParses() throws IOException {
+        // More rows than the writer buffers in double precision, with repeated words both before and after its last flush.
+        int rows = 6000;
+        int dimension = 100;
+        Random random = new Random(3);
+        StringBuilder text = new StringBuilder(rows + " " + dimension + "\n");
+        for (int row = 0; row <= rows + 1; row++) {
+            text.append(row == rows ? "w0" : row == rows + 1 ? "w" + (rows - 1) : "w" + row);
+            for (int d = 0; d < dimension; d++) {
+                text.append(' ').append(random.nextInt(2001) - 1000).append("e-3");
+            }
+            text.append('\n');
+        }
+        String input = write("large.vec", text.toString());
+        String output = directory.resolve("large" + BinaryVectorFormat.EXTENSION).toString();
+
+        FileOperations.convertToBinary(input, output, Precision.FLOAT64);
+
+        VectorStore expected = new VectorFileParser(input, Precision.FLOAT64, 2).read();
+        VectorStore actual = BinaryVectorFormat.map(output);
+        assertEquals(rows, actual.size());
+        assertEquals(dimension, actual.dimension());
+        assertTrue(actual.isNormalized());
+        for (int row = 0; row < rows; row++) {
+            assertEquals(expected.word(row), actual.word(row));
+            assertArrayEquals(expected.get(expected.word(row)), actual.get(actual.word(row)), "row " + row);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.count(), "the temporary row file is deleted");
+        }
+    }
+
+    private String write(String name, String text) throws IOException {
+        Path file = directory.resolve(name);
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file.toString();
+    }
+
+    private static VectorStore read(String file) throws IOException {
+        return new VectorFileParser(file, Precision.FLOAT64, 2).read();
+    }
+
+    /** Rows are stored unit length (up to a tiny epsilon in the norm), so compare with the normalized values. */
+    private static void assertRow(VectorStore vectors, String word, double... values) {
+        assertArrayEquals(VectorProcessor.normalize(values), vectors.get(word), 1e-6);
+    }
+}